@@ -0,0 +1,216 @@
+package lab9;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Data shared by the JMH benchmarks: a generated food file in the same format as <code>foods.txt</code>, a copy of it where half the rows are
+ * malformed, &amp; the file loaded the way <code>Driver</code> loads it, into a plain <code>FoodList</code>, one with its name indexes built, a
+ * <code>PersistentFoodList</code> &amp; an <code>OffHeapFoodStore</code>. Built once per trial for each list size. Lists of 10^7 items need
+ * a heap of around 4 GB, which the benchmarks' forks are given.
+ * <p>
+ * Also holds the generators the other benchmark programs use to write food files.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+public class BenchmarkData {
+    /**
+     * Number of names looked up in turn by the lookup benchmarks. Must be a power of 2.
+     */
+    static final int QUERIES = 1024;
+
+    /**
+     * Number of items in the list.
+     */
+    @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * The generated food file.
+     */
+    Path file;
+
+    /**
+     * The same file with every other row spoiled by <code>corrupt</code>.
+     */
+    Path dirtyFile;
+
+    /**
+     * The lines of <code>file</code>.
+     */
+    List<String> lines;
+
+    /**
+     * The lines of <code>dirtyFile</code>.
+     */
+    List<String> dirty;
+
+    /**
+     * The file's items.
+     */
+    FoodList foods;
+
+    /**
+     * The file's items, indexed by name &amp; for prefix &amp; typo-tolerant search.
+     */
+    FoodList indexed;
+
+    /**
+     * The file's items, in order.
+     */
+    Food[] items;
+
+    /**
+     * The file's items as a persistent list.
+     */
+    PersistentFoodList persistent;
+
+    /**
+     * The file's items off the heap.
+     */
+    OffHeapFoodStore store;
+
+    /**
+     * Names to look up, in mixed case. A tenth of them miss.
+     */
+    String[] queries;
+
+    /**
+     * The first 6 characters of each query.
+     */
+    String[] prefixes;
+
+    /**
+     * Column widths the line parsing benchmarks widen, reused so they don't count allocating it.
+     */
+    final int[] widths = new int[4];
+
+    /**
+     * Where the line parsing benchmarks record malformed rows, reused so they don't count allocating it.
+     */
+    final FoodParseReport skipped = new FoodParseReport();
+
+    /**
+     * Counter benchmarks use to step through lines, items &amp; queries in turn. Benchmarks run on one thread, so it isn't shared.
+     */
+    int next;
+
+    /**
+     * Writes the files &amp; loads them.
+     * @throws IOException if a file can't be written or read
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("foods-" + size + "-", ".txt");
+        generate(file, size, size);
+        lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        dirty = new ArrayList<String>(lines);
+        Random spoiler = new Random(size);
+        for(int i = 0; i < size; i += 2)
+            dirty.set(i, corrupt(dirty.get(i), spoiler));
+        dirtyFile = Files.createTempFile("foods-" + size + "-dirty-", ".txt");
+        Files.write(dirtyFile, dirty, StandardCharsets.UTF_8);
+
+        foods = FoodLoader.load(file);
+        items = new Food[size];
+        int n = 0;
+        for(Food f : foods)
+            items[n++] = f;
+        indexed = FoodLoader.load(file);
+        indexed.setNameIndexed(true);
+        indexed.setNameSearchIndexed(true);
+        persistent = new PersistentFoodList(foods);
+        store = OffHeapFoodStore.load(file);
+
+        Random rand = new Random(1);
+        queries = new String[QUERIES];
+        prefixes = new String[QUERIES];
+        for(int i = 0; i < QUERIES; i++) {
+            queries[i] = (rand.nextInt(10) == 0 ? "missing" : "FOOD") + rand.nextInt(size);
+            prefixes[i] = queries[i].substring(0, Math.min(6, queries[i].length()));
+        }
+    }
+
+    /**
+     * Frees the off-heap store &amp; deletes the files.
+     * @throws IOException if a file can't be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dirtyFile);
+    }
+
+    /**
+     * @return the position of the next line or item, cycling through them
+     */
+    int nextPosition() {
+        return (next++ & Integer.MAX_VALUE) % size;
+    }
+
+    /**
+     * @return the next query, cycling through them
+     */
+    String nextQuery() {
+        return queries[next++ & (QUERIES - 1)];
+    }
+
+    /**
+     * Writes a food file of generated items. Names are unique, food groups come from <code>FoodListBenchmark.GROUPS</code> &amp; Calories &amp;
+     * daily percentages are spread like those in <code>foods.txt</code>.
+     * @param file where to write
+     * @param size number of items
+     * @param seed seed for the generator
+     * @throws IOException if the file can't be written
+     */
+    static void generate(Path file, int size, long seed) throws IOException {
+        Random rand = new Random(seed);
+        try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(int i = 0; i < size; i++) {
+                out.write("Food" + i + " " + FoodListBenchmark.GROUPS[rand.nextInt(FoodListBenchmark.GROUPS.length)] + " " + rand.nextInt(1000)
+                        + " " + rand.nextInt(100) / 100.0);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Spoils a line of a generated food file in one of several ways, nearly all of which make it malformed: a missing or extra value, a doubled
+     * separator, an empty line, or text, overflow, a decimal or a percent sign in place of a number. One way puts Arabic-Indic digits in the
+     * Calories, which <code>Integer.parseInt</code> accepts, so parsers must still take such rows.
+     * @param line a line as <code>generate</code> writes it
+     * @param rand the generator
+     * @return the spoiled line
+     */
+    static String corrupt(String line, Random rand) {
+        String[] vars = line.split(" ");
+        switch(rand.nextInt(10)) {
+            case 0: return vars[0] + " " + vars[1] + " " + vars[2];
+            case 1: return line + " extra";
+            case 2: return vars[0] + "  " + vars[1] + " " + vars[2] + " " + vars[3];
+            case 3: return "";
+            case 4: return vars[0] + " " + vars[1] + " abc " + vars[3];
+            case 5: return vars[0] + " " + vars[1] + " 99999999999 " + vars[3];
+            case 6: return vars[0] + " " + vars[1] + " " + vars[2] + ".5 " + vars[3];
+            case 7: return vars[0] + " " + vars[1] + " " + vars[2] + " " + vars[3] + "%";
+            case 8: return vars[0] + " " + vars[1] + " " + vars[2] + " fade";
+            default: return vars[0] + " " + vars[1] + " \u0661\u0662 " + vars[3];
+        }
+    }
+}
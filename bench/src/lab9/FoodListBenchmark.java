@@ -0,0 +1,453 @@
+package lab9;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Executable class for timing <code>FoodList</code> operations on generated data. Not part of the lab itself; run it directly to compare
+ * implementations. Each benchmark warms up before it is measured &amp; prints its result to the terminal.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodListBenchmark {
+    /**
+     * Food groups used for generated items.
+     */
+    static final String[] GROUPS = {
+            "protein", "fruit", "vegetable", "grain", "dairy", "fat", "sweet", "beverage"
+    };
+
+    /**
+     * Number of food files <code>sharded</code> splits its items over.
+     */
+    static final int SHARDS = 24;
+
+    /**
+     * Start of execution
+     * @param args list sizes to benchmark (defaults to 1,000, 100,000 &amp; 1,000,000)
+     */
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if(args.length > 0) {
+            sizes = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for(int size : sizes) {
+            findByName(size);
+            removeHighCalFoods(size);
+            mealOptimizer(size);
+            randomMeals(size);
+            sharded(size);
+            malformed(size);
+        }
+    }
+
+    /**
+     * Builds a list of generated <code>Food</code>s. Names are unique &amp; Calories/daily percentages are uniformly distributed.
+     * @param size number of items
+     * @param seed seed for the generator
+     * @return the list
+     */
+    static FoodList generate(int size, long seed) {
+        Random rand = new Random(seed);
+        FoodList foods = new FoodList();
+        for(int i = 0; i < size; i++)
+            foods.add(new Food("Food" + i, GROUPS[rand.nextInt(GROUPS.length)], rand.nextInt(1000), rand.nextInt(100) / 100.0));
+        return foods;
+    }
+
+    /**
+     * Compares <code>findByName</code> with &amp; without the name index, looking up random names in mixed case (a tenth of which miss).
+     * @param size number of items in the list
+     */
+    static void findByName(int size) {
+        FoodList foods = generate(size, size);
+        Random rand = new Random(1);
+        String[] queries = new String[1024];
+        for(int i = 0; i < queries.length; i++)
+            queries[i] = (rand.nextInt(10) == 0 ? "missing" : "FOOD") + rand.nextInt(size);
+
+        // Scans are O(n), so scale the number of lookups down to keep the run short
+        int scans = (int) Math.max(10, Math.min(100_000, 1_000_000_000L / size));
+        double scanning = time(foods, queries, scans);
+        foods.setNameIndexed(true);
+        double indexed = time(foods, queries, 1_000_000);
+
+        System.out.printf("findByName, %,d items: scanning %,.1f ns/op, indexed %,.1f ns/op%n", size, scanning, indexed);
+    }
+
+    /**
+     * Compares repeated <code>removeHighCalFoods</code> purges with &amp; without the Calorie index, lowering the threshold 10 Calories at a time
+     * from 1,000 down to 500 so each purge removes about 1% of the original items.
+     * @param size number of items in the list
+     */
+    static void removeHighCalFoods(int size) {
+        double[] results = new double[2];
+        for(int indexed = 0; indexed < 2; indexed++) {
+            // Untimed warm-up run, then the timed one, each on a fresh list
+            for(int pass = 0; pass < 2; pass++) {
+                FoodList foods = generate(size, size);
+                foods.setCalorieIndexed(indexed == 1);
+                long start = System.nanoTime();
+                for(int cals = 1000; cals > 500; cals -= 10)
+                    foods.removeHighCalFoods(cals);
+                results[indexed] = (System.nanoTime() - start) / 50.0;
+            }
+        }
+
+        System.out.printf("removeHighCalFoods, %,d items: scanning %,.1f ns/op, indexed %,.1f ns/op%n", size, results[0], results[1]);
+    }
+
+    /**
+     * Compares generating 100,000 random meals of 3 items one <code>randomMeal</code> call at a time with generating them as a
+     * <code>MealBatch</code>, refilled in place, &amp; checks that streaming them to a sink gives the same meals.
+     * @param size number of items in the list
+     */
+    static void randomMeals(int size) {
+        FoodList foods = generate(size, size);
+        int numMeals = 100_000;
+        double[] times = new double[2];
+        long check = 0;
+        MealBatch batch = new MealBatch(numMeals, 3);
+        for(int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < numMeals; i++)
+                check += foods.randomMeal(3, false, FoodList.random.get())[0].getCals();
+            times[0] = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            foods.randomMeals(batch, false, pass);
+            times[1] = (System.nanoTime() - start) / 1e6;
+        }
+
+        // Streaming in smaller batches must give the same meals
+        long[] streamed = new long[1];
+        foods.randomMeals(numMeals, 3, false, 1, (meals, first) -> {
+            for(int m = 0; m < meals.getLength(); m++) {
+                if(meals.getPosition(m, 0) != batch.getPosition((int) first + m, 0) || meals.getCals(m) != batch.getCals((int) first + m))
+                    throw new IllegalStateException("Streamed meal " + (first + m) + " differs from the batch!");
+            }
+            streamed[0] += meals.getLength();
+        });
+        if(streamed[0] != numMeals)
+            throw new IllegalStateException("Streamed " + streamed[0] + " meals instead of " + numMeals + "!");
+
+        if(check < 0)
+            System.out.println(check);
+        System.out.printf("randomMeals, %,d items, %,d meals: one at a time %,.1f ms, batch %,.1f ms%n", size, numMeals, times[0], times[1]);
+    }
+
+    /**
+     * Times <code>MealOptimizer</code>'s two strategies for the 5 best meals of 3 &amp; of 10 items over a range of Calorie budgets, &amp; checks
+     * that they agree. Each is run once untimed first.
+     * @param size number of items in the list
+     */
+    static void mealOptimizer(int size) {
+        MealOptimizer optimizer = new MealOptimizer(generate(size, size));
+        for(int numFoods : new int[] {3, 10}) {
+            for(int budget : new int[] {300, 1_000, 3_000}) {
+                double[] times = new double[2];
+                Food[][][] results = new Food[2][][];
+                for(int strategy = 0; strategy < 2; strategy++) {
+                    for(int pass = 0; pass < 2; pass++) {
+                        long start = System.nanoTime();
+                        results[strategy] = strategy == 0 ? optimizer.byTable(numFoods, budget, 5, MealOptimizer.DAILY)
+                                : optimizer.bySearch(numFoods, budget, 5, MealOptimizer.DAILY);
+                        times[strategy] = (System.nanoTime() - start) / 1e6;
+                    }
+                }
+
+                // Ties may be broken differently, so compare the totals
+                if(results[0].length != results[1].length)
+                    throw new IllegalStateException("MealOptimizer strategies found different numbers of meals!");
+                for(int m = 0; m < results[0].length; m++) {
+                    if(Math.abs(total(results[0][m]) - total(results[1][m])) > 1e-9)
+                        throw new IllegalStateException("MealOptimizer strategies disagree on meal " + m + " of " + numFoods + " items under "
+                                + budget + " Calories!");
+                }
+
+                System.out.printf("MealOptimizer, %,d items, %d per meal, %,d Calories: table %,.1f ms, search %,.1f ms%n", size, numFoods,
+                        budget, times[0], times[1]);
+            }
+        }
+    }
+
+    /**
+     * @param meal some items
+     * @return the total of their daily percentages
+     */
+    private static double total(Food[] meal) {
+        double total = 0;
+        for(Food f : meal)
+            total += f.getDailyPercentage();
+        return total;
+    }
+
+    /**
+     * Splits <code>size</code> generated items over <code>SHARDS</code> food files &amp; checks a <code>FoodDatabase</code> of them, keeping a
+     * quarter of the items resident, against one <code>FoodList</code> of every file's items: lookups (names repeat across files, so the first
+     * shard must win), seeded meals, the total length &amp; iteration, before &amp; after purging twice. Times cold &amp; warm lookups &amp; meals,
+     * &amp; prints how often shards were loaded &amp; dropped. Throws an <code>IllegalStateException</code> describing the first mismatch.
+     * @param size number of items in total
+     */
+    static void sharded(int size) {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("shards-");
+            int perShard = Math.max(1, size / SHARDS);
+            FoodList merged = new FoodList();
+            merged.setNameIndexed(true);
+            for(int i = 0; i < SHARDS; i++) {
+                Path file = directory.resolve(String.format("cafeteria%02d.txt", i));
+                BenchmarkData.generate(file, perShard + i, i);
+                merged.addAll(FoodLoader.load(file));
+            }
+            int budget = Math.max(1, merged.getLength() / 4);
+            FoodDatabase db = new FoodDatabase(budget);
+            db.registerAll(directory);
+
+            Random rand = new Random(size);
+            String[] queries = new String[256];
+            for(int i = 0; i < queries.length; i++)
+                queries[i] = (rand.nextInt(10) == 0 ? "missing" : "food") + rand.nextInt(perShard + SHARDS);
+            double[] times = new double[4];
+            for(int round = 0; round < 3; round++) {
+                if(round > 0) {
+                    int cals = round == 1 ? 800 : 400;
+                    db.removeHighCalFoods(cals);
+                    merged.removeHighCalFoods(cals);
+                }
+
+                // Lookups, cold then warm
+                for(int pass = 0; pass < 2; pass++) {
+                    long start = System.nanoTime();
+                    for(String query : queries) {
+                        Food want = merged.findByName(query), got = db.findByName(query);
+                        if(!String.valueOf(want).equals(String.valueOf(got)))
+                            throw new IllegalStateException("FoodDatabase found " + got + " for \"" + query + "\", expected " + want);
+                    }
+                    times[pass] += (System.nanoTime() - start) / 1e3 / queries.length;
+                }
+
+                // Meals pick the same positions as they would in one list
+                for(int pass = 0; pass < 2; pass++) {
+                    long start = System.nanoTime();
+                    for(long seed = 0; seed < 100; seed++) {
+                        boolean replacement = seed % 2 == 0;
+                        String want = Arrays.toString(merged.randomMeal(5, replacement, seed));
+                        String got = Arrays.toString(db.randomMeal(5, replacement, seed));
+                        if(!want.equals(got))
+                            throw new IllegalStateException("FoodDatabase meal " + got + " for seed " + seed + ", expected " + want);
+                    }
+                    times[2 + pass] += (System.nanoTime() - start) / 1e3 / 100;
+                }
+
+                if(db.getLength() != merged.getLength())
+                    throw new IllegalStateException("FoodDatabase has " + db.getLength() + " items, expected " + merged.getLength());
+                Iterator<Food> want = merged.iterator();
+                for(Food got : db) {
+                    if(!want.hasNext() || !want.next().toString().equals(got.toString()))
+                        throw new IllegalStateException("FoodDatabase iterated " + got + " out of order");
+                }
+                if(db.getResidentItems() > budget + (long) (perShard + SHARDS) * ForkJoinPool.getCommonPoolParallelism())
+                    throw new IllegalStateException("FoodDatabase kept " + db.getResidentItems() + " items resident");
+            }
+            System.out.printf("FoodDatabase, %,d items in %d shards, a quarter resident: lookups %,.1f us cold, %,.1f us warm; meals %,.1f us cold, "
+                    + "%,.1f us warm; %,d loads, %,d evictions%n", size, SHARDS, times[0] / 3, times[1] / 3, times[2] / 3, times[3] / 3, db.getLoads(),
+                    db.getEvictions());
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // Clear out the files & their snapshots
+            if(directory != null) {
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for(Path file : files)
+                        Files.delete(file);
+                    Files.delete(directory);
+                } catch(IOException e) {
+                    System.err.println("Could not delete " + directory + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a generated food file where a third of the rows are spoiled by <code>BenchmarkData.corrupt</code> &amp; some lines end in \r\n,
+     * skipping the malformed rows sequentially, in parallel &amp; line by line with <code>Food.fromTextLine</code>, &amp; checks all three keep
+     * the same items &amp; report the same lines for the same reasons. Checks that loading without a report still throws for the first
+     * malformed row &amp; that the error budget is enforced exactly. Then times loading the spoiled file against a clean one of the same size,
+     * &amp; skipping malformed lines against catching <code>fromTextLine</code>'s exceptions. Throws an <code>IllegalStateException</code>
+     * describing the first mismatch.
+     * @param size number of rows
+     */
+    static void malformed(int size) {
+        Path clean = null, dirty = null;
+        try {
+            clean = Files.createTempFile("foods-" + size + "-", ".txt");
+            dirty = Files.createTempFile("foods-" + size + "-dirty-", ".txt");
+            BenchmarkData.generate(clean, size, size);
+            List<String> lines = Files.readAllLines(clean);
+            Random rand = new Random(size);
+            StringBuilder text = new StringBuilder();
+            for(int i = 0; i < lines.size(); i++) {
+                // A blank last line would be trailing whitespace, which loaders skip without counting
+                if(i < lines.size() - 1 && rand.nextInt(3) == 0)
+                    lines.set(i, BenchmarkData.corrupt(lines.get(i), rand));
+                text.append(lines.get(i)).append(rand.nextInt(5) == 0 ? "\r\n" : "\n");
+            }
+            Files.writeString(dirty, text);
+
+            // Line by line is the reference
+            FoodParseReport expected = new FoodParseReport(1000, Long.MAX_VALUE);
+            List<String> kept = new ArrayList<String>();
+            int[] widths = new int[4];
+            for(int i = 0; i < lines.size(); i++) {
+                Food f = Food.fromTextLine(lines.get(i), widths, expected, i + 1);
+                if(f != null)
+                    kept.add(fields(f));
+            }
+            FoodParseReport sequential = new FoodParseReport(1000, Long.MAX_VALUE);
+            checkMalformed("sequentially", FoodLoader.load(dirty, sequential), sequential, kept, expected);
+            FoodParseReport parallel = new FoodParseReport(1000, Long.MAX_VALUE);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                checkMalformed("in parallel", FoodLoader.loadParallel(dirty, pool, parallel), parallel, kept, expected);
+
+                // Without a report the first malformed row still throws, & the budget allows exactly that many
+                String first = expected.getRejected() > 0 ? expected.getReason(0).getMessage() : null;
+                for(int way = 0; way < 2; way++) {
+                    String thrown = null;
+                    try {
+                        if(way == 0)
+                            FoodLoader.load(dirty);
+                        else
+                            FoodLoader.loadParallel(dirty, pool);
+                    } catch(InputMismatchException e) {
+                        thrown = e.getMessage();
+                    }
+                    if(!String.valueOf(first).equals(String.valueOf(thrown)))
+                        throw new IllegalStateException("FoodLoader threw \"" + thrown + "\" " + (way == 0 ? "sequentially" : "in parallel")
+                                + ", expected \"" + first + "\"");
+                }
+                FoodLoader.loadParallel(dirty, pool, new FoodParseReport(10, expected.getRejected()));
+                if(expected.getRejected() > 0) {
+                    try {
+                        FoodLoader.loadParallel(dirty, pool, new FoodParseReport(10, expected.getRejected() - 1));
+                        throw new IllegalStateException("FoodLoader went over a budget of " + (expected.getRejected() - 1) + " malformed lines");
+                    } catch(InputMismatchException e) {
+                        // Expected
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+            // Time loads of the clean & spoiled files, then skipping against catching line by line
+            double[] times = new double[4];
+            for(int pass = 0; pass < 3; pass++) {
+                long start = System.nanoTime();
+                long items = FoodLoader.load(clean).getLength();
+                times[0] = (System.nanoTime() - start) / (double) size;
+                start = System.nanoTime();
+                items += FoodLoader.load(dirty, new FoodParseReport()).getLength();
+                times[1] = (System.nanoTime() - start) / (double) size;
+                FoodParseReport skipped = new FoodParseReport();
+                start = System.nanoTime();
+                for(int i = 0; i < lines.size(); i++)
+                    items += Food.fromTextLine(lines.get(i), widths, skipped, i + 1) != null ? 1 : 0;
+                times[2] = (System.nanoTime() - start) / (double) size;
+                start = System.nanoTime();
+                for(String line : lines) {
+                    try {
+                        items += Food.fromTextLine(line, widths) != null ? 1 : 0;
+                    } catch(InputMismatchException e) {
+                        // Skip it
+                    }
+                }
+                times[3] = (System.nanoTime() - start) / (double) size;
+                if(items < 0)
+                    System.out.println(items);
+            }
+            System.out.printf("Malformed rows, %,d lines with %,d malformed: load %,.1f ns/line clean, %,.1f ns/line spoiled; fromTextLine %,.1f "
+                    + "ns/line skipping, %,.1f ns/line catching%n", size, expected.getRejected(), times[0], times[1], times[2], times[3]);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                if(clean != null)
+                    Files.deleteIfExists(clean);
+                if(dirty != null)
+                    Files.deleteIfExists(dirty);
+            } catch(IOException e) {
+                System.err.println("Could not delete " + clean + " or " + dirty + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compares what a loader kept &amp; reported for <code>malformed</code>'s spoiled file with the line-by-line reference.
+     * @param way how the file was loaded, for the message
+     * @param foods the items the loader kept
+     * @param report the malformed rows it reported
+     * @param kept the fields of the items the reference kept, see <code>fields</code>
+     * @param expected the malformed rows the reference reported
+     */
+    private static void checkMalformed(String way, FoodList foods, FoodParseReport report, List<String> kept, FoodParseReport expected) {
+        if(!report.toString().equals(expected.toString()))
+            throw new IllegalStateException("FoodLoader reported " + report + " " + way + ", expected " + expected);
+        if(foods.getLength() != kept.size())
+            throw new IllegalStateException("FoodLoader kept " + foods.getLength() + " items " + way + ", expected " + kept.size());
+        Iterator<String> want = kept.iterator();
+        for(Food got : foods) {
+            String line = want.next();
+            if(!line.equals(fields(got)))
+                throw new IllegalStateException("FoodLoader kept " + got + " " + way + ", expected " + line);
+        }
+    }
+
+    /**
+     * @param f an item
+     * @return its fields, space-separated. Unlike its display line, this doesn't change as <code>Food.columnWidths</code> widens.
+     */
+    private static String fields(Food f) {
+        return f.getName() + " " + f.getGroup() + " " + f.getCals() + " " + f.getDailyPercentage();
+    }
+
+    /**
+     * Times lookups, after an untimed warm-up of the same length.
+     * @param foods list to search
+     * @param queries names to look up, cycled through
+     * @param lookups number of lookups to time
+     * @return average time per lookup in nanoseconds
+     */
+    private static double time(FoodList foods, String[] queries, int lookups) {
+        int found = 0;
+        long start = 0;
+        for(int pass = 0; pass < 2; pass++) {
+            start = System.nanoTime();
+            for(int i = 0; i < lookups; i++) {
+                if(foods.findByName(queries[i & (queries.length - 1)]) != null)
+                    found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Use the result so the lookups can't be optimized away
+        if(found < 0)
+            System.out.println(found);
+        return (double) elapsed / lookups;
+    }
+}
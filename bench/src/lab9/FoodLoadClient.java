@@ -0,0 +1,286 @@
+package lab9;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for <code>FoodServer</code>: opens a number of connections, each on its own virtual thread, &amp; has each send requests one at a
+ * time for a fixed time, waiting for every answer before sending the next. Requests are a mix of lookups (a tenth of them for names that don't
+ * exist), random meals &amp; pages of the list, plus, if asked, purges with a limit no item reaches, so the list is rewritten without shrinking.
+ * Reports throughput &amp; the latency of each kind of request as seen by the client, after an untimed warm-up.
+ * <p>
+ * Options: <code>--port=N</code> to load a server already running on localhost (default <code>FoodServer.DEFAULT_PORT</code>),
+ * <code>--self=N</code> to start one in this process serving N generated items instead, <code>--connections=N</code> (default 64),
+ * <code>--seconds=N</code> (default 10), <code>--warmup=N</code> seconds (default 2) &amp; <code>--purge</code>.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodLoadClient {
+    /**
+     * Kinds of request sent, with their share of the requests.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    enum Request {
+        FIND(60), MEAL(25), LIST(15), PURGE(0);
+
+        /**
+         * Percentage of requests of this kind.
+         */
+        final int share;
+
+        /**
+         * Constructor.
+         * @param share percentage of requests of this kind
+         */
+        Request(int share) {
+            this.share = share;
+        }
+    }
+
+    /**
+     * One request in this many is a purge when purges are on.
+     */
+    static final int PURGE_EVERY = 1000;
+
+    /**
+     * Most names fetched from the server to look up.
+     */
+    static final int NAMES = 1000;
+
+    /**
+     * Latencies of each kind of request, by ordinal.
+     */
+    static final FoodMetrics.Histogram[] latencies = new FoodMetrics.Histogram[Request.values().length];
+
+    /**
+     * Requests that got an <code>ERR</code> answer.
+     */
+    static final LongAdder errors = new LongAdder();
+
+    /**
+     * Start of execution
+     * @param args options, see the class description
+     * @throws IOException if the server can't be reached or the generated data can't be written
+     * @throws InterruptedException if interrupted while waiting for the connections to finish
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = FoodServer.DEFAULT_PORT, self = 0, connections = 64, seconds = 10, warmup = 2;
+        boolean purge = false;
+        for(String arg : args) {
+            if(arg.startsWith("--port="))
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            else if(arg.startsWith("--self="))
+                self = Integer.parseInt(arg.substring("--self=".length()));
+            else if(arg.startsWith("--connections="))
+                connections = Integer.parseInt(arg.substring("--connections=".length()));
+            else if(arg.startsWith("--seconds="))
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            else if(arg.startsWith("--warmup="))
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            else if(arg.equals("--purge"))
+                purge = true;
+            else
+                throw new IllegalArgumentException("unknown option \"" + arg + "\"!");
+        }
+        for(int i = 0; i < latencies.length; i++)
+            latencies[i] = new FoodMetrics.Histogram();
+
+        // Start our own server if asked
+        FoodServer server = null;
+        if(self > 0) {
+            Path file = Files.createTempFile("foods-" + self + "-", ".txt");
+            try {
+                BenchmarkData.generate(file, self, self);
+                ConcurrentFoodList foods = new ConcurrentFoodList(self);
+                foods.addAll(FoodLoader.load(file));
+                server = new FoodServer(foods, 0);
+                server.start();
+                port = server.getPort();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        try {
+            run(port, connections, seconds, warmup, purge);
+        } finally {
+            if(server != null)
+                server.close();
+        }
+    }
+
+    /**
+     * Runs the load &amp; prints the results.
+     * @param port the server's port on localhost
+     * @param connections number of connections
+     * @param seconds how long to measure for
+     * @param warmup how long to run before measuring, in seconds
+     * @param purge whether to send purges
+     * @throws IOException if the server can't be reached
+     * @throws InterruptedException if interrupted while waiting for the connections to finish
+     */
+    static void run(int port, int connections, int seconds, int warmup, boolean purge) throws IOException, InterruptedException {
+        // Fetch some names to look up
+        List<String> names = new ArrayList<String>();
+        try(Connection c = new Connection(port)) {
+            for(String row : c.request("LIST 0 " + NAMES))
+                names.add(row.substring(0, row.indexOf(' ')));
+        }
+        if(names.isEmpty())
+            throw new IllegalStateException("The server has no foods to look up!");
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmup * 1_000_000_000L, end = measureFrom + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int t = 0; t < connections; t++) {
+            long seed = t;
+            threads.add(Thread.ofVirtual().name("food-load-" + t).start(() -> {
+                try(Connection c = new Connection(port)) {
+                    load(c, names, new SplittableRandom(seed), measureFrom, end, purge);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        for(Thread t : threads)
+            t.join();
+
+        // Print what we measured
+        long total = 0;
+        for(FoodMetrics.Histogram h : latencies)
+            total += h.count.sum();
+        System.out.printf("%,d connections, %,d requests in %d s: %,.0f requests/s, %,d errors%n", connections, total, seconds,
+                total / (double) seconds, errors.sum());
+        System.out.printf("%-10s %12s %12s %12s %12s %12s%n", "Request", "Count", "Mean us", "p50 us", "p99 us", "Max us");
+        for(Request r : Request.values()) {
+            FoodMetrics.Histogram h = latencies[r.ordinal()];
+            if(h.count.sum() > 0)
+                System.out.printf("%-10s %,12d %,12.1f %,12.1f %,12.1f %,12.1f%n", r, h.count.sum(), h.mean() / 1000, h.percentile(0.5) / 1000,
+                        h.percentile(0.99) / 1000, h.max.get() / 1000.0);
+        }
+    }
+
+    /**
+     * Sends requests on one connection until the end time, recording their latencies once the measuring starts.
+     * @param c the connection
+     * @param names names to look up
+     * @param rand generator for picking requests
+     * @param measureFrom when to start recording, from <code>System.nanoTime</code>
+     * @param end when to stop, from <code>System.nanoTime</code>
+     * @param purge whether to send purges
+     * @throws IOException if the connection fails
+     */
+    static void load(Connection c, List<String> names, SplittableRandom rand, long measureFrom, long end, boolean purge) throws IOException {
+        for(long now = System.nanoTime(); now < end; ) {
+            Request kind;
+            String request;
+            int pick = rand.nextInt(100);
+            if(purge && rand.nextInt(PURGE_EVERY) == 0) {
+                kind = Request.PURGE;
+                request = "PURGE " + Integer.MAX_VALUE;
+            } else if(pick < Request.FIND.share) {
+                kind = Request.FIND;
+                String name = names.get(rand.nextInt(names.size()));
+                request = "FIND " + (rand.nextInt(10) == 0 ? name + "-missing" : name);
+            } else if(pick < Request.FIND.share + Request.MEAL.share) {
+                kind = Request.MEAL;
+                request = "MEAL 3";
+            } else {
+                kind = Request.LIST;
+                request = "LIST " + rand.nextInt(names.size()) + " 20";
+            }
+
+            long started = System.nanoTime();
+            c.request(request);
+            now = System.nanoTime();
+            if(started >= measureFrom)
+                latencies[kind.ordinal()].record(now - started);
+        }
+    }
+
+    /**
+     * A connection to the server.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class Connection implements AutoCloseable {
+        /**
+         * The socket.
+         */
+        private final Socket socket;
+
+        /**
+         * Answers from the server.
+         */
+        private final BufferedReader in;
+
+        /**
+         * Requests to the server.
+         */
+        private final Writer out;
+
+        /**
+         * Constructor. Connects to a server on localhost.
+         * @param port the server's port
+         * @throws IOException if the server can't be reached
+         */
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Sends a request &amp; reads its answer.
+         * @param request the request line
+         * @return the lines of the answer after <code>OK n</code>, empty if it was an <code>ERR</code>
+         * @throws IOException if the connection fails
+         */
+        List<String> request(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+
+            String status = in.readLine();
+            if(status == null)
+                throw new IOException("The server closed the connection!");
+            List<String> lines = new ArrayList<String>();
+            if(!status.startsWith("OK ")) {
+                errors.increment();
+                return lines;
+            }
+            int count = Integer.parseInt(status.substring(3));
+            for(int i = 0; i < count; i++)
+                lines.add(in.readLine());
+            return lines;
+        }
+
+        /**
+         * Closes the connection.
+         * @throws IOException if the socket can't be closed
+         */
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
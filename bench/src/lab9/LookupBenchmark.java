@@ -0,0 +1,120 @@
+package lab9;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of single lookups: <code>findByName</code> scanning &amp; indexed, <code>findByPrefix</code> &amp; <code>findSimilar</code>
+ * (indexed), the same name lookup on an <code>OffHeapFoodStore</code>, &amp; picking random meals of 3 foods from each. Names are looked up in
+ * turn from <code>BenchmarkData.queries</code>. Run with <code>-prof gc</code> for bytes allocated per operation.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class LookupBenchmark {
+    /**
+     * Reusable output of <code>OffHeapFoodStore.randomMeal</code>, so picking meals off the heap allocates nothing.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Thread)
+    public static class Picks {
+        /**
+         * Positions of the foods picked.
+         */
+        final int[] positions = new int[3];
+
+        /**
+         * The generator meals are picked with.
+         */
+        final SplittableRandom random = new SplittableRandom(1);
+    }
+
+    /**
+     * Looks up the next name by scanning the list.
+     * @param data the benchmark data
+     * @return the item found, or <code>null</code>
+     */
+    @Benchmark
+    public Food findByNameScan(BenchmarkData data) {
+        return data.foods.findByName(data.nextQuery());
+    }
+
+    /**
+     * Looks up the next name in the name index.
+     * @param data the benchmark data
+     * @return the item found, or <code>null</code>
+     */
+    @Benchmark
+    public Food findByNameIndexed(BenchmarkData data) {
+        return data.indexed.findByName(data.nextQuery());
+    }
+
+    /**
+     * Finds up to 5 names starting with the next prefix.
+     * @param data the benchmark data
+     * @return the items found
+     */
+    @Benchmark
+    public Food[] findByPrefix(BenchmarkData data) {
+        return data.indexed.findByPrefix(data.prefixes[data.next++ & (BenchmarkData.QUERIES - 1)], 5);
+    }
+
+    /**
+     * Finds up to 5 names within one edit of the next name.
+     * @param data the benchmark data
+     * @return the items found
+     */
+    @Benchmark
+    public Food[] findSimilar(BenchmarkData data) {
+        return data.indexed.findSimilar(data.nextQuery(), 1, 5);
+    }
+
+    /**
+     * Looks up the next name by scanning the off-heap store.
+     * @param data the benchmark data
+     * @return the position found, or -1
+     */
+    @Benchmark
+    public int findByNameOffHeap(BenchmarkData data) {
+        return data.store.indexOf(data.nextQuery());
+    }
+
+    /**
+     * Picks a random meal of 3 foods.
+     * @param data the benchmark data
+     * @return the meal
+     */
+    @Benchmark
+    public Food[] randomMeal(BenchmarkData data) {
+        return data.foods.randomMeal(3);
+    }
+
+    /**
+     * Picks a random meal of 3 foods off the heap.
+     * @param data the benchmark data
+     * @param picks where to put the meal
+     * @return the Calories of its first food
+     */
+    @Benchmark
+    public int randomMealOffHeap(BenchmarkData data, Picks picks) {
+        data.store.randomMeal(picks.positions, true, picks.random);
+        return data.store.getCals(picks.positions[0]);
+    }
+}
@@ -0,0 +1,83 @@
+package lab9;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of parsing: single lines with <code>Food.fromTextLine</code> &amp; whole files with <code>FoodLoader</code> &amp;
+ * <code>OffHeapFoodStore</code>, on clean input &amp; on input where half the rows are malformed &amp; skipped. Loads are one whole file per
+ * operation. Run with <code>-prof gc</code> for bytes allocated per operation.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+    /**
+     * Parses the next line of the file.
+     * @param data the benchmark data
+     * @return the item
+     */
+    @Benchmark
+    public Food fromTextLine(BenchmarkData data) {
+        return Food.fromTextLine(data.lines.get(data.nextPosition()), data.widths);
+    }
+
+    /**
+     * Parses the next line of the half-malformed file, skipping it if it is malformed.
+     * @param data the benchmark data
+     * @return the item, or <code>null</code> if it was skipped
+     */
+    @Benchmark
+    public Food fromTextLineMalformed(BenchmarkData data) {
+        int line = data.nextPosition();
+        return Food.fromTextLine(data.dirty.get(line), data.widths, data.skipped, line + 1);
+    }
+
+    /**
+     * Loads the whole file.
+     * @param data the benchmark data
+     * @return the items
+     * @throws IOException if the file can't be read
+     */
+    @Benchmark
+    public FoodList load(BenchmarkData data) throws IOException {
+        return FoodLoader.load(data.file);
+    }
+
+    /**
+     * Loads the whole half-malformed file, skipping the malformed rows.
+     * @param data the benchmark data
+     * @return the items kept
+     * @throws IOException if the file can't be read
+     */
+    @Benchmark
+    public FoodList loadMalformed(BenchmarkData data) throws IOException {
+        return FoodLoader.load(data.dirtyFile, new FoodParseReport());
+    }
+
+    /**
+     * Loads the whole file off the heap.
+     * @param data the benchmark data
+     * @return the number of items
+     * @throws IOException if the file can't be read
+     */
+    @Benchmark
+    public int loadOffHeap(BenchmarkData data) throws IOException {
+        try(OffHeapFoodStore store = OffHeapFoodStore.load(data.file)) {
+            return store.getLength();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package lab9;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of formatting &amp; of walking every item: <code>Food.toString</code>, pages of rows through a <code>FoodTableRenderer</code>
+ * (cached &amp; not), iteration over a <code>FoodList</code> &amp; a <code>PersistentFoodList</code>, Calorie totals per group over sequential
+ * &amp; parallel streams, a Calorie scan of an <code>OffHeapFoodStore</code> &amp; <code>FoodList.toString</code>. Everything but the
+ * formatting benchmarks is one pass over the whole list per operation. Run with <code>-prof gc</code> for bytes allocated per operation.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class ScanBenchmark {
+    /**
+     * A list for <code>FoodList.toString</code>, which stops at 10^6 items since the whole table has to fit in one <code>String</code>.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Benchmark)
+    public static class Table {
+        /**
+         * Number of items in the list.
+         */
+        @Param({"100", "1000", "10000", "100000", "1000000"})
+        public int size;
+
+        /**
+         * The list.
+         */
+        FoodList foods;
+
+        /**
+         * Generates &amp; loads the list.
+         * @throws IOException if its file can't be written or read
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Path file = Files.createTempFile("foods-" + size + "-", ".txt");
+            try {
+                BenchmarkData.generate(file, size, size);
+                foods = FoodLoader.load(file);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Renderers writing to nowhere, one caching the default number of lines &amp; one caching none.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Thread)
+    public static class Renderers {
+        /**
+         * Rows per page.
+         */
+        static final int PAGE = 64;
+
+        /**
+         * Pages cycled through, few enough that all their lines fit in the cache.
+         */
+        static final int PAGES = FoodTableRenderer.DEFAULT_CACHED_LINES / PAGE;
+
+        /**
+         * The caching renderer.
+         */
+        final FoodTableRenderer cached = new FoodTableRenderer(Writer.nullWriter());
+
+        /**
+         * The renderer that formats every row.
+         */
+        final FoodTableRenderer uncached = new FoodTableRenderer(Writer.nullWriter(), 0);
+    }
+
+    /**
+     * Formats the next item.
+     * @param data the benchmark data
+     * @return the line
+     */
+    @Benchmark
+    public String foodToString(BenchmarkData data) {
+        return data.items[data.nextPosition()].toString();
+    }
+
+    /**
+     * Writes the next of the first few pages, whose lines are cached after the first pass.
+     * @param data the benchmark data
+     * @param renderers the renderers
+     * @return the number of rows written
+     */
+    @Benchmark
+    public int renderPageCached(BenchmarkData data, Renderers renderers) {
+        int from = (data.next++ & (Renderers.PAGES - 1)) * Renderers.PAGE % data.size;
+        return renderers.cached.page(data.foods.iterator(from), Renderers.PAGE);
+    }
+
+    /**
+     * Writes the next of the first few pages, formatting every row.
+     * @param data the benchmark data
+     * @param renderers the renderers
+     * @return the number of rows written
+     */
+    @Benchmark
+    public int renderPageUncached(BenchmarkData data, Renderers renderers) {
+        int from = (data.next++ & (Renderers.PAGES - 1)) * Renderers.PAGE % data.size;
+        return renderers.uncached.page(data.foods.iterator(from), Renderers.PAGE);
+    }
+
+    /**
+     * Sums the Calories of every item with an iterator.
+     * @param data the benchmark data
+     * @return the sum
+     */
+    @Benchmark
+    public long iterate(BenchmarkData data) {
+        long sum = 0;
+        for(Iterator<Food> it = data.foods.iterator(); it.hasNext(); )
+            sum += it.next().getCals();
+        return sum;
+    }
+
+    /**
+     * Totals the Calories of each group over a sequential stream.
+     * @param data the benchmark data
+     * @return the totals
+     */
+    @Benchmark
+    public Map<String, Long> streamCaloriesByGroup(BenchmarkData data) {
+        return data.foods.stream().collect(Collectors.groupingBy(Food::getGroup, Collectors.summingLong(Food::getCals)));
+    }
+
+    /**
+     * Totals the Calories of each group over a parallel stream.
+     * @param data the benchmark data
+     * @return the totals
+     */
+    @Benchmark
+    public Map<String, Long> parallelStreamCaloriesByGroup(BenchmarkData data) {
+        return data.foods.parallelStream().collect(Collectors.groupingBy(Food::getGroup, Collectors.summingLong(Food::getCals)));
+    }
+
+    /**
+     * Sums the Calories of every item of the persistent list with an iterator.
+     * @param data the benchmark data
+     * @return the sum
+     */
+    @Benchmark
+    public long iteratePersistent(BenchmarkData data) {
+        long sum = 0;
+        for(Iterator<Food> it = data.persistent.iterator(); it.hasNext(); )
+            sum += it.next().getCals();
+        return sum;
+    }
+
+    /**
+     * Sums the Calories of every item off the heap.
+     * @param data the benchmark data
+     * @return the sum
+     */
+    @Benchmark
+    public long scanCaloriesOffHeap(BenchmarkData data) {
+        OffHeapFoodStore store = data.store;
+        long sum = 0;
+        for(int i = 0; i < store.getLength(); i++)
+            sum += store.getCals(i);
+        return sum;
+    }
+
+    /**
+     * Formats the whole list as a table.
+     * @param table the list
+     * @return the table
+     */
+    @Benchmark
+    public String listToString(Table table) {
+        return table.foods.toString();
+    }
+}
@@ -0,0 +1,187 @@
+package lab9;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of changes: filling a <code>FoodList</code> with <code>add</code>, purges with <code>removeHighCalFoods</code> (scanning,
+ * indexed, off the heap &amp; as what-if versions of a <code>PersistentFoodList</code>) &amp; single appends to a persistent list. A purge
+ * operation is a sweep of 50 Calorie limits from 1000 down to 510, each removing about 1% of the items, on a fresh copy built outside the
+ * timed region. Run with <code>-prof gc</code> for bytes allocated per operation; it counts whole iterations, so for the purges of copies it
+ * includes building them.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class UpdateBenchmark {
+    /**
+     * A fresh copy of the list to purge, without a Calorie index.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Thread)
+    public static class Scanned {
+        /**
+         * The copy.
+         */
+        FoodList foods;
+
+        /**
+         * Copies the list.
+         * @param data the benchmark data
+         */
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkData data) {
+            foods = new FoodList();
+            foods.addAll(data.foods);
+        }
+    }
+
+    /**
+     * A fresh copy of the list to purge, with a Calorie index.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Thread)
+    public static class Indexed {
+        /**
+         * The copy.
+         */
+        FoodList foods;
+
+        /**
+         * Copies the list &amp; indexes it.
+         * @param data the benchmark data
+         */
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkData data) {
+            foods = new FoodList();
+            foods.addAll(data.foods);
+            foods.setCalorieIndexed(true);
+        }
+    }
+
+    /**
+     * A fresh off-heap copy of the list to purge.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    @State(Scope.Thread)
+    public static class OffHeap {
+        /**
+         * The copy.
+         */
+        OffHeapFoodStore store;
+
+        /**
+         * Copies the list off the heap.
+         * @param data the benchmark data
+         */
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkData data) {
+            store = new OffHeapFoodStore(data.size);
+            for(Food f : data.items)
+                store.add(f);
+        }
+
+        /**
+         * Frees the copy.
+         */
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            store.close();
+        }
+    }
+
+    /**
+     * Adds every item to a new list.
+     * @param data the benchmark data
+     * @return the list
+     */
+    @Benchmark
+    public FoodList add(BenchmarkData data) {
+        FoodList list = new FoodList();
+        for(Food f : data.items)
+            list.add(f);
+        return list;
+    }
+
+    /**
+     * Purges a list by scanning it.
+     * @param copy the list
+     * @return the list
+     */
+    @Benchmark
+    public FoodList removeHighCalFoodsScan(Scanned copy) {
+        for(int cals = 1000; cals > 500; cals -= 10)
+            copy.foods.removeHighCalFoods(cals);
+        return copy.foods;
+    }
+
+    /**
+     * Purges a list through its Calorie index.
+     * @param copy the list
+     * @return the list
+     */
+    @Benchmark
+    public FoodList removeHighCalFoodsIndexed(Indexed copy) {
+        for(int cals = 1000; cals > 500; cals -= 10)
+            copy.foods.removeHighCalFoods(cals);
+        return copy.foods;
+    }
+
+    /**
+     * Purges an off-heap store.
+     * @param copy the store
+     * @return the number of items left
+     */
+    @Benchmark
+    public int removeHighCalFoodsOffHeap(OffHeap copy) {
+        for(int cals = 1000; cals > 500; cals -= 10)
+            copy.store.removeHighCalFoods(cals);
+        return copy.store.getLength();
+    }
+
+    /**
+     * Makes a what-if version of the persistent list at each Calorie limit. The list itself never changes, so no copy is needed.
+     * @param data the benchmark data
+     * @return the total length of the versions
+     */
+    @Benchmark
+    public long removeHighCalFoodsPersistent(BenchmarkData data) {
+        long total = 0;
+        for(int cals = 1000; cals > 500; cals -= 10)
+            total += data.persistent.removeHighCalFoods(cals).getLength();
+        return total;
+    }
+
+    /**
+     * Makes a version of the persistent list with the next item appended.
+     * @param data the benchmark data
+     * @return the new version
+     */
+    @Benchmark
+    public PersistentFoodList addPersistent(BenchmarkData data) {
+        return data.persistent.add(data.items[data.nextPosition()]);
+    }
+}
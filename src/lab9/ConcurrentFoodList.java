@@ -0,0 +1,347 @@
+package lab9;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe collection of <code>Food</code> items for sharing one list between many threads, e.g. clients picking meals at the same time.
+ * Supports the same operations as <code>FoodList</code>.
+ * <p>
+ * Items live in an array of slots. The list's state is an immutable snapshot: the array, the number of slots in use &amp; a name index.
+ * Readers (lookups, random meals, iterators) take the current snapshot &amp; never lock or wait, so an iterator always sees the items as they
+ * were when it was made no matter what other threads do. Appends are lock-free: a thread claims the next free slot with a compare-and-set, then
+ * publishes a snapshot one item longer. Threads that find a slot claimed but not yet published publish it for the claimer instead of waiting.
+ * <p>
+ * Removals rewrite the list into a new array, so they take a lock against each other &amp; seal the old array's next free slot so nothing can be
+ * appended to it while it is copied. Appends that arrive during a removal wait for it to finish.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class ConcurrentFoodList implements Iterable<Food> {
+    /**
+     * The list's state at one point in time. Slots below <code>size</code> never change once published.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Snapshot {
+        /**
+         * The items, followed by free slots. Shared by every snapshot until the array is regrown or rewritten.
+         */
+        final AtomicReferenceArray<Food> items;
+
+        /**
+         * Number of items in this snapshot.
+         */
+        final int size;
+
+        /**
+         * Position of the first item with each case-folded name. Shared by every snapshot of the same array &amp; its regrown copies, so it may
+         * hold positions past <code>size</code>, which this snapshot must ignore.
+         */
+        final ConcurrentHashMap<String, Integer> names;
+
+        /**
+         * Constructor.
+         * @param items the slots
+         * @param size the number of items
+         * @param names the name index
+         */
+        Snapshot(AtomicReferenceArray<Food> items, int size, ConcurrentHashMap<String, Integer> names) {
+            this.items = items;
+            this.size = size;
+            this.names = names;
+        }
+    }
+
+    /**
+     * Marks the slot an appender would use next while a removal copies the array.
+     */
+    private static final Food SEALED = new Food();
+
+    /**
+     * The current state of the list.
+     */
+    private final AtomicReference<Snapshot> current;
+
+    /**
+     * Held by removals, so only one rewrites the list at a time. Appends only take it to wait for a removal to finish, reads never do.
+     */
+    private final ReentrantLock rewrite = new ReentrantLock();
+
+    /**
+     * Default constructor. Makes an empty list.
+     */
+    public ConcurrentFoodList() {
+        this(16);
+    }
+
+    /**
+     * Constructor with an expected number of items, so the array can be sized up front.
+     * @param capacity number of items to make room for
+     */
+    public ConcurrentFoodList(int capacity) {
+        current = new AtomicReference<Snapshot>(new Snapshot(new AtomicReferenceArray<Food>(Math.max(capacity, 1)), 0,
+                new ConcurrentHashMap<String, Integer>()));
+    }
+
+    /**
+     * Adds a <code>Food</code> to the end of the list. Lock-free, amortized O(1) time.
+     * @param f <code>Food</code> instance to be added.
+     */
+    public void add(Food f) {
+        while(true) {
+            Snapshot s = current.get();
+            int slot = s.size;
+
+            // Full arrays are never appended to, so whoever gets here first copies it into a bigger one
+            if(slot == s.items.length()) {
+                current.compareAndSet(s, new Snapshot(copy(s.items, slot, slot * 2), slot, s.names));
+                continue;
+            }
+
+            if(s.items.compareAndSet(slot, null, f)) {
+                // Ours. Index it before publishing so a reader who can see it can also find it by name
+                if(f.getName() != null)
+                    s.names.putIfAbsent(FoodNameIndex.fold(f.getName()), slot);
+                current.compareAndSet(s, new Snapshot(s.items, slot + 1, s.names));
+                return;
+            }
+
+            // Someone else's, so publish it for them. If a removal has sealed the array, wait until it has swapped in the new one
+            if(s.items.get(slot) == SEALED) {
+                rewrite.lock();
+                rewrite.unlock();
+            } else {
+                publish(s);
+            }
+        }
+    }
+
+    /**
+     * Adds every <code>Food</code> from an <code>Iterable</code> to the end of the list, one at a time, in iteration order. Other threads' items may
+     * end up in between.
+     * @param foods the items to be added
+     */
+    public void addAll(Iterable<? extends Food> foods) {
+        for(Food f : foods)
+            add(f);
+    }
+
+    /**
+     * Getter for the size of the list
+     * @return the number of items in the list right now
+     */
+    public int getLength() {
+        return current.get().size;
+    }
+
+    /**
+     * Deletes all items with Calories >= <code>cals</code>, keeping the rest in order. O(n) time. Readers carry on with the items as they were;
+     * appends made while this runs wait for it &amp; land after the remaining items.
+     * @param cals The Calorie threshold
+     */
+    public void removeHighCalFoods(int cals) {
+        long started = FoodMetrics.start();
+        rewrite.lock();
+        try {
+            while(true) {
+                Snapshot s = current.get();
+
+                // Seal the next free slot so the array can't change under us. Full arrays can only be regrown, which we just retry after
+                if(s.size < s.items.length() && !s.items.compareAndSet(s.size, null, SEALED)) {
+                    publish(s);
+                    continue;
+                }
+
+                // Copy the survivors into a new array with a new name index
+                AtomicReferenceArray<Food> kept = new AtomicReferenceArray<Food>(Math.max(16, s.items.length()));
+                ConcurrentHashMap<String, Integer> names = new ConcurrentHashMap<String, Integer>();
+                int size = 0;
+                for(int i = 0; i < s.size; i++) {
+                    Food f = s.items.get(i);
+                    if(f.getCals() < cals) {
+                        if(f.getName() != null)
+                            names.putIfAbsent(FoodNameIndex.fold(f.getName()), size);
+                        kept.set(size++, f);
+                    }
+                }
+
+                if(current.compareAndSet(s, new Snapshot(kept, size, names)))
+                    return;
+            }
+        } finally {
+            rewrite.unlock();
+            FoodMetrics.stop(FoodMetrics.Operation.REMOVE_HIGH_CAL_FOODS, started);
+        }
+    }
+
+    /**
+     * Searches for a <code>Food</code> by name (case-insensitive) in the list. If several items share the name, the first in the list is returned.
+     * O(1) time, never blocks.
+     * @param name the name of the <code>Food</code> to search for.
+     * @return the <code>Food</code> instance if found in the list,<code>null</code> if not.
+     */
+    public Food findByName(String name) {
+        long started = FoodMetrics.start();
+        try {
+            if(name == null)
+                return null;
+            Snapshot s = current.get();
+            Integer position = s.names.get(FoodNameIndex.fold(name));
+            return position != null && position < s.size ? s.items.get(position) : null;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.FIND_BY_NAME, started);
+        }
+    }
+
+    /**
+     * Picks foods at random from the list, possibly the same one more than once. Uses a generator kept by the calling thread. O(k) time.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods) {
+        return randomMeal(numFoods, true, FoodList.random.get());
+    }
+
+    /**
+     * Picks foods at random from the list, optionally without picking any item twice. Uses a generator kept by the calling thread. O(k) time.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement) {
+        return randomMeal(numFoods, replacement, FoodList.random.get());
+    }
+
+    /**
+     * Picks foods at random from the list as it is right now. See <code>FoodList.randomMeal(int, boolean, SplittableRandom)</code>. O(k) time.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) {
+        long started = FoodMetrics.start();
+        try {
+            Snapshot s = current.get();
+            FoodList.checkMeal(s.size, numFoods, replacement);
+            int[] picks = new int[numFoods];
+            FoodList.pickPositions(s.size, replacement, rand, picks, 0, numFoods);
+
+            Food[] meal = new Food[numFoods];
+            for(int i = 0; i < numFoods; i++)
+                meal[i] = s.items.get(picks[i]);
+            return meal;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.RANDOM_MEAL, started);
+        }
+    }
+
+    /**
+     * Copies the list as it is right now into a <code>FoodList</code>.
+     * @return a new <code>FoodList</code> of the same items, in order
+     */
+    public FoodList snapshot() {
+        FoodList foods = new FoodList();
+        foods.addAll(this);
+        return foods;
+    }
+
+    /**
+     * @return "Empty list!" if the list is empty, otherwise each <code>Food</code> in the list, in order, on its own line.
+     */
+    @Override
+    public String toString() {
+        Iterator<Food> cursor = iterator();
+        if(!cursor.hasNext())
+            return "Empty list!\n";
+        StringBuilder s = new StringBuilder();
+
+        while(cursor.hasNext()) {
+            s.append(cursor.next());
+            s.append('\n');
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance over the items as they are right now. Never affected by later changes to the list.
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return iterator(current.get(), 0);
+    }
+
+    /**
+     * Cursor for paging through the list from any position. Jumps to the position in O(1) &amp; reads the items as they are right now, so later
+     * changes to the list never affect it.
+     * @param from position of the first item to return, from 0
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that starts at <code>from</code>.
+     */
+    public Iterator<Food> iterator(int from) {
+        Snapshot s = current.get();
+        if(from < 0 || from > s.size)
+            throw new IndexOutOfBoundsException("position " + from + " is outside a list of " + s.size + " items!");
+        return iterator(s, from);
+    }
+
+    /**
+     * @param s the snapshot to read
+     * @param from position of the first item to return
+     * @return a new <code>Iterator&lt;Food&gt;</code> over the snapshot's items from <code>from</code>
+     */
+    private static Iterator<Food> iterator(Snapshot s, int from) {
+        return new Iterator<Food>() {
+            private int position = from;
+
+            @Override
+            public boolean hasNext() {
+                return position < s.size;
+            }
+
+            @Override
+            public Food next() {
+                if(position >= s.size)
+                    throw new NoSuchElementException();
+                return s.items.get(position++);
+            }
+        };
+    }
+
+    /**
+     * Publishes the item another thread has put in the slot after a snapshot, if it hasn't been already.
+     * @param s the snapshot
+     */
+    private void publish(Snapshot s) {
+        Food claimed = s.items.get(s.size);
+        if(claimed == null || claimed == SEALED)
+            return;
+
+        // The claimer indexes the name before publishing, so do the same in case we get there first
+        if(claimed.getName() != null)
+            s.names.putIfAbsent(FoodNameIndex.fold(claimed.getName()), s.size);
+        current.compareAndSet(s, new Snapshot(s.items, s.size + 1, s.names));
+    }
+
+    /**
+     * Copies slots into a new array.
+     * @param items the slots to copy
+     * @param size the number of slots to copy
+     * @param capacity the length of the new array
+     * @return the new array
+     */
+    private static AtomicReferenceArray<Food> copy(AtomicReferenceArray<Food> items, int size, int capacity) {
+        AtomicReferenceArray<Food> copy = new AtomicReferenceArray<Food>(capacity);
+        for(int i = 0; i < size; i++)
+            copy.set(i, items.get(i));
+        return copy;
+    }
+}
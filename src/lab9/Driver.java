@@ -1,8 +1,11 @@
 package lab9;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.InputMismatchException;
+import java.util.Iterator;
 import java.util.Scanner;
 
 /**
@@ -25,7 +28,10 @@ public class Driver {
             "2. Create meal by manual selection",
             "3. Create meal by random selection",
             "4. Remove foods high in calorie",
-            "5. Exit"
+            "5. Create best meal under a calorie budget",
+            "6. Show food group summary",
+            "7. Show performance metrics",
+            "8. Exit"
     };
 
     /**
@@ -38,55 +44,141 @@ public class Driver {
      */
     static int menuWidth = menuTitle.length();
 
+    /**
+     * Number of foods listed before asking whether to show more.
+     */
+    static int pageSize = 100;
+
+    /**
+     * Prompt between pages of the food list.
+     */
+    static String pagePrompt = "Press Enter for more or q to stop: ";
+
+    /**
+     * Most names suggested when a searched-for name isn't found.
+     */
+    static int suggestionCount = 5;
+
     /**
      * File to load <code>Food</code> instances from.
      */
     static String dbpath = "foods.txt";
 
+    /**
+     * Binary snapshot of <code>dbpath</code>, loaded instead of it when up to date. See <code>FoodSnapshot</code>.
+     */
+    static String snapshotPath = dbpath + ".snapshot";
+
+    /**
+     * Most malformed rows in <code>dbpath</code> skipped before giving up on loading it.
+     */
+    static long badRowBudget = 1000;
+
     /**
      * Start of execution
-     * @param args arguments passed to the program (unused)
+     * @param args arguments passed to the program. <code>--parallel</code> parses the database on all cores when its snapshot is out of date.
+     *             <code>--watch</code> picks up foods appended to the database while running. <code>--serve</code> answers queries from
+     *             clients on a localhost socket instead of showing the menu, on <code>FoodServer.DEFAULT_PORT</code> or the one given with
+     *             <code>--port=N</code>. <code>--max-bad-rows=N</code> sets how many malformed rows are skipped before giving up on the
+     *             database, <code>badRowBudget</code> by default; <code>--watch</code> still stops at the first. Metrics are recorded when the JVM is started with <code>-Dlab9.metrics=true</code>, see
+     *             <code>FoodMetrics</code>.
      */
     public static void main(String[] args) {
+        // Check our options
+        boolean parallel = false, watch = false, serve = false;
+        int port = FoodServer.DEFAULT_PORT;
+        for(String arg : args) {
+            if(arg.equals("--parallel")) {
+                parallel = true;
+            } else if(arg.equals("--watch")) {
+                watch = true;
+            } else if(arg.equals("--serve")) {
+                serve = true;
+            } else if(arg.startsWith("--port=")) {
+                try {
+                    port = Integer.parseInt(arg.substring("--port=".length()));
+                } catch(NumberFormatException e) {
+                    System.out.println("\"" + arg + "\" is not a port number, exiting.");
+                    System.exit(1);
+                }
+            } else if(arg.startsWith("--max-bad-rows=")) {
+                try {
+                    badRowBudget = Long.parseLong(arg.substring("--max-bad-rows=".length()));
+                } catch(NumberFormatException e) {
+                    badRowBudget = -1;
+                }
+                if(badRowBudget < 0) {
+                    System.out.println("\"" + arg + "\" is not a number of rows, exiting.");
+                    System.exit(1);
+                }
+            }
+        }
+
         // Update menuWidth
         for(String option : menuOptions) {
             if(menuWidth < option.length())
                 menuWidth = option.length();
         }
 
-        // Create our list
-        FoodList foods = new FoodList();
+        // Our list, & what keeps it up to date in watch mode
+        FoodList foods = null;
+        FoodWatcher watcher = null;
 
         // Try to load data
         System.out.println("Starting Parkland Meal Selector");
         System.out.println("Attempting to load data...");
+        long loadStart = System.nanoTime();
+        FoodParseReport report = new FoodParseReport(FoodParseReport.DEFAULT_CAPACITY, badRowBudget);
         try {
-            File db = new File(dbpath);
-            Scanner foodDB = new Scanner(db);
-            while(foodDB.hasNext()) {
-                foods.add(Food.fromTextLine(foodDB.nextLine()));
+            if(watch) {
+                watcher = FoodWatcher.open(Paths.get(dbpath), Paths.get(snapshotPath), parallel, report);
+                foods = watcher.getFoods();
+                report = watcher.getReport();
+            } else {
+                foods = FoodSnapshot.load(Paths.get(dbpath), Paths.get(snapshotPath), parallel, report);
             }
-            foodDB.close();
-            db = null;
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             System.out.println("File \"" + dbpath + "\" not found, exiting.");
             System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Could not read \"" + dbpath + "\" (" + e.getMessage() + "), exiting.");
+            System.exit(1);
+        } catch (InputMismatchException e) {
+            System.out.println("File \"" + dbpath + "\" is malformed (" + e.getMessage() + "), exiting.");
+            System.exit(1);
         }
+        if(report.getRejected() > 0)
+            System.out.println("Skipped " + report);
+        FoodMetrics.loaded(System.nanoTime() - loadStart, foods.getLength());
+        FoodMetrics.register();
+
+        // Headless mode, serve clients until stopped
+        if(serve)
+            serve(foods, port);
+
+        // Index names, so searching by name & suggesting names for typos don't scan the list
+        foods.setNameIndexed(true);
+        foods.setNameSearchIndexed(true);
 
         // Main menu loop
         int menuChoice = 0;
         Scanner terminal = new Scanner(System.in);
-        while(menuChoice != 5) {
+        FoodTableRenderer table = new FoodTableRenderer(System.out);
+        while(menuChoice != 8) {
 
             // Display menu & get input
             try {
                 displayMainMenu();
                 menuChoice = terminal.nextInt();
             } catch (InputMismatchException e) {
-                System.out.println("\nPlease enter 1-5 for a menu selection!");
+                System.out.println("\nPlease enter 1-8 for a menu selection!");
                 terminal.skip(".*");
             }
 
+            // Pick up any changes to the database before acting on it
+            if(watcher != null)
+                refresh(watcher);
+
             // Break out by input
             switch (menuChoice) {
                 // List foods
@@ -96,8 +188,22 @@ public class Driver {
                     printTableHeader();
                     printEqualBar(menuWidth);
 
-                    // Print foods
-                    System.out.print(foods);
+                    // Print foods a page at a time, dropping the rest of the selection line so the pager reads fresh input
+                    terminal.nextLine();
+                    if(foods.getLength() == 0) {
+                        System.out.println("Empty list!");
+                        break;
+                    }
+                    Iterator<Food> cursor = foods.iterator(0);
+                    while(true) {
+                        table.page(cursor, pageSize);
+                        table.flush();
+                        if(!cursor.hasNext())
+                            break;
+                        System.out.print(pagePrompt);
+                        if(!terminal.hasNextLine() || terminal.nextLine().trim().equalsIgnoreCase("q"))
+                            break;
+                    }
                     break;
 
                 // Manual meal selection
@@ -113,8 +219,8 @@ public class Driver {
                         String name = terminal.next();
                         Food f = foods.findByName(name);
                         if(f == null)
-                            System.out.println("Food \"" + name + "\" not found!");
-                        else
+                            f = pickSuggestion(foods, name, terminal);
+                        if(f != null)
                             meal[i++] = f;
                     }
 
@@ -123,11 +229,16 @@ public class Driver {
                     for(Food f : meal) {
                         System.out.println(f);
                     }
+                    printMealTotal(meal);
                     System.out.println();
                     break;
 
                 // Random meal selection
                 case 3:
+                    if(foods.getLength() == 0) {
+                        System.out.println("No foods left to pick from!");
+                        break;
+                    }
                     Food[] randommeal = foods.randomMeal(3);
 
                     // Output loop
@@ -135,6 +246,7 @@ public class Driver {
                     for(Food f : randommeal) {
                         System.out.println(f);
                     }
+                    printMealTotal(randommeal);
                     System.out.println();
                     break;
 
@@ -157,13 +269,62 @@ public class Driver {
                     System.out.println("Foods over " + cals + " calories removed.");
                     break;
 
-                // Exit. breaking out of the switch statement will send us to the while loop condition, which will exit since menuChoice=5
+                // Best meals under a calorie budget
                 case 5:
+                    // Input loop, ensure budget > 0
+                    int budget = 0;
+                    while(budget <= 0) {
+                        try {
+                            System.out.print("Enter calorie budget for the meal: ");
+                            budget = terminal.nextInt();
+                        } catch(InputMismatchException e) {
+                            System.out.println("Please enter an integer!");
+                            terminal.skip(".*");
+                        }
+                    }
+
+                    // Find the meals with the highest daily % that fit
+                    Food[][] bestmeals = new MealOptimizer(foods).best(3, budget, 3);
+                    if(bestmeals.length == 0) {
+                        System.out.println("No meal of 3 foods fits in " + budget + " calories!");
+                        break;
+                    }
+
+                    // Output loop
+                    for(int m = 0; m < bestmeals.length; m++) {
+                        FoodStats.Summary total = FoodStats.summarize(bestmeals[m]);
+                        System.out.println("\n" + (m == 0 ? "Your best meal" : "Runner-up #" + m) + " (" + total.getTotalCals() + " calories, "
+                                + Math.round(total.getTotalDailyPercentage() * 100) + "% daily):");
+                        for(Food f : bestmeals[m]) {
+                            System.out.println(f);
+                        }
+                    }
+                    System.out.println();
+                    break;
+
+                // Totals per food group
+                case 6:
+                    printSummaries(foods);
+                    break;
+
+                // Operation counts & latencies
+                case 7:
+                    if(!FoodMetrics.ENABLED) {
+                        System.out.println("Metrics are off, start with -Dlab9.metrics=true to record them.");
+                        break;
+                    }
+                    System.out.println();
+                    System.out.print(FoodMetrics.summary());
+                    System.out.println();
+                    break;
+
+                // Exit. breaking out of the switch statement will send us to the while loop condition, which will exit since menuChoice=8
+                case 8:
                     break;
 
                 // For any other integer input
                 default:
-                    System.out.println("Enter a number between 1-5!");
+                    System.out.println("Enter a number between 1-8!");
             }
         }
 
@@ -173,6 +334,120 @@ public class Driver {
         System.exit(0);
     }
 
+    /**
+     * Brings the list up to date with the database file &amp; tells the user what changed &amp; which malformed lines were skipped. Problems are
+     * reported &amp; the list left as it was.
+     * @param watcher the watcher of the database file
+     */
+    public static void refresh(FoodWatcher watcher) {
+        try {
+            int added = watcher.refresh();
+            if(added < 0)
+                System.out.println("\"" + dbpath + "\" changed, reloaded " + watcher.getFoods().getLength() + " foods.");
+            else if(added > 0)
+                System.out.println("Loaded " + added + " new foods from \"" + dbpath + "\".");
+            FoodParseReport skipped = watcher.getReport();
+            if(skipped != null && skipped.getRejected() > 0)
+                System.out.println("Skipped " + skipped);
+        } catch(InputMismatchException e) {
+            System.out.println("Could not load new foods from \"" + dbpath + "\": " + e.getMessage());
+        } catch(IOException e) {
+            System.out.println("Could not read \"" + dbpath + "\" (" + e.getMessage() + "), keeping the foods already loaded.");
+        }
+    }
+
+    /**
+     * Serves the database to clients through a <code>FoodServer</code> instead of showing the menu, until the process is stopped.
+     * @param foods the loaded database
+     * @param port the port to listen on
+     */
+    public static void serve(FoodList foods, int port) {
+        ConcurrentFoodList shared = new ConcurrentFoodList(foods.getLength());
+        shared.addAll(foods);
+        try(FoodServer server = new FoodServer(shared, port)) {
+            System.out.println("Serving " + shared.getLength() + " foods on localhost:" + server.getPort() + ", press Ctrl+C to stop.");
+            server.serve();
+        } catch(IOException e) {
+            System.out.println("Could not serve on port " + port + " (" + e.getMessage() + "), exiting.");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Tells the user a name wasn't found &amp; offers the names closest to it, then names starting with it, to pick from instead.
+     * @param foods the list searched
+     * @param name the name that wasn't found
+     * @param terminal where to read the user's choice
+     * @return the item picked, or <code>null</code> if there were no suggestions or the user wants to search again
+     */
+    public static Food pickSuggestion(FoodList foods, String name, Scanner terminal) {
+        // Allow 1 typo in short names, 2 in longer ones
+        Food[] similar = foods.findSimilar(name, name.length() < 10 ? 1 : 2, suggestionCount);
+        Food[] suggestions = Arrays.copyOf(similar, suggestionCount);
+        int count = similar.length;
+        for(Food f : foods.findByPrefix(name, suggestionCount)) {
+            if(count < suggestionCount && !Arrays.asList(similar).contains(f))
+                suggestions[count++] = f;
+        }
+        if(count == 0) {
+            System.out.println("Food \"" + name + "\" not found!");
+            return null;
+        }
+
+        // List the suggestions & let the user pick one by number
+        System.out.println("Food \"" + name + "\" not found! Did you mean:");
+        for(int i = 0; i < count; i++)
+            System.out.println("  " + (i + 1) + ". " + suggestions[i].getName());
+        System.out.print("Enter a number to pick one, or 0 to search again: ");
+        try {
+            int choice = terminal.nextInt();
+            return choice >= 1 && choice <= count ? suggestions[choice - 1] : null;
+        } catch(InputMismatchException e) {
+            terminal.skip(".*");
+            return null;
+        }
+    }
+
+    /**
+     * Prints a meal's total Calories &amp; daily percentage on one line.
+     * @param meal the meal's items
+     */
+    public static void printMealTotal(Food[] meal) {
+        FoodStats.Summary total = FoodStats.summarize(meal);
+        System.out.println("Total: " + total.getTotalCals() + " calories, " + Math.round(total.getTotalDailyPercentage() * 100) + "% daily");
+    }
+
+    /**
+     * Prints a table of each food group's item count, Calorie total, mean, lowest &amp; highest, &amp; daily percentage total, then the same for
+     * the whole list. Read from the list's running totals, so it never walks the list.
+     * @param foods the list
+     */
+    public static void printSummaries(FoodList foods) {
+        String format = "%-" + Math.max(5, Food.columnWidths[1]) + "s %8s %12s %9s %7s %7s %9s%n";
+        String header = String.format(format, "Group", "Items", "Calories", "Average", "Min", "Max", "Daily");
+        printEqualBar(header.length() - 1);
+        System.out.print(header);
+        printEqualBar(header.length() - 1);
+        for(FoodStats.Summary group : foods.getGroupSummaries())
+            printSummary(format, group.getGroup() == null ? "(none)" : group.getGroup(), group);
+        printEqualBar(header.length() - 1);
+        printSummary(format, "All", foods.getSummary());
+        System.out.println();
+    }
+
+    /**
+     * Prints one row of the table made by <code>printSummaries</code>.
+     * @param format the row format
+     * @param label what the totals are of
+     * @param summary the totals to print
+     */
+    private static void printSummary(String format, String label, FoodStats.Summary summary) {
+        System.out.printf(format, label, summary.getCount(), summary.getTotalCals(),
+                Math.round(summary.getAverageCals()), summary.getMinCals(), summary.getMaxCals(),
+                Math.round(summary.getTotalDailyPercentage() * 100) + "%");
+    }
+
     /**
      * Outputs a line of equal bars to the terminal equal to the passed <code>width</code> parameter &amp; ends in a newline.
      * @param width the width of the bars
@@ -1,8 +1,9 @@
 package lab9;
 
 import java.text.NumberFormat;
-import java.util.InputMismatchException;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class representing a food entrée that may, for example, be served in a cafeteria.
@@ -22,6 +23,11 @@ public class Food {
      */
     public static final String STRING_DEFAULT = "NONE";
 
+    /**
+     * Value <code>parseCals</code> returns for text that isn't an <code>int</code>.
+     */
+    static final long NOT_AN_INT = Long.MIN_VALUE;
+
     /**
      * Ordered array of headers corresponding to each field for terminal display.
      */
@@ -39,14 +45,49 @@ public class Food {
     };
 
     /**
-     * Used to format <code>daily</code> for terminal output.
+     * A copy of <code>columnWidths</code> tagged with a version number, so display lines cached by <code>FoodTableRenderer</code> can tell
+     * whether they were padded to the current widths.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class DisplayWidths {
+        /**
+         * The column widths.
+         */
+        final int[] widths;
+
+        /**
+         * Version number, increased every time the widths change.
+         */
+        final int version;
+
+        /**
+         * Constructor.
+         * @param widths the column widths, not copied
+         * @param version the version number
+         */
+        DisplayWidths(int[] widths, int version) {
+            this.widths = widths;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The column widths display lines are currently padded to.
+     */
+    private static final AtomicReference<DisplayWidths> displayWidths = new AtomicReference<DisplayWidths>(
+            new DisplayWidths(columnWidths.clone(), 0));
+
+    /**
+     * Used to format <code>daily</code> for terminal output. <code>NumberFormat</code>s aren't thread-safe, so each thread gets its own.
      */
-    protected static NumberFormat percent = NumberFormat.getPercentInstance(Locale.US);
+    protected static final ThreadLocal<NumberFormat> percent = ThreadLocal.withInitial(() -> NumberFormat.getPercentInstance(Locale.US));
 
     /**
-     * Used to format <code>kcal</code> for terminal output.
+     * Used to format <code>kcal</code> for terminal output. <code>NumberFormat</code>s aren't thread-safe, so each thread gets its own.
      */
-    protected static NumberFormat integer = NumberFormat.getIntegerInstance(Locale.US);
+    protected static final ThreadLocal<NumberFormat> integer = ThreadLocal.withInitial(() -> NumberFormat.getIntegerInstance(Locale.US));
 
     /**
      * The name of this instance
@@ -54,10 +95,15 @@ public class Food {
     protected String name;
 
     /**
-     * The food group this instance belongs to
+     * The food group this instance belongs to, the copy shared through <code>FoodGroups</code>
      */
     protected String group;
 
+    /**
+     * The <code>FoodGroups</code> code of <code>group</code>, kept so collections can look the group up without hashing its name
+     */
+    protected int groupCode;
+
     /**
      * The energy content in Calories of this instance
      */
@@ -76,66 +122,214 @@ public class Food {
      * @return a <code>Food</code> item based on the data
      */
     public static Food fromTextLine(String line) {
+        return fromTextLine(line, columnWidths);
+    }
+
+    /**
+     * Class method to create a <code>Food</code> instance from a line of text input, widening the passed column widths instead of
+     * <code>columnWidths</code>. Touches no shared state, so threads parsing at the same time can each keep their own widths &amp; merge them
+     * with <code>widenColumns</code> afterwards. Throws the same <code>InputMismatchException</code>s as <code>fromTextLine(String)</code>.
+     * @param line A single line of text containing a <code>Food</code> item. Expects <code>String String int double</code>, single space-delimited.
+     * @param widths array of 4 column widths to update, in the same order as <code>tableHeaders</code>
+     * @return a <code>Food</code> item based on the data
+     */
+    public static Food fromTextLine(String line, int[] widths) {
+        return fromTextLine(line, widths, null, 0);
+    }
+
+    /**
+     * Class method to create a <code>Food</code> instance from a line of text input without throwing for a malformed line: the line is recorded
+     * in <code>report</code> &amp; <code>null</code> is returned instead. Numbers that plainly aren't are turned away before parsing, so most
+     * malformed lines cost no exception at all. Widens the passed column widths like <code>fromTextLine(String, int[])</code>.
+     * @param line A single line of text containing a <code>Food</code> item. Expects <code>String String int double</code>, single space-delimited.
+     * @param widths array of 4 column widths to update, in the same order as <code>tableHeaders</code>
+     * @param report where to record a malformed line, or <code>null</code> to throw its <code>InputMismatchException</code> instead
+     * @param lineNumber number of the line in its file, from 1, for the report
+     * @return a <code>Food</code> item based on the data, or <code>null</code> if the line is malformed
+     */
+    public static Food fromTextLine(String line, int[] widths, FoodParseReport report, long lineNumber) {
         // Make sure line is not null
         if(line == null)
-            throw new InputMismatchException("line is null!");
+            return reject(report, lineNumber, FoodParseReport.Reason.NULL_LINE);
 
         // Break up line by its designated delimiter: a single space
         String[] vars = line.split(" ");
 
         // Make sure we have the right number of variables
         if(vars.length != 4)
-            throw new InputMismatchException("line does not have 4 space-separated values!");
+            return reject(report, lineNumber, FoodParseReport.Reason.FIELD_COUNT);
 
-        // Declare our placeholder variables
-        String name, group;
-        int kcal;
+        // Decode the values from vars, turning away text that can't be a number before parseDouble would throw for it
+        String name = vars[0], group = vars[1];
+        long cals = parseCals(vars[2]);
         double daily;
-
-        // Try to decode the values from vars
+        if(cals == NOT_AN_INT || !mayBeDouble(vars[3]))
+            return reject(report, lineNumber, FoodParseReport.Reason.NUMBER_FORMAT);
         try {
-            name = vars[0];
-            group = vars[1];
-            kcal = Integer.parseInt(vars[2]);
             daily = Double.parseDouble(vars[3]);
         } catch(NumberFormatException e) {
-            throw new InputMismatchException("Numerical value in line does not match input format!");
+            return reject(report, lineNumber, FoodParseReport.Reason.NUMBER_FORMAT);
         }
+        int kcal = (int) cals;
 
-        // Turn kcal & daily to Strings & update columnWidths as necessary
-        String cals = integer.format(kcal);
-        String per = percent.format(daily);
-        if(name.length() > columnWidths[0]) columnWidths[0] = name.length();
-        if(group.length() > columnWidths[1]) columnWidths[1] = group.length();
-        if(cals.length() > columnWidths[2]) columnWidths[2] = cals.length();
-        if(per.length() > columnWidths[3]) columnWidths[3] = per.length();
+        // Work out the formatted widths of kcal & daily & update widths as necessary
+        int calsWidth = calsWidth(kcal);
+        int per = percentWidth(daily);
+        if(name.length() > widths[0]) widths[0] = name.length();
+        if(group.length() > widths[1]) widths[1] = group.length();
+        if(calsWidth > widths[2]) widths[2] = calsWidth;
+        if(per > widths[3]) widths[3] = per;
 
         // Create a Food item from the input values & return it
         return new Food(name, group, kcal, daily);
     }
 
+    /**
+     * Records a malformed line, or throws for it if there's nowhere to record it.
+     * @param report where to record it, or <code>null</code>
+     * @param lineNumber its line number
+     * @param reason why it is malformed
+     * @return <code>null</code>
+     */
+    private static Food reject(FoodParseReport report, long lineNumber, FoodParseReport.Reason reason) {
+        if(report == null)
+            throw reason.exception();
+        report.reject(lineNumber, reason);
+        return null;
+    }
+
+    /**
+     * Parses a Calorie value, accepting exactly what <code>Integer.parseInt</code> does but without throwing. ASCII text is decoded directly,
+     * so only text with non-ASCII characters (which may be another script's digits) goes through <code>parseInt</code> &amp; can cost an
+     * exception.
+     * @param text the text of the value
+     * @return the value, or <code>NOT_AN_INT</code> if <code>text</code> isn't an <code>int</code>
+     */
+    static long parseCals(String text) {
+        int i = text.length() > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+        if(i == text.length())
+            return NOT_AN_INT;
+        long value = 0;
+        for(; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(c >= 0x80) {
+                try {
+                    return Integer.parseInt(text);
+                } catch(NumberFormatException e) {
+                    return NOT_AN_INT;
+                }
+            }
+
+            // Past 2^31 it can't be an int whatever comes next
+            if(c < '0' || c > '9' || (value = value * 10 + (c - '0')) > 1L << 31)
+                return NOT_AN_INT;
+        }
+        value = text.charAt(0) == '-' ? -value : value;
+        return value > Integer.MAX_VALUE ? NOT_AN_INT : value;
+    }
+
+    /**
+     * Cheap check ahead of <code>Double.parseDouble</code>. Decimal text may only hold digits, points, exponents &amp; their signs, with an
+     * optional type suffix; anything else certainly fails to parse. Hexadecimal, "NaN" &amp; "Infinity" are left to <code>parseDouble</code>.
+     * @param text the text to check
+     * @return whether <code>text</code> may be a <code>double</code>
+     */
+    static boolean mayBeDouble(String text) {
+        // parseDouble trims whitespace & takes one sign
+        int i = 0, end = text.length();
+        while(i < end && text.charAt(i) <= ' ')
+            i++;
+        while(end > i && text.charAt(end - 1) <= ' ')
+            end--;
+        if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+            i++;
+        if(i == end)
+            return false;
+
+        char c = text.charAt(i);
+        if(c == 'N' || c == 'I' || (c == '0' && i + 1 < end && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')))
+            return true;
+        c = text.charAt(end - 1);
+        if(c == 'd' || c == 'D' || c == 'f' || c == 'F')
+            end--;
+        for(; i < end; i++) {
+            c = text.charAt(i);
+            if((c < '0' || c > '9') && c != '.' && c != 'e' && c != 'E' && c != '-' && c != '+')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Widens <code>columnWidths</code> as necessary to fit the passed widths. Used by loaders that track the widths of what they read
+     * themselves instead of going through <code>fromTextLine</code>.
+     * @param widths array of 4 column widths, in the same order as <code>tableHeaders</code>
+     */
+    public static synchronized void widenColumns(int[] widths) {
+        for(int i = 0; i < columnWidths.length; i++) {
+            if(widths[i] > columnWidths[i])
+                columnWidths[i] = widths[i];
+        }
+    }
+
+    /**
+     * Computes the length <code>integer</code> would format <code>kcal</code> to, without building the <code>String</code>.
+     * @param kcal a Calorie value
+     * @return the width of its formatted text, group separators &amp; sign included
+     */
+    static int calsWidth(int kcal) {
+        return groupedWidth(Math.abs((long) kcal)) + (kcal < 0 ? 1 : 0);
+    }
+
+    /**
+     * Computes the length <code>percent</code> would format <code>daily</code> to, without building the <code>String</code> in the common case
+     * of a non-negative, finite value. Anything else is formatted to find out.
+     * @param daily a daily percentage
+     * @return the width of its formatted text, group separators &amp; percent sign included
+     */
+    static int percentWidth(double daily) {
+        // percent scales by 100 & rounds half-even, same as rint. Negative values may print as "-0%", so leave them to the formatter
+        double scaled = daily * 100;
+        if(Double.doubleToRawLongBits(daily) < 0 || !(scaled < 1e15))
+            return percent.get().format(daily).length();
+        return groupedWidth((long) Math.rint(scaled)) + 1;
+    }
+
+    /**
+     * @param value a non-negative whole number
+     * @return the number of digits in <code>value</code> plus the group separators between them
+     */
+    private static int groupedWidth(long value) {
+        int digits = 1;
+        while(value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits + (digits - 1) / 3;
+    }
+
     /**
      * Default constructor: sets name &amp; group = STRING_DEFAULT, kcal=0 &amp; daily=0.0
      */
     public Food() {
         name = STRING_DEFAULT;
-        group = STRING_DEFAULT;
+        storeGroup(STRING_DEFAULT);
         kcal = 0;
         daily = 0.0;
     }
 
     /**
-     * Full constructor. Uses setters to validate all passed data.
+     * Full constructor. Validates all passed data the same way the setters do, through private helpers a subclass can't override.
      * @param name Name of the food
      * @param group Food group it belongs to
      * @param kcal The amount of energy in Calories in a serving of the food
      * @param daily Daily recommended percentage of the food per serving
      */
     public Food(String name, String group, int kcal, double daily) {
-        this.setName(name);
-        this.setGroup(group);
-        this.setCals(kcal);
-        this.setDailyPercentage(daily);
+        this.name = name;
+        storeGroup(group);
+        storeCals(kcal);
+        storeDailyPercentage(daily);
     }
 
     /**
@@ -163,11 +357,29 @@ public class Food {
     }
 
     /**
-     * Setter for <code>group</code>
+     * Setter for <code>group</code>. Stores the copy of the name shared through <code>FoodGroups</code>, so items in the same group don't each
+     * hold their own <code>String</code>, &amp; its code.
      * @param group the new food group
      */
     public void setGroup(String group) {
-        this.group = group;
+        storeGroup(group);
+    }
+
+    /**
+     * Stores the shared copy of a group name &amp; its code, for <code>setGroup</code> &amp; the constructors.
+     * @param group the new food group
+     */
+    private void storeGroup(String group) {
+        groupCode = FoodGroups.code(group);
+        this.group = FoodGroups.name(groupCode);
+    }
+
+    /**
+     * Getter for <code>groupCode</code>
+     * @return the <code>FoodGroups</code> code of the food group of this instance, -1 if it has none
+     */
+    int getGroupCode() {
+        return groupCode;
     }
 
     /**
@@ -184,6 +396,15 @@ public class Food {
      * @return success of operation
      */
     public boolean setCals(int cals) {
+        return storeCals(cals);
+    }
+
+    /**
+     * Stores a Calorie value if it is >= 0, for <code>setCals</code> &amp; the constructors.
+     * @param cals the Calorie value
+     * @return success of operation
+     */
+    private boolean storeCals(int cals) {
         if(cals >= 0) {
             kcal = cals;
             return true;
@@ -205,6 +426,15 @@ public class Food {
      * @return success of operation
      */
     public boolean setDailyPercentage(double percentage) {
+        return storeDailyPercentage(percentage);
+    }
+
+    /**
+     * Stores a daily percentage if it is >= 0, for <code>setDailyPercentage</code> &amp; the constructors.
+     * @param percentage the daily percentage
+     * @return success of operation
+     */
+    private boolean storeDailyPercentage(double percentage) {
         if(percentage >= 0) {
             daily = percentage;
             return true;
@@ -214,18 +444,58 @@ public class Food {
 
     /**
      * @return a <code>String</code> containing a single line with all the instance data formatted to the current <code>columnWidth</code>s
-     * for terminal display.
+     * for terminal display
      */
     @Override
     public String toString() {
+        return toString(displayWidths().widths);
+    }
+
+    /**
+     * Formats this instance's display line to the passed column widths.
+     * @param widths array of 4 column widths, in the same order as <code>tableHeaders</code>
+     * @return the line
+     */
+    String toString(int[] widths) {
         // Pre-format kcal & daily
-        String cals = integer.format(kcal);
-        String per = percent.format(daily);
+        String cals = integer.get().format(kcal);
+        String per = percent.get().format(daily);
 
         // Pad each String to the specified columnWidth & pad 1 space in between each column
-        return name + " ".repeat(columnWidths[0] - name.length() + 1)
-                + group + " ".repeat(columnWidths[1] - group.length() + 1)
-                + cals + " ".repeat(columnWidths[2] - cals.length() + 1)
-                + per + " ".repeat(columnWidths[3] - per.length());
+        StringBuilder s = new StringBuilder(widths[0] + widths[1] + widths[2] + widths[3] + 3);
+        pad(s, String.valueOf(name), widths[0] + 1);
+        pad(s, String.valueOf(group), widths[1] + 1);
+        pad(s, cals, widths[2] + 1);
+        pad(s, per, widths[3]);
+        return s.toString();
+    }
+
+    /**
+     * Appends text followed by enough spaces to fill a column.
+     * @param s where to append
+     * @param text the text
+     * @param width the width of the column
+     */
+    private static void pad(StringBuilder s, String text, int width) {
+        s.append(text);
+        for(int i = text.length(); i < width; i++)
+            s.append(' ');
+    }
+
+    /**
+     * Finds the column widths display lines should be padded to, starting a new version if <code>columnWidths</code> has changed since the last
+     * call. Costs 4 comparisons when it hasn't.
+     * @return the current widths &amp; their version
+     */
+    static DisplayWidths displayWidths() {
+        DisplayWidths current = displayWidths.get();
+        int[] widths = columnWidths;
+        while(!Arrays.equals(current.widths, widths)) {
+            // Another thread may have started a new version already, in which case check against that one
+            if(displayWidths.compareAndSet(current, new DisplayWidths(widths.clone(), current.version + 1)))
+                return displayWidths.get();
+            current = displayWidths.get();
+        }
+        return current;
     }
 }
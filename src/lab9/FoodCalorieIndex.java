@@ -0,0 +1,147 @@
+package lab9;
+
+/**
+ * Skip list of a <code>FoodList</code>'s items ordered by Calories, used to find &amp; remove items by Calorie threshold or range without visiting
+ * the rest of the list. Items with equal Calories are kept in the order they were added, which is also their order in the list. Each entry
+ * points straight at the item's <code>FoodListEntry</code>, so the list can find its node without searching. Items the list removes some other
+ * way stay in the index, with their <code>element</code> cleared, until a threshold removal drops them or the list rebuilds the index.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class FoodCalorieIndex {
+    /**
+     * A single skip list entry.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class Entry {
+        /**
+         * Calories of the indexed <code>Food</code> when it was added.
+         */
+        final int kcal;
+
+        /**
+         * Handle of the indexed item.
+         */
+        final FoodList.FoodListEntry item;
+
+        /**
+         * Next entry at each level this entry is linked into.
+         */
+        final Entry[] next;
+
+        /**
+         * Constructor.
+         * @param kcal the Calories to order by
+         * @param item handle of the indexed item
+         * @param levels number of levels to link into
+         */
+        Entry(int kcal, FoodList.FoodListEntry item, int levels) {
+            this.kcal = kcal;
+            this.item = item;
+            next = new Entry[levels];
+        }
+    }
+
+    /**
+     * Most levels an entry can be linked into. Each level holds a quarter of the entries of the one below, so this covers any list size.
+     */
+    private static final int MAX_LEVEL = 16;
+
+    /**
+     * Sentinel entry before all others, linked into every level.
+     */
+    private final Entry head = new Entry(Integer.MIN_VALUE, null, MAX_LEVEL);
+
+    /**
+     * Number of levels currently in use.
+     */
+    private int levels = 1;
+
+    /**
+     * Number of entries whose item has been removed from the list without going through this index.
+     */
+    int dead;
+
+    /**
+     * State of the xorshift generator that picks entry levels.
+     */
+    private int seed = 0x2545F491;
+
+    /**
+     * Indexes an item after all items with the same or fewer Calories.
+     * @param item handle of the item to add
+     */
+    void add(FoodList.FoodListEntry item) {
+        int kcal = item.element.getCals();
+        Entry[] update = predecessors(kcal + 1L);
+        int height = randomLevel();
+        if(height > levels) {
+            for(int i = levels; i < height; i++)
+                update[i] = head;
+            levels = height;
+        }
+
+        Entry entry = new Entry(kcal, item, height);
+        for(int i = 0; i < height; i++) {
+            entry.next[i] = update[i].next[i];
+            update[i].next[i] = entry;
+        }
+    }
+
+    /**
+     * Detaches every entry with Calories &gt;= <code>cals</code> from the index. O(log n) time, the entries themselves aren't visited.
+     * @param cals the Calorie threshold
+     * @return the first detached entry, whose <code>next[0]</code> chain holds the rest in order, or <code>null</code> if there were none
+     */
+    Entry removeFrom(int cals) {
+        Entry[] update = predecessors(cals);
+        Entry first = update[0].next[0];
+        for(int i = 0; i < levels; i++)
+            update[i].next[i] = null;
+
+        // Drop levels that are empty now
+        while(levels > 1 && head.next[levels - 1] == null)
+            levels--;
+        return first;
+    }
+
+    /**
+     * Finds the first entry with Calories &gt;= <code>cals</code>. O(log n) time.
+     * @param cals the lowest Calories to include
+     * @return the entry, whose <code>next[0]</code> chain continues in order, or <code>null</code> if there isn't one
+     */
+    Entry first(int cals) {
+        return predecessors(cals)[0].next[0];
+    }
+
+    /**
+     * Finds the last entry on each level with Calories below a bound.
+     * @param bound the Calories to stop before, widened so that one past <code>Integer.MAX_VALUE</code> works
+     * @return the entries, one per level, with the head for unused levels
+     */
+    private Entry[] predecessors(long bound) {
+        Entry[] update = new Entry[MAX_LEVEL];
+        Entry current = head;
+        for(int i = levels - 1; i >= 0; i--) {
+            while(current.next[i] != null && current.next[i].kcal < bound)
+                current = current.next[i];
+            update[i] = current;
+        }
+        return update;
+    }
+
+    /**
+     * Picks how many levels a new entry is linked into: 1 with probability 3/4, 2 with 3/16 &amp; so on.
+     * @return the number of levels
+     */
+    private int randomLevel() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        int height = 1 + Integer.numberOfTrailingZeros(seed) / 2;
+        return Math.min(height, MAX_LEVEL);
+    }
+}
@@ -0,0 +1,538 @@
+package lab9;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Database of many food files, e.g. one per cafeteria, each a shard loaded into its own <code>FoodList</code>. Answers lookups, random meals,
+ * purges &amp; iteration across every shard as one list, in the order the shards were registered, without copying their items together.
+ * <p>
+ * Shards are loaded lazily, the first time an operation needs them, through their snapshots (see <code>FoodSnapshot</code>), &amp; an operation
+ * that needs several loads them in parallel. Only a bounded number of items is kept resident: once more are loaded, the least recently used
+ * shards are dropped &amp; loaded again when next needed. Purges don't need a shard loaded: the lowest limit each shard has been purged with is
+ * remembered &amp; applied whenever it is loaded, so dropping a shard never brings purged items back. Each shard also keeps the hashes of its
+ * names once it has been loaded, 4 bytes per name whether resident or not, so lookups only load the shards that may hold the name.
+ * Not thread-safe, like <code>FoodList</code>.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodDatabase implements Iterable<Food> {
+    /**
+     * One registered food file.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Shard {
+        /**
+         * Name the shard was registered under.
+         */
+        final String name;
+
+        /**
+         * The food file.
+         */
+        final Path file;
+
+        /**
+         * Its items while resident, otherwise <code>null</code>.
+         */
+        FoodList foods;
+
+        /**
+         * Number of items, kept while the shard isn't resident, or -1 if unknown because it has never been loaded or was purged since.
+         */
+        int length = -1;
+
+        /**
+         * Lowest Calorie limit the shard has been purged with, <code>Integer.MAX_VALUE</code> if none.
+         */
+        int purged = Integer.MAX_VALUE;
+
+        /**
+         * The distinct hashes of its names (see <code>FoodNameIndex.hash</code>) in ascending order, from when it was last loaded, or
+         * <code>null</code> if it has never been loaded. Items purged since may still have theirs here.
+         */
+        int[] names;
+
+        /**
+         * @param hash the hash of a name
+         * @return whether the shard may hold an item with the name, <code>true</code> unless it has been loaded &amp; it can't
+         */
+        boolean mayHold(int hash) {
+            return names == null || Arrays.binarySearch(names, hash) >= 0;
+        }
+
+        /**
+         * Constructor.
+         * @param name the shard's name
+         * @param file the food file
+         */
+        Shard(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Most items kept resident, apart from the shards a single operation is using.
+     */
+    private final long maxResidentItems;
+
+    /**
+     * Pool shards are loaded on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Every shard, in the order registered.
+     */
+    private final ArrayList<Shard> shards = new ArrayList<Shard>();
+
+    /**
+     * Every shard, by name.
+     */
+    private final HashMap<String, Shard> byName = new HashMap<String, Shard>();
+
+    /**
+     * The resident shards, least recently used first.
+     */
+    private final LinkedHashMap<Shard, Shard> resident = new LinkedHashMap<Shard, Shard>(16, 0.75f, true);
+
+    /**
+     * Number of items in the resident shards.
+     */
+    private long residentItems;
+
+    /**
+     * Number of times a shard has been loaded.
+     */
+    private long loads;
+
+    /**
+     * Number of times a shard has been dropped to make room.
+     */
+    private long evictions;
+
+    /**
+     * Constructor, loading on the common fork/join pool.
+     * @param maxResidentItems most items to keep loaded at once. Going over it drops the least recently used shards, though an operation keeps
+     *                         every shard it is using.
+     */
+    public FoodDatabase(long maxResidentItems) {
+        this(maxResidentItems, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     * @param maxResidentItems most items to keep loaded at once, see <code>FoodDatabase(long)</code>
+     * @param pool the pool to load shards on
+     */
+    public FoodDatabase(long maxResidentItems, ForkJoinPool pool) {
+        if(maxResidentItems <= 0)
+            throw new IllegalArgumentException("maxResidentItems must be > 0!");
+        this.maxResidentItems = maxResidentItems;
+        this.pool = pool;
+    }
+
+    /**
+     * Adds a food file as the last shard. Nothing is read until an operation needs it.
+     * @param name the shard's name, e.g. the cafeteria's
+     * @param file the food file. Its snapshot is kept next to it, with <code>.snapshot</code> added to the name.
+     */
+    public void register(String name, Path file) {
+        if(name == null || file == null)
+            throw new IllegalArgumentException("name & file must not be null!");
+        if(byName.containsKey(name))
+            throw new IllegalArgumentException("shard \"" + name + "\" is already registered!");
+        Shard shard = new Shard(name, file);
+        shards.add(shard);
+        byName.put(name, shard);
+    }
+
+    /**
+     * Adds every <code>.txt</code> file in a directory as a shard named after the file, in order of name.
+     * @param directory the directory
+     * @return the number of shards added
+     * @throws IOException if the directory can't be read
+     */
+    public int registerAll(Path directory) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try(DirectoryStream<Path> found = Files.newDirectoryStream(directory, "*.txt")) {
+            for(Path file : found)
+                files.add(file);
+        }
+        files.sort(null);
+        for(Path file : files) {
+            String name = file.getFileName().toString();
+            register(name.substring(0, name.length() - ".txt".length()), file);
+        }
+        return files.size();
+    }
+
+    /**
+     * @return the number of shards registered
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return the names of the shards, in the order registered
+     */
+    public String[] getShardNames() {
+        String[] names = new String[shards.size()];
+        for(int i = 0; i < names.length; i++)
+            names[i] = shards.get(i).name;
+        return names;
+    }
+
+    /**
+     * @return the number of shards loaded right now
+     */
+    public int getResidentShards() {
+        return resident.size();
+    }
+
+    /**
+     * @return the number of items loaded right now
+     */
+    public long getResidentItems() {
+        return residentItems;
+    }
+
+    /**
+     * @return the number of times a shard has been loaded
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    /**
+     * @return the number of times a shard has been dropped to make room for others
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Counts the items in every shard, loading the shards whose count isn't known, i.e. those never loaded or purged while not resident.
+     * @return the number of items in the database
+     * @throws IOException if a shard can't be read
+     */
+    public long getLength() throws IOException {
+        countAll();
+        long length = 0;
+        for(Shard shard : shards)
+            length += shard.length;
+        return length;
+    }
+
+    /**
+     * Searches every shard for a <code>Food</code> by name (case-insensitive), in the order they were registered. Skips the shards whose name
+     * hashes rule the name out &amp; loads the rest as needed, several at a time. Loaded shards are indexed by name, so each is searched in O(1).
+     * @param name the name of the <code>Food</code> to search for.
+     * @return the first <code>Food</code> with the name, <code>null</code> if there is none.
+     * @throws IOException if a shard can't be read
+     */
+    public Food findByName(String name) throws IOException {
+        if(name == null)
+            return null;
+        int hash = FoodNameIndex.hash(name);
+        for(int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            if(!shard.mayHold(hash))
+                continue;
+
+            // Load this shard along with the next few that may hold the name & aren't resident either
+            if(shard.foods == null)
+                load(upcoming(i, hash));
+            else
+                touch(List.of(shard));
+            Food f = shard.foods.findByName(name);
+            if(f != null)
+                return f;
+        }
+        return null;
+    }
+
+    /**
+     * Searches one shard for a <code>Food</code> by name (case-insensitive), loading it if needed &amp; its name hashes don't rule the name out.
+     * @param shard the shard's name
+     * @param name the name of the <code>Food</code> to search for.
+     * @return the first <code>Food</code> in the shard with the name, <code>null</code> if there is none.
+     * @throws IOException if the shard can't be read
+     */
+    public Food findByName(String shard, String name) throws IOException {
+        Shard s = byName.get(shard);
+        if(s == null)
+            throw new IllegalArgumentException("no shard is registered as \"" + shard + "\"!");
+        if(name == null || !s.mayHold(FoodNameIndex.hash(name)))
+            return null;
+        load(List.of(s));
+        return s.foods.findByName(name);
+    }
+
+    /**
+     * Picks foods at random from every shard, possibly the same one more than once. Uses a generator kept by the calling thread.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     * @throws IOException if a shard can't be read
+     */
+    public Food[] randomMeal(int numFoods) throws IOException {
+        return randomMeal(numFoods, true, FoodList.random.get());
+    }
+
+    /**
+     * Picks foods at random from every shard using a generator seeded with <code>seed</code>. See
+     * <code>randomMeal(int, boolean, SplittableRandom)</code>.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param seed the seed for the generator
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     * @throws IOException if a shard can't be read
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, long seed) throws IOException {
+        return randomMeal(numFoods, replacement, new SplittableRandom(seed));
+    }
+
+    /**
+     * Picks foods at random from every shard, every item in the database being equally likely, as if the shards were one list. Picks positions
+     * in the whole database the same way <code>FoodList.randomMeal(int, boolean, SplittableRandom)</code> does, so the same items &amp;
+     * generator give the same meal, then loads just the shards holding them. Shards whose item count isn't known are loaded first to count them.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     * @throws IOException if a shard can't be read
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) throws IOException {
+        long started = FoodMetrics.start();
+        try {
+            // Find where each shard starts in the whole database
+            countAll();
+            long[] starts = new long[shards.size() + 1];
+            for(int i = 0; i < shards.size(); i++)
+                starts[i + 1] = starts[i] + shards.get(i).length;
+            if(starts[shards.size()] > Integer.MAX_VALUE)
+                throw new IllegalStateException("Cannot pick from more than " + Integer.MAX_VALUE + " items!");
+            int size = (int) starts[shards.size()];
+            FoodList.checkMeal(size, numFoods, replacement);
+            int[] picks = new int[numFoods];
+            FoodList.pickPositions(size, replacement, rand, picks, 0, numFoods);
+
+            // Load the shards holding the picks, then look them up
+            int[] owners = new int[numFoods];
+            List<Shard> needed = new ArrayList<Shard>();
+            for(int i = 0; i < numFoods; i++) {
+                int owner = Arrays.binarySearch(starts, picks[i]);
+                owner = owner >= 0 ? owner : -owner - 2;
+
+                // Empty shards start where the next one does, so step past them
+                while(shards.get(owner).length == 0)
+                    owner++;
+                owners[i] = owner;
+                if(!needed.contains(shards.get(owner)))
+                    needed.add(shards.get(owner));
+            }
+            load(needed);
+            Food[] meal = new Food[numFoods];
+            for(int i = 0; i < numFoods; i++)
+                meal[i] = shards.get(owners[i]).foods.positions()[(int) (picks[i] - starts[owners[i]])];
+            return meal;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.RANDOM_MEAL, started);
+        }
+    }
+
+    /**
+     * Deletes all items with Calories >= <code>cals</code> from every shard. Resident shards are purged straight away; the others are purged
+     * when next loaded, so this never reads a file.
+     * @param cals The Calorie threshold
+     */
+    public void removeHighCalFoods(int cals) {
+        for(Shard shard : shards) {
+            shard.purged = Math.min(shard.purged, cals);
+            if(shard.foods != null) {
+                shard.foods.removeHighCalFoods(cals);
+                residentItems -= shard.length - shard.foods.getLength();
+                shard.length = shard.foods.getLength();
+            } else {
+                shard.length = -1;
+            }
+        }
+    }
+
+    /**
+     * Iterates over every shard's items in the order the shards were registered, loading each as it is reached. A shard dropped while being
+     * iterated over is still iterated to its end.
+     * @return a new <code>Iterator&lt;Food&gt;</code> over the whole database
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return new Iterator<Food>() {
+            private int next = 0;
+            private Iterator<Food> current = null;
+
+            @Override
+            public boolean hasNext() {
+                while(current == null || !current.hasNext()) {
+                    if(next == shards.size())
+                        return false;
+                    Shard shard = shards.get(next++);
+                    try {
+                        load(List.of(shard));
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    current = shard.foods.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Food next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Loads every shard whose item count isn't known, a few at a time, so they can be counted.
+     * @throws IOException if a shard can't be read
+     */
+    private void countAll() throws IOException {
+        for(int i = 0; i < shards.size(); i++) {
+            if(shards.get(i).length < 0)
+                load(upcoming(i, null));
+        }
+    }
+
+    /**
+     * Finds the shard at an index &amp; the next ones after it that aren't resident, up to one per core of the pool, to load together.
+     * @param from index of the first shard
+     * @param hash the hash of a name the shards must be able to hold, or <code>null</code> for any shard
+     * @return the shards
+     */
+    private List<Shard> upcoming(int from, Integer hash) {
+        List<Shard> batch = new ArrayList<Shard>();
+        batch.add(shards.get(from));
+        for(int i = from + 1; i < shards.size() && batch.size() < pool.getParallelism(); i++) {
+            Shard shard = shards.get(i);
+            if(shard.foods == null && (hash == null || shard.mayHold(hash)))
+                batch.add(shard);
+        }
+        return batch;
+    }
+
+    /**
+     * Makes sure some shards are resident, loading the missing ones in parallel, then drops the least recently used other shards until the
+     * resident items fit <code>maxResidentItems</code> again.
+     * @param needed the shards
+     * @throws IOException if a shard can't be read. The shards that could be loaded still are, &amp; a malformed shard's
+     *                     <code>InputMismatchException</code> is thrown as it is.
+     */
+    private void load(List<Shard> needed) throws IOException {
+        List<Shard> missing = new ArrayList<Shard>();
+        List<Future<FoodList>> loading = new ArrayList<Future<FoodList>>();
+        for(Shard shard : needed) {
+            if(shard.foods == null) {
+                missing.add(shard);
+                loading.add(pool.submit(() -> FoodSnapshot.load(shard.file, Paths.get(shard.file + ".snapshot"), false)));
+            }
+        }
+
+        Throwable failure = null;
+        for(int i = 0; i < missing.size(); i++) {
+            Shard shard = missing.get(i);
+            FoodList foods;
+            try {
+                foods = loading.get(i).get();
+            } catch(ExecutionException e) {
+                if(failure == null)
+                    failure = e.getCause();
+                continue;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading shard \"" + shard.name + "\"!", e);
+            }
+
+            // Catch up on purges made while it wasn't loaded
+            if(shard.purged != Integer.MAX_VALUE)
+                foods.removeHighCalFoods(shard.purged);
+            foods.setNameIndexed(true);
+            shard.names = hashes(foods);
+            shard.foods = foods;
+            shard.length = foods.getLength();
+            resident.put(shard, shard);
+            residentItems += shard.length;
+            loads++;
+        }
+        if(failure instanceof IOException)
+            throw (IOException) failure;
+        if(failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if(failure != null)
+            throw new IOException(failure);
+        touch(needed);
+    }
+
+    /**
+     * @param foods a shard's items
+     * @return the distinct hashes of their names, in ascending order
+     */
+    private static int[] hashes(FoodList foods) {
+        int[] hashes = new int[foods.getLength()];
+        int n = 0;
+        for(Food f : foods) {
+            if(f.getName() != null)
+                hashes[n++] = FoodNameIndex.hash(f.getName());
+        }
+        Arrays.sort(hashes, 0, n);
+        int distinct = 0;
+        for(int i = 0; i < n; i++) {
+            if(distinct == 0 || hashes[i] != hashes[distinct - 1])
+                hashes[distinct++] = hashes[i];
+        }
+        return Arrays.copyOf(hashes, distinct);
+    }
+
+    /**
+     * Marks some resident shards as just used, then drops the least recently used other shards until the resident items fit
+     * <code>maxResidentItems</code> again.
+     * @param used the shards
+     */
+    private void touch(List<Shard> used) {
+        for(Shard shard : used)
+            resident.get(shard);
+
+        Iterator<Shard> oldest = resident.keySet().iterator();
+        while(residentItems > maxResidentItems && oldest.hasNext()) {
+            Shard shard = oldest.next();
+            if(used.contains(shard))
+                continue;
+            oldest.remove();
+            residentItems -= shard.length;
+            shard.foods = null;
+            evictions++;
+        }
+    }
+}
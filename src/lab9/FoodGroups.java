@@ -0,0 +1,110 @@
+package lab9;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the food groups in use, shared by the whole program. Each distinct group name is stored once &amp; given a small integer code,
+ * handed out from 0 in the order groups are first seen. <code>Food</code> stores the shared copy of its group name, so millions of items in a
+ * few dozen groups only hold a few dozen <code>String</code>s, &amp; collections can use the codes to keep items partitioned by group.
+ * Safe to use from any thread: lookups of known groups don't lock. <code>null</code> always has the code -1.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodGroups {
+    /**
+     * Code of each known group name.
+     */
+    private static final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Shared group names, indexed by code. Has room to spare past <code>count</code> &amp; is replaced with a copy twice as long when full, so
+     * adding G groups costs O(G) in all. Slots below <code>count</code> never change.
+     */
+    private static volatile String[] names = new String[16];
+
+    /**
+     * Number of groups known. Written after the new group's name &amp; code are in place, so anyone who reads it can look up every code below
+     * it.
+     */
+    private static volatile int count;
+
+    /**
+     * Not instantiable.
+     */
+    private FoodGroups() {}
+
+    /**
+     * Finds the code of a group, adding the group if it is new.
+     * @param group the group name
+     * @return its code, or -1 for <code>null</code>
+     */
+    public static int code(String group) {
+        if(group == null)
+            return -1;
+        Integer code = codes.get(group);
+        return code != null ? code : add(group);
+    }
+
+    /**
+     * Finds the code of a group without adding it, so looking up groups that have no items doesn't grow the dictionary.
+     * @param group the group name
+     * @return its code, -1 for <code>null</code>, or -2 if the group isn't known
+     */
+    public static int find(String group) {
+        if(group == null)
+            return -1;
+        Integer code = codes.get(group);
+        return code != null ? code : -2;
+    }
+
+    /**
+     * Finds the shared copy of a group name, adding the group if it is new.
+     * @param group the group name
+     * @return the shared <code>String</code> equal to <code>group</code>
+     */
+    public static String intern(String group) {
+        if(group == null)
+            return null;
+
+        // Look the code up first, since adding a group replaces the array
+        int code = code(group);
+        return names[code];
+    }
+
+    /**
+     * @param code a group code
+     * @return the group name with that code, or <code>null</code> for -1
+     */
+    public static String name(int code) {
+        return code < 0 ? null : names[code];
+    }
+
+    /**
+     * @return the number of groups known, i.e. one more than the highest code
+     */
+    public static int count() {
+        return count;
+    }
+
+    /**
+     * Adds a new group, unless another thread beat us to it.
+     * @param group the group name
+     * @return its code
+     */
+    private static synchronized int add(String group) {
+        Integer code = codes.get(group);
+        if(code != null)
+            return code;
+
+        // Publish the name before the code so anyone who finds the code can look the name up
+        int added = count;
+        if(added == names.length)
+            names = Arrays.copyOf(names, added * 2);
+        names[added] = group;
+        codes.put(group, added);
+        count = added + 1;
+        return added;
+    }
+}
@@ -1,13 +1,26 @@
 package lab9;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Random;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Class representing a collection of <code>Food</code> items. Implemented internally as a singly-linked list per lab specifications, it does
- * <strong>not</strong> implement all standard linked list functionality, solely that necessary for lab specifications. Can be iterated over.
+ * Class representing a collection of <code>Food</code> items. Implemented internally as a doubly-linked list per lab specifications, unrolled so
+ * each node holds a block of items, it does <strong>not</strong> implement all standard linked list functionality, solely that necessary for lab
+ * specifications. Can be iterated over.
+ * Not thread-safe: use <code>ConcurrentFoodList</code> to share a list between threads.
  * Trivial getters not documented.
  *
  * @author Alexander Gould
@@ -15,16 +28,35 @@ import java.util.Random;
  */
 public class FoodList implements Iterable<Food> {
     /**
-     * Inner class representing singly-linked list nodes. Both fields are made public for easier access since the whole class is hidden.
+     * Inner class representing the nodes of an unrolled doubly-linked list: each holds a block of up to <code>NODE_CAPACITY</code> items in list
+     * order, so walking the list touches one node per block instead of one per item. All fields are made public for easier access since the
+     * whole class is hidden.
      *
      * @author Alexander Gould
      * @version 1.0
      */
     protected class FoodListNode {
         /**
-         * The <code>Food</code> item stored at this node.
+         * The <code>Food</code> items stored at this node, valid up to <code>used</code>. Items removed through a handle leave a <code>null</code>
+         * hole behind until the node is packed.
          */
-        public Food element;
+        public final Food[] elements = new Food[NODE_CAPACITY];
+
+        /**
+         * Number of slots of <code>elements</code> in use, holes included. The last slot in use always holds an item.
+         */
+        public int used;
+
+        /**
+         * Number of items stored at this node, never 0 while the node is in a list.
+         */
+        public int count;
+
+        /**
+         * Handle of each item stored at this node, indexed the same as <code>elements</code>, or <code>null</code> while the list has neither a
+         * Calorie index nor group partitions to point into it.
+         */
+        public FoodListEntry[] entries;
 
         /**
          * Pointer to the next node
@@ -32,17 +64,75 @@ public class FoodList implements Iterable<Food> {
         public FoodListNode next;
 
         /**
-         * Default constructor, sets <code>element</code> &amp; <code>next</code> to <code>null</code>.
+         * Pointer to the previous node, so a node emptied through an index can be unlinked without searching for it
+         */
+        public FoodListNode prev;
+
+        /**
+         * Default constructor, makes an empty node &amp; sets all pointers to <code>null</code>.
          */
-        public FoodListNode() {element=null;next=null;}
+        public FoodListNode() {used=0;count=0;next=null;prev=null;}
 
         /**
-         * Constructor with <code>Food</code> instance. Sets element to the provided instance &amp; <code>next</code> to <code>null</code>.
+         * Constructor with <code>Food</code> instance. Makes a node holding just the provided instance &amp; sets all pointers to <code>null</code>.
          * @param element <code>Food</code> instance to store in the node
          */
-        public FoodListNode(Food element) {this.element = element;next=null;}
+        public FoodListNode(Food element) {elements[0] = element;used=1;count=1;next=null;prev=null;}
+    }
+
+    /**
+     * Inner class representing a handle on one item of the list, kept so the Calorie index &amp; the group partitions can find the item's node
+     * without walking the list. Only made while one of them is turned on. All fields are made public for easier access since the whole class is
+     * hidden.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    protected class FoodListEntry {
+        /**
+         * The <code>Food</code> item, cleared once it is removed from the list so the Calorie index can tell it is gone.
+         */
+        public Food element;
+
+        /**
+         * The node holding the item
+         */
+        public FoodListNode node;
+
+        /**
+         * Index of the item in its node's <code>elements</code>, updated whenever the item is moved
+         */
+        public int index;
+
+        /**
+         * Pointer to the next item in the same food group, while the list is partitioned by group
+         */
+        public FoodListEntry groupNext;
+
+        /**
+         * Pointer to the previous item in the same food group, while the list is partitioned by group
+         */
+        public FoodListEntry groupPrev;
+
+        /**
+         * Constructor. Sets the group pointers to <code>null</code>.
+         * @param node the node holding the item
+         * @param index index of the item in the node
+         */
+        public FoodListEntry(FoodListNode node, int index) {element=node.elements[index];this.node=node;this.index=index;}
     }
 
+    /**
+     * Most items a node holds. 64 references fill a few cache lines, enough to make walking the list about as fast as walking an array while
+     * keeping packing a node cheap.
+     */
+    static final int NODE_CAPACITY = 64;
+
+    /**
+     * Random generator for each thread picking random meals without a seed, so they don't need a generator per call or share one.
+     */
+    static final ThreadLocal<SplittableRandom> random = ThreadLocal.withInitial(SplittableRandom::new);
+
     /**
      * Length of the list.
      */
@@ -53,11 +143,60 @@ public class FoodList implements Iterable<Food> {
      */
     protected FoodListNode start;
 
+    /**
+     * Pointer to the last node in the list, kept so appending doesn't have to walk the whole list.
+     */
+    protected FoodListNode end;
+
+    /**
+     * Case-insensitive index of the list's items by name, or <code>null</code> if <code>findByName</code> should scan the list.
+     */
+    protected FoodNameIndex names;
+
+    /**
+     * Prefix &amp; typo-tolerant index of the list's names, or <code>null</code> if <code>findByPrefix</code> &amp; <code>findSimilar</code> should scan
+     * the list.
+     */
+    protected FoodNameSearch search;
+
+    /**
+     * Index of the list's items ordered by Calories, or <code>null</code> if Calorie queries should scan the list.
+     */
+    protected FoodCalorieIndex calories;
+
+    /**
+     * The list's items in order, so items can be picked by position in O(1). Valid up to <code>size</code>. Built the first time it is needed,
+     * kept up-to-date by appends &amp; dropped (<code>null</code>) by removals until it is needed again.
+     */
+    protected Food[] positions;
+
+    /**
+     * First item of each food group, indexed by <code>FoodGroups</code> code + 1 (so items without a group are at 0), or <code>null</code> if the
+     * list isn't partitioned by group. Items of a group are chained in list order through <code>groupNext</code> &amp; <code>groupPrev</code>.
+     */
+    protected FoodListEntry[] groupStarts;
+
+    /**
+     * Last item of each food group, indexed the same as <code>groupStarts</code>.
+     */
+    protected FoodListEntry[] groupEnds;
+
+    /**
+     * Number of items in each food group, indexed the same as <code>groupStarts</code>.
+     */
+    protected int[] groupSizes;
+
+    /**
+     * Running totals of the list's items, overall &amp; per food group, kept up-to-date by every add &amp; removal.
+     */
+    protected final FoodStats stats = new FoodStats();
+
     /**
      * Default constructor. Makes an empty list.
      */
     public FoodList() {
         start = null;
+        end = null;
         size = 0;
     }
 
@@ -67,30 +206,166 @@ public class FoodList implements Iterable<Food> {
      */
     public FoodList(Food f) {
         start = new FoodListNode(f);
+        end = start;
         size = 1;
+        stats.add(f);
     }
 
     /**
-     * Adds a <code>Food</code> instance to the end of the list. O(n) time.
+     * Adds a <code>Food</code> instance to the end of the list. O(1) time.
      * @param f <code>Food</code> instance to be added.
      */
     public void add(Food f) {
-        FoodListNode temp = new FoodListNode(f);
-
-        // Case: empty list
-        if(start == null) {
-            start = temp;
-        } else {
+        // Case: empty list or full last node, start a new one
+        if(end == null || end.used == NODE_CAPACITY) {
+            FoodListNode temp = new FoodListNode();
+            if(start == null) {
+                start = temp;
+            } else {
 
-            // Otherwise, loop to the end & add this item
-            FoodListNode current = start;
-            while(current.next != null)
-                current = current.next;
-            current.next = temp;
+                // Otherwise, link it after the last node
+                end.next = temp;
+                temp.prev = end;
+            }
+            end = temp;
+            if(needsEntries())
+                temp.entries = new FoodListEntry[NODE_CAPACITY];
         }
+        end.elements[end.used++] = f;
+        end.count++;
 
-        // Keep the length up-to-date
+        // Keep the length, totals & indexes up-to-date
         size++;
+        stats.add(f);
+        index(end, end.used - 1);
+        if(positions != null) {
+            if(positions.length < size)
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            positions[size - 1] = f;
+        }
+    }
+
+    /**
+     * Adds every <code>Food</code> from <code>foods</code> to the end of the list, in iteration order. O(m) time for m new items.
+     * Adding a list to itself appends a copy of its current contents.
+     * @param foods the <code>Food</code> instances to be added.
+     */
+    public void addAll(Iterable<? extends Food> foods) {
+        // Case: adding ourselves, only copy what's here now so we don't chase our own tail forever
+        if(foods == this) {
+            Food[] items = positions();
+            for(int i = 0, length = size; i < length; i++)
+                add(items[i]);
+            return;
+        }
+
+        for(Food f : foods)
+            add(f);
+    }
+
+    /**
+     * Adds every <code>Food</code> from <code>foods</code> to the end of the list, in encounter order. O(m) time for m new items.
+     * @param foods the <code>Food</code> instances to be added.
+     */
+    public void addAll(Stream<? extends Food> foods) {
+        foods.forEachOrdered(this::add);
+    }
+
+    /**
+     * Moves all the nodes of <code>other</code> onto the end of this list by relinking them, leaving <code>other</code> empty. If the items of
+     * its first node fit in our last one they are moved there instead, so appending many short lists doesn't leave a chain of nearly empty
+     * nodes. O(m / 64) time for m new items, plus the cost of indexing them if this list has any indexes.
+     * @param other the list to splice onto this one. Must not be this list.
+     */
+    public void append(FoodList other) {
+        if(other == this)
+            throw new IllegalArgumentException("Cannot append a list to itself!");
+
+        // Case: nothing to move
+        if(other.start == null)
+            return;
+        boolean indexed = names != null || search != null || calories != null || positions != null || groupStarts != null;
+        if(positions != null && positions.length < size + other.size)
+            positions = Arrays.copyOf(positions, Math.max(size + other.size, positions.length * 2));
+        int position = size;
+
+        // Case: the other list's first node fits in our last one, so move its items over, dropping its holes, as pack does
+        FoodListNode first = other.start;
+        if(end != null && end.used + first.count <= NODE_CAPACITY) {
+            for(int i = 0; i < first.used; i++) {
+                Food f = first.elements[i];
+                if(f != null) {
+                    end.elements[end.used] = f;
+                    end.count++;
+                    index(end, end.used++);
+                    if(positions != null)
+                        positions[position++] = f;
+                }
+            }
+            first = first.next;
+        }
+
+        // Index the new items
+        for(FoodListNode node = first; node != null; node = node.next) {
+            // The other list's handles only point into its own indexes
+            node.entries = needsEntries() ? new FoodListEntry[NODE_CAPACITY] : null;
+            if(indexed) {
+                for(int i = 0; i < node.used; i++) {
+                    if(node.elements[i] != null) {
+                        index(node, i);
+                        if(positions != null)
+                            positions[position++] = node.elements[i];
+                    }
+                }
+            }
+        }
+
+        // Link the rest of the other list's chain after our last node
+        if(first != null) {
+            if(start == null) {
+                start = first;
+            } else {
+                end.next = first;
+                first.prev = end;
+            }
+            end = other.end;
+        }
+        size += other.size;
+        stats.addAll(other.stats);
+
+        // The nodes belong to us now
+        other.clear();
+    }
+
+    /**
+     * Removes every item, keeping whichever indexes &amp; partitions are turned on. O(1) time plus the number of food groups.
+     */
+    public void clear() {
+        start = null;
+        end = null;
+        size = 0;
+        stats.clear();
+        if(names != null)
+            names = new FoodNameIndex(0);
+        if(search != null)
+            search = new FoodNameSearch();
+        if(calories != null)
+            calories = new FoodCalorieIndex();
+        positions = null;
+        if(groupStarts != null) {
+            Arrays.fill(groupStarts, null);
+            Arrays.fill(groupEnds, null);
+            Arrays.fill(groupSizes, 0);
+        }
+    }
+
+    /**
+     * Writes the list's items to a binary snapshot that <code>FoodSnapshot.read</code> can load back without parsing.
+     * @param snapshot where to write
+     * @throws IOException if the snapshot can't be written
+     */
+    public void writeSnapshot(Path snapshot) throws IOException {
+        FoodSnapshot.write(this, snapshot, -1, -1);
     }
 
     /**
@@ -102,105 +377,836 @@ public class FoodList implements Iterable<Food> {
     }
 
     /**
-     * Deletes all items from the list with Calories >= <code>cals</code>.
+     * Totals the whole list: number of items, Calorie sum, mean, lowest &amp; highest, &amp; daily percentage sum. The totals are kept up-to-date as
+     * items are added &amp; removed, so this is O(groups) time, plus O(n) once after removing the lowest or highest item of a group that has items
+     * over <code>FoodStats.HISTOGRAM_LIMIT</code> Calories. Calories, daily percentages &amp; groups of items must not be changed while they are
+     * in a list.
+     * @return the summary
+     */
+    public FoodStats.Summary getSummary() {
+        if(stats.isStale())
+            stats.rescan(this);
+        return stats.summary();
+    }
+
+    /**
+     * Totals one food group. O(1) time, see <code>getSummary()</code>.
+     * @param group the food group
+     * @return the summary, with a count of 0 if the group has no items
+     */
+    public FoodStats.Summary getSummary(String group) {
+        if(stats.isStale())
+            stats.rescan(this);
+        return stats.summary(group);
+    }
+
+    /**
+     * Totals each food group that has items, in the order the groups were first seen. O(groups) time, see <code>getSummary()</code>.
+     * @return a summary per group
+     */
+    public FoodStats.Summary[] getGroupSummaries() {
+        if(stats.isStale())
+            stats.rescan(this);
+        return stats.groupSummaries();
+    }
+
+    /**
+     * Turns the case-insensitive name index on or off. While on, <code>findByName</code> is O(1) &amp; adding or removing items also updates the
+     * index. Turning it on indexes the current items in O(n). Names of items must not be changed while they are in an indexed list.
+     * @param indexed whether the list should keep a name index
+     */
+    public void setNameIndexed(boolean indexed) {
+        if(!indexed) {
+            names = null;
+        } else if(names == null) {
+            names = new FoodNameIndex(size);
+            for(Food f : this)
+                names.add(f);
+        }
+    }
+
+    /**
+     * @return whether the list keeps a name index
+     */
+    public boolean isNameIndexed() {
+        return names != null;
+    }
+
+    /**
+     * Turns the name search index on or off. While on, <code>findByPrefix</code> costs the length of the prefix plus a little per item returned,
+     * <code>findSimilar</code> only checks names sharing enough trigrams with the one searched for, &amp; adding or removing items also updates the
+     * index. Turning it on indexes the current items in O(n). Names of items must not be changed while they are in an indexed list.
+     * @param indexed whether the list should keep a name search index
+     */
+    public void setNameSearchIndexed(boolean indexed) {
+        if(!indexed) {
+            search = null;
+        } else if(search == null) {
+            search = new FoodNameSearch();
+            for(Food f : this)
+                search.add(f);
+        }
+    }
+
+    /**
+     * @return whether the list keeps a name search index
+     */
+    public boolean isNameSearchIndexed() {
+        return search != null;
+    }
+
+    /**
+     * Turns the Calorie index on or off. While on, <code>removeHighCalFoods</code> &amp; <code>findByCals</code> only visit the items they return
+     * or remove, plus O(log n), &amp; adding or removing items also updates the index. Turning it on indexes the current items in O(n log n).
+     * Calories of items must not be changed while they are in an indexed list.
+     * @param indexed whether the list should keep a Calorie index
+     */
+    public void setCalorieIndexed(boolean indexed) {
+        if(!indexed) {
+            calories = null;
+        } else if(calories == null) {
+            calories = new FoodCalorieIndex();
+            makeEntries();
+            for(FoodListNode node = start; node != null; node = node.next) {
+                for(int i = 0; i < node.used; i++) {
+                    if(node.entries[i] != null)
+                        calories.add(node.entries[i]);
+                }
+            }
+        }
+        dropEntries();
+    }
+
+    /**
+     * @return whether the list keeps a Calorie index
+     */
+    public boolean isCalorieIndexed() {
+        return calories != null;
+    }
+
+    /**
+     * Turns partitioning by food group on or off. While on, the nodes of each group are also chained together, so
+     * <code>findByGroup</code> &amp; <code>removeHighCalFoods(int, String)</code> only visit that group's items. Turning it on partitions the
+     * current items in O(n). Groups of items must not be changed while they are in a partitioned list.
+     * @param partitioned whether the list should be partitioned by food group
+     */
+    public void setGroupPartitioned(boolean partitioned) {
+        if(partitioned == isGroupPartitioned())
+            return;
+
+        // Clear the old chains either way
+        for(FoodListNode node = start; node != null; node = node.next) {
+            for(int i = 0; node.entries != null && i < node.used; i++) {
+                if(node.entries[i] != null) {
+                    node.entries[i].groupNext = null;
+                    node.entries[i].groupPrev = null;
+                }
+            }
+        }
+        groupStarts = null;
+        groupEnds = null;
+        groupSizes = null;
+
+        if(partitioned) {
+            int groups = FoodGroups.count() + 1;
+            groupStarts = new FoodListEntry[groups];
+            groupEnds = new FoodListEntry[groups];
+            groupSizes = new int[groups];
+            makeEntries();
+            for(FoodListNode node = start; node != null; node = node.next) {
+                for(int i = 0; i < node.used; i++) {
+                    if(node.entries[i] != null)
+                        partition(node.entries[i]);
+                }
+            }
+        }
+        dropEntries();
+    }
+
+    /**
+     * @return whether the list is partitioned by food group
+     */
+    public boolean isGroupPartitioned() {
+        return groupStarts != null;
+    }
+
+    /**
+     * Counts the items in a food group. O(1) time if the list is partitioned by group, otherwise O(n).
+     * @param group the food group
+     * @return the number of items in it
+     */
+    public int countGroup(String group) {
+        if(groupStarts != null) {
+            int code = FoodGroups.find(group) + 1;
+            return code >= 0 && code < groupSizes.length ? groupSizes[code] : 0;
+        }
+
+        int count = 0;
+        for(Food f : this) {
+            if(Objects.equals(f.getGroup(), group))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Finds all items in a food group. O(g) time for g items in the group if the list is partitioned by group, otherwise O(n).
+     * @param group the food group
+     * @return a new list of the group's items, in the order they appear in this list
+     */
+    public FoodList findByGroup(String group) {
+        FoodList found = new FoodList();
+        if(groupStarts != null) {
+            for(FoodListEntry entry = firstInGroup(group); entry != null; entry = entry.groupNext)
+                found.add(entry.element);
+            return found;
+        }
+
+        for(Food f : this) {
+            if(Objects.equals(f.getGroup(), group))
+                found.add(f);
+        }
+        return found;
+    }
+
+    /**
+     * Deletes all items in a food group with Calories >= <code>cals</code>. O(g) time for g items in the group if the list is partitioned by group,
+     * otherwise O(n).
+     * @param cals The Calorie threshold
+     * @param group the food group
+     */
+    public void removeHighCalFoods(int cals, String group) {
+        long started = FoodMetrics.start();
+        try {
+            int removed = 0;
+            if(groupStarts != null) {
+                FoodListEntry entry = firstInGroup(group);
+                while(entry != null) {
+                    FoodListEntry next = entry.groupNext;
+                    if(entry.element.getCals() >= cals) {
+                        unlink(entry);
+                        removed++;
+                    }
+                    entry = next;
+                }
+            } else {
+                removed = removeWhere(f -> f.getCals() >= cals && Objects.equals(f.getGroup(), group));
+            }
+
+            // The Calorie index still holds the removed items, so rebuild it once they outnumber the live ones
+            if(calories != null) {
+                calories.dead += removed;
+                if(calories.dead > size) {
+                    calories = null;
+                    setCalorieIndexed(true);
+                }
+            }
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.REMOVE_HIGH_CAL_FOODS, started);
+        }
+    }
+
+    /**
+     * @param group a food group
+     * @return the first item in the group, or <code>null</code> if it has none. Only valid while the list is partitioned by group.
+     */
+    private FoodListEntry firstInGroup(String group) {
+        int code = FoodGroups.find(group) + 1;
+        return code >= 0 && code < groupStarts.length ? groupStarts[code] : null;
+    }
+
+    /**
+     * Deletes all items from the list with Calories >= <code>cals</code>. O(log n + k) amortized time for k removed items if the list has a Calorie
+     * index, otherwise O(n) in a single pass that packs each node's remaining items together.
      * @param cals The Calorie threshold
      */
     public void removeHighCalFoods(int cals) {
-        // Start at the beginning & set a flag for whether we need to update the link to start or not
-        FoodListNode node = start, prev = null;
-        boolean isStart = true;
+        long started = FoodMetrics.start();
+        try {
+            // Case: indexed, so the items to remove are already lined up for us
+            if(calories != null) {
+                for(FoodCalorieIndex.Entry entry = calories.removeFrom(cals); entry != null; entry = entry.next[0]) {
+                    // Skip items already removed some other way
+                    if(entry.item.element == null)
+                        calories.dead--;
+                    else
+                        unlink(entry.item);
+                }
+                return;
+            }
 
-        // Loop thru all elements & check if the Calories meet the threshold
-        while(node != null) {
-            if(node.element.getCals() >= cals) {
+            // Otherwise loop thru all elements & check if the Calories meet the threshold
+            removeWhere(f -> f.getCals() >= cals);
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.REMOVE_HIGH_CAL_FOODS, started);
+        }
+    }
 
-                // End of the list? If so, null this node entirely. Otherwise, link the next node
-                if(node.next == null) {
-                    node = null;
-                    if(prev != null)
-                        prev.next = null;
-                } else {
-                    FoodListNode temp = node;
-                    node.element = temp.next.element;
-                    node.next = temp.next.next;
+    /**
+     * Finds all items with Calories between <code>min</code> &amp; <code>max</code>, inclusive. O(log n + k) time for k found items if the list
+     * has a Calorie index, otherwise O(n).
+     * @param min the lowest Calories to include
+     * @param max the highest Calories to include
+     * @return a new list of the found items in ascending order of Calories, items with equal Calories in the order they appear in this list
+     */
+    public FoodList findByCals(int min, int max) {
+        FoodList found = new FoodList();
+
+        // Case: indexed, walk the range in order
+        if(calories != null) {
+            for(FoodCalorieIndex.Entry entry = calories.first(min); entry != null && entry.kcal <= max; entry = entry.next[0]) {
+                if(entry.item.element != null)
+                    found.add(entry.item.element);
+            }
+            return found;
+        }
+
+        // Otherwise collect the matches & sort them, which keeps equal Calories in list order
+        ArrayList<Food> matches = new ArrayList<Food>();
+        for(Food f : this) {
+            if(f.getCals() >= min && f.getCals() <= max)
+                matches.add(f);
+        }
+        matches.sort(Comparator.comparingInt(Food::getCals));
+        found.addAll(matches);
+        return found;
+    }
+
+    /**
+     * Adds an item that was just stored in a node to every index the list keeps, making its handle first if the list needs one.
+     * @param node the node holding the new item
+     * @param index index of the item in the node
+     */
+    private void index(FoodListNode node, int index) {
+        Food f = node.elements[index];
+        if(names != null)
+            names.add(f);
+        if(search != null)
+            search.add(f);
+        if(node.entries != null) {
+            FoodListEntry entry = new FoodListEntry(node, index);
+            node.entries[index] = entry;
+            if(calories != null)
+                calories.add(entry);
+            if(groupStarts != null)
+                partition(entry);
+        }
+    }
+
+    /**
+     * Links an item onto the end of its food group's chain, growing the partition arrays if the group is newer than them.
+     * @param entry the item's handle
+     */
+    private void partition(FoodListEntry entry) {
+        int group = entry.element.getGroupCode() + 1;
+        if(group >= groupStarts.length) {
+            int length = Math.max(group + 1, groupStarts.length * 2);
+            groupStarts = Arrays.copyOf(groupStarts, length);
+            groupEnds = Arrays.copyOf(groupEnds, length);
+            groupSizes = Arrays.copyOf(groupSizes, length);
+        }
+
+        entry.groupNext = null;
+        entry.groupPrev = groupEnds[group];
+        if(groupStarts[group] == null) {
+            groupStarts[group] = entry;
+        } else {
+            groupEnds[group].groupNext = entry;
+        }
+        groupEnds[group] = entry;
+        groupSizes[group]++;
+    }
+
+    /**
+     * @return whether the list needs a handle for each item, because it has a Calorie index or group partitions
+     */
+    private boolean needsEntries() {
+        return calories != null || groupStarts != null;
+    }
+
+    /**
+     * Gives every item a handle, if they don't have them already. O(n) time.
+     */
+    private void makeEntries() {
+        for(FoodListNode node = start; node != null; node = node.next) {
+            if(node.entries == null) {
+                node.entries = new FoodListEntry[NODE_CAPACITY];
+                for(int i = 0; i < node.used; i++) {
+                    if(node.elements[i] != null)
+                        node.entries[i] = new FoodListEntry(node, i);
                 }
+            }
+        }
+    }
+
+    /**
+     * Drops the items' handles if nothing needs them any more.
+     */
+    private void dropEntries() {
+        if(!needsEntries()) {
+            for(FoodListNode node = start; node != null; node = node.next)
+                node.entries = null;
+        }
+    }
+
+    /**
+     * Removes an item from the list &amp; every index except the Calorie index, which is left to the caller. The item's slot is left as a hole,
+     * so the items after it don't move &amp; their handles stay valid; the node is packed once its holes outnumber its items. O(1) amortized
+     * time. The handle's <code>element</code> is cleared so the Calorie index can tell it is gone.
+     * @param entry the handle of the item to remove
+     */
+    private void unlink(FoodListEntry entry) {
+        FoodListNode node = entry.node;
+        forget(entry.element, entry);
+        node.elements[entry.index] = null;
+        node.entries[entry.index] = null;
+        node.count--;
 
-                // Reduce size
-                size--;
+        // Drop holes at the end straight away, so the last used slot always holds an item
+        while(node.used > 0 && node.elements[node.used - 1] == null)
+            node.used--;
+        if(node.count == 0)
+            drop(node);
+        else if(node.used - node.count > node.count)
+            pack(node, f -> false);
+    }
+
+    /**
+     * Removes every item matching a condition in a single pass, packing each node in turn. O(n) time.
+     * @param doomed whether an item should be removed
+     * @return the number of items removed
+     */
+    private int removeWhere(Predicate<Food> doomed) {
+        int removed = 0;
+        FoodListNode node = start;
+        while(node != null) {
+            FoodListNode next = node.next;
+            removed += pack(node, doomed);
+            node = next;
+        }
+        return removed;
+    }
 
-                // Keep start pointer updated
-                if(isStart)
-                    start = node;
+    /**
+     * Packs the items a node keeps to its front, dropping holes &amp; items matching a condition, then unlinks the node if it is empty or merges it
+     * into the node before it if either is less than half full &amp; both fit. O(<code>NODE_CAPACITY</code>) time.
+     * @param node the node to pack
+     * @param doomed whether an item should be removed
+     * @return the number of items removed
+     */
+    private int pack(FoodListNode node, Predicate<Food> doomed) {
+        Food[] elements = node.elements;
+        FoodListEntry[] entries = node.entries;
+        int kept = 0, removed = 0;
+        for(int i = 0; i < node.used; i++) {
+            Food f = elements[i];
+            if(f == null)
+                continue;
+            if(doomed.test(f)) {
+                forget(f, entries == null ? null : entries[i]);
+                removed++;
             } else {
+                // Only handles of items that actually move need updating
+                if(kept != i) {
+                    elements[kept] = f;
+                    if(entries != null) {
+                        entries[kept] = entries[i];
+                        entries[kept].index = kept;
+                    }
+                }
+                kept++;
+            }
+        }
+        Arrays.fill(elements, kept, node.used, null);
+        if(entries != null)
+            Arrays.fill(entries, kept, node.used, null);
+        node.used = kept;
+        node.count = kept;
 
-                // If the Calorie threshold is not met, skip to the next item.
-                prev = node;
-                node = node.next;
-                isStart = false;
+        // Then drop or merge the node if it got too small
+        FoodListNode prev = node.prev;
+        if(kept == 0)
+            drop(node);
+        else if(prev != null && prev.used + kept <= NODE_CAPACITY && Math.min(prev.count, kept) < NODE_CAPACITY / 2)
+            merge(prev, node);
+        return removed;
+    }
+
+    /**
+     * Drops an item from the length, the totals, the group partitions &amp; the name indexes, &amp; lets the positions be rebuilt when next needed. Leaves
+     * its node to the caller.
+     * @param f the item
+     * @param entry its handle, or <code>null</code> if the list doesn't keep handles
+     */
+    private void forget(Food f, FoodListEntry entry) {
+        // Link the items on either side in its food group's chain past this one
+        if(groupStarts != null) {
+            int group = f.getGroupCode() + 1;
+            if(entry.groupPrev == null)
+                groupStarts[group] = entry.groupNext;
+            else
+                entry.groupPrev.groupNext = entry.groupNext;
+            if(entry.groupNext == null)
+                groupEnds[group] = entry.groupPrev;
+            else
+                entry.groupNext.groupPrev = entry.groupPrev;
+            entry.groupNext = null;
+            entry.groupPrev = null;
+            groupSizes[group]--;
+        }
+
+        // Reduce size & totals, drop it from the name indexes & let the positions be rebuilt when next needed
+        size--;
+        stats.remove(f);
+        if(names != null)
+            names.remove(f);
+        if(search != null)
+            search.remove(f);
+        positions = null;
+        if(entry != null)
+            entry.element = null;
+    }
+
+    /**
+     * Moves every item of a packed node onto the end of the node before it &amp; unlinks the emptied node.
+     * @param to the node to move the items to, with room for them after its last used slot
+     * @param from the node after it, without holes
+     */
+    private void merge(FoodListNode to, FoodListNode from) {
+        System.arraycopy(from.elements, 0, to.elements, to.used, from.count);
+        if(to.entries != null) {
+            System.arraycopy(from.entries, 0, to.entries, to.used, from.count);
+            for(int i = to.used; i < to.used + from.count; i++) {
+                to.entries[i].node = to;
+                to.entries[i].index = i;
             }
         }
+        to.used += from.count;
+        to.count += from.count;
+        from.used = 0;
+        from.count = 0;
+        drop(from);
+    }
+
+    /**
+     * Unlinks an empty node from the list.
+     * @param node the node to remove
+     */
+    private void drop(FoodListNode node) {
+        // Link the nodes on either side (or start/end) past this one
+        if(node.prev == null)
+            start = node.next;
+        else
+            node.prev.next = node.next;
+        if(node.next == null)
+            end = node.prev;
+        else
+            node.next.prev = node.prev;
+        node.next = null;
+        node.prev = null;
+    }
+
+    /**
+     * Getter for <code>positions</code>, building it first if it was dropped. O(1) time, or O(n) after items have been removed.
+     * @return the list's items in order, valid up to <code>size</code>
+     */
+    protected Food[] positions() {
+        if(positions == null) {
+            positions = new Food[Math.max(16, size)];
+            int i = 0;
+            for(FoodListNode node = start; node != null; node = node.next) {
+                if(node.used == node.count) {
+                    System.arraycopy(node.elements, 0, positions, i, node.count);
+                    i += node.count;
+                } else {
+                    for(int j = 0; j < node.used; j++) {
+                        if(node.elements[j] != null)
+                            positions[i++] = node.elements[j];
+                    }
+                }
+            }
+        }
+        return positions;
     }
 
     /**
      * Picks foods at random from the list based on the passed param &amp; returns a meal consisting of the chosen foods. Can select duplicate entries.
-     * An attempt has been made to uniformly distribute the chances across all <code>Food</code>s in the list, but it may not have resulted in a
-     * truly rigorous pattern of randomization. A moe efficient implementation of this might use a min-heap instead of an <code>ArrayList</code> for
-     * the random foods.
+     * Every item is equally likely to be picked for each place in the meal. Uses a generator kept by the calling thread.
+     * O(k) time for a meal of k foods, plus O(n) the first time after items have been removed.
      * @param numFoods the number of <code>Food</code>s to be included in the random meal.
      * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
      */
     public Food[] randomMeal(int numFoods) {
-        // Make sure numFoods is positive
-        if(numFoods <= 0)
-            throw new IllegalArgumentException("numFoods must be > 0!");
+        return randomMeal(numFoods, true, random.get());
+    }
+
+    /**
+     * Picks foods at random from the list, with or without the chance of picking the same item more than once. Uses a generator kept by the
+     * calling thread. See <code>randomMeal(int, boolean, SplittableRandom)</code>.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement) {
+        return randomMeal(numFoods, replacement, random.get());
+    }
+
+    /**
+     * Picks foods at random from the list using a generator seeded with <code>seed</code>, so the same list &amp; seed always give the same meal.
+     * See <code>randomMeal(int, boolean, SplittableRandom)</code>.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param seed the seed for the generator
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, long seed) {
+        return randomMeal(numFoods, replacement, new SplittableRandom(seed));
+    }
+
+    /**
+     * Picks foods at random from the list. With replacement, every item is equally likely to be picked for each place in the meal. Without, every
+     * set of <code>numFoods</code> different items is equally likely (picked with Floyd's algorithm). Items are picked by position in O(1), so this
+     * is O(k) time for a meal of k foods, plus O(n) the first time after items have been removed.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) {
+        long started = FoodMetrics.start();
+        try {
+            checkMeal(size, numFoods, replacement);
 
-        // Array of Foods, ArrayList of Integers (position of item on list) & Random generator
-        Food[] meal = new Food[numFoods];
-        ArrayList<Integer> foodnums = new ArrayList<Integer>();
-        Random rand = new Random();
+            // Pick positions, then look them up
+            int[] picks = new int[numFoods];
+            pickPositions(size, replacement, rand, picks, 0, numFoods);
+            Food[] meal = new Food[numFoods];
+            Food[] items = positions();
+            for(int i = 0; i < numFoods; i++)
+                meal[i] = items[picks[i]];
 
-        // Fill foodnums with numFoods random Integers & sort it (each one corresponds to a Food instance to be chosen)
-        for(int i = 0; i < numFoods; i++) {
-            foodnums.add(rand.nextInt(size));
+            return meal;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.RANDOM_MEAL, started);
         }
-        foodnums.sort(Integer::compareTo);
+    }
+
+    /**
+     * Generates a batch of random meals. See <code>MealBatch</code>. O(k) time per meal of k foods, spread over all cores.
+     * @param numMeals the number of meals
+     * @param numFoods the number of <code>Food</code>s in each meal
+     * @param replacement whether a meal can hold the same item more than once
+     * @param seed the seed for the generators, so the same list &amp; seed always give the same meals
+     * @return a new batch holding the meals
+     */
+    public MealBatch randomMeals(int numMeals, int numFoods, boolean replacement, long seed) {
+        MealBatch meals = new MealBatch(numMeals, numFoods);
+        randomMeals(meals, replacement, seed);
+        return meals;
+    }
 
-        // Loop thru the list & fill meal
-        int i = 0, list = 0;
-        FoodListNode current = start;
-        while(i < numFoods) {
+    /**
+     * Refills a batch with as many random meals as it can hold, reusing its arrays.
+     * @param meals the batch to fill
+     * @param replacement whether a meal can hold the same item more than once
+     * @param seed the seed for the generators
+     */
+    public void randomMeals(MealBatch meals, boolean replacement, long seed) {
+        meals.fill(positions(), size, replacement, new SplittableRandom(seed), meals.getCapacity());
+    }
 
-            // If the list index equals the position of the current food we are trying to find,
-            if(list == foodnums.get(i)) {
+    /**
+     * Generates any number of random meals, passing them to <code>sink</code> a batch at a time through a single reused batch. Gives the
+     * same meals as <code>randomMeals(int, int, boolean, long)</code> with the same seed.
+     * @param numMeals the number of meals
+     * @param numFoods the number of <code>Food</code>s in each meal
+     * @param replacement whether a meal can hold the same item more than once
+     * @param seed the seed for the generators
+     * @param sink receives the meals
+     */
+    public void randomMeals(long numMeals, int numFoods, boolean replacement, long seed, MealBatch.Sink sink) {
+        if(numMeals < 0)
+            throw new IllegalArgumentException("numMeals must be >= 0!");
+        if(numMeals == 0)
+            return;
+        SplittableRandom rand = new SplittableRandom(seed);
+        MealBatch meals = new MealBatch((int) Math.min(numMeals, 64 * MealBatch.BLOCK), numFoods);
+        Food[] items = positions();
+        for(long first = 0; first < numMeals; first += meals.getCapacity()) {
+            meals.fill(items, size, replacement, rand, (int) Math.min(numMeals - first, meals.getCapacity()));
+            sink.accept(meals, first);
+        }
+    }
 
-                // then add it to the meal & go to the next index in the array of randoms.
-                meal[i] = current.element;
-                i++;
-            } else {
+    /**
+     * Makes sure a random meal can be picked.
+     * @param size the number of items to pick from
+     * @param numFoods the number of items to pick
+     * @param replacement whether an item can be picked more than once
+     */
+    static void checkMeal(int size, int numFoods, boolean replacement) {
+        if(numFoods <= 0)
+            throw new IllegalArgumentException("numFoods must be > 0!");
+        if(size == 0)
+            throw new IllegalStateException("Cannot pick foods from an empty list!");
+        if(!replacement && numFoods > size)
+            throw new IllegalArgumentException("numFoods must be <= the length of the list when not picking items more than once!");
+    }
+
+    /**
+     * Picks random positions for a meal. With replacement, every position is equally likely for each pick. Without, every set of
+     * <code>count</code> different positions is equally likely, using Floyd's algorithm. O(k) time for k picks: positions taken are kept in a hash
+     * set of about 4k slots, or in a bitmap of the n positions once k is at least n / 128.
+     * @param size the number of positions to pick from, &gt; 0
+     * @param replacement whether a position can be picked more than once. If not, <code>count</code> must be &lt;= <code>size</code>.
+     * @param rand the generator to use
+     * @param picks array to write the positions into
+     * @param offset index in <code>picks</code> of the first position to write
+     * @param count the number of positions to pick
+     */
+    static void pickPositions(int size, boolean replacement, SplittableRandom rand, int[] picks, int offset, int count) {
+        // Case: with replacement, every pick is independent
+        if(replacement) {
+            for(int i = 0; i < count; i++)
+                picks[offset + i] = rand.nextInt(size);
+            return;
+        }
 
-                // Otherwise, increment the list index & go to the next list node.
-                list++;
-                current = current.next;
+        // Otherwise, Floyd's algorithm: for each of the last count positions j, pick from 0..j, taking j itself if the pick was already taken.
+        // Taken positions go in a bitmap once it's no bigger than the hash set, which also keeps the set's length in range for huge meals
+        if(count >= size >>> 7) {
+            long[] bitmap = new long[(size + 63) >>> 6];
+            int i = offset;
+            for(int j = size - count; j < size; j++) {
+                int pick = rand.nextInt(j + 1);
+                if((bitmap[pick >>> 6] & 1L << pick) != 0)
+                    pick = j;
+                bitmap[pick >>> 6] |= 1L << pick;
+                picks[i++] = pick;
+            }
+            return;
+        }
+        int[] taken = new int[Integer.highestOneBit(count) * 4];
+        int mask = taken.length - 1;
+        int i = offset;
+        for(int j = size - count; j < size; j++) {
+            int pick = rand.nextInt(j + 1);
+            if(!take(taken, mask, pick)) {
+                pick = j;
+                take(taken, mask, pick);
             }
+            picks[i++] = pick;
         }
+    }
 
-        return meal;
+    /**
+     * Adds a position to a small open-addressing set used by <code>pickPositions</code>. Slots hold position + 1 so 0 can mean empty.
+     * @param taken the set
+     * @param mask the set's length - 1, a power of 2 minus 1
+     * @param position the position to add
+     * @return whether the position was added, <code>false</code> if it was already present
+     */
+    private static boolean take(int[] taken, int mask, int position) {
+        int hash = position * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while(taken[slot] != 0) {
+            if(taken[slot] == position + 1)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        taken[slot] = position + 1;
+        return true;
     }
 
     /**
-     * Searches for a <code>Food</code> by name (case-insensitive) in the list.
+     * Searches for a <code>Food</code> by name (case-insensitive) in the list. If several items share the name, the first in the list is returned.
+     * O(1) time if the list has a name index, otherwise O(n).
      * @param name the name of the <code>Food</code> to search for.
      * @return the <code>Food</code> instance if found in the list,<code>null</code> if not.
      */
     public Food findByName(String name) {
-        // Iterate over the list & return the Food if its name matches the passed String
+        long started = FoodMetrics.start();
+        try {
+            if(names != null)
+                return names.find(name);
+
+            // Iterate over the list & return the Food if its name matches the passed String
+            for(Food f : this) {
+                if(f.getName().equalsIgnoreCase(name)) {
+                    return f;
+                }
+            }
+
+            return null;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.FIND_BY_NAME, started);
+        }
+    }
+
+    /**
+     * Autocompletes a name: finds the items whose names start with <code>prefix</code>, ignoring case. Only the first item with each name is
+     * returned, so the results are distinct names. Costs the length of the prefix plus a little per item returned if the list has a name search
+     * index, otherwise O(n).
+     * @param prefix the start of the names to find
+     * @param limit the most items to return
+     * @return the first item with each matching name, in alphabetical order of name, empty if <code>prefix</code> is <code>null</code>
+     */
+    public Food[] findByPrefix(String prefix, int limit) {
+        if(limit <= 0)
+            throw new IllegalArgumentException("limit must be > 0!");
+        if(prefix == null)
+            return new Food[0];
+        if(search != null)
+            return search.findByPrefix(prefix, limit);
+
+        // Otherwise keep the first item with each matching name & sort the names
+        String key = FoodNameIndex.fold(prefix);
+        HashMap<String, FoodNameSearch.Match> found = new HashMap<String, FoodNameSearch.Match>();
         for(Food f : this) {
-            if(f.getName().equalsIgnoreCase(name)) {
-                return f;
+            if(f.getName() != null) {
+                String folded = FoodNameIndex.fold(f.getName());
+                if(folded.startsWith(key))
+                    found.putIfAbsent(folded, new FoodNameSearch.Match(folded, f, 0));
             }
         }
+        return FoodNameSearch.best(new ArrayList<FoodNameSearch.Match>(found.values()), limit);
+    }
+
+    /**
+     * Finds the items whose names are within <code>maxDistance</code> single-character insertions, deletions, substitutions or swaps of
+     * neighbouring characters of <code>name</code>, ignoring case, e.g. to suggest what a name that wasn't found was meant to be. Only the first
+     * item with each name is returned. If the list has a name search index, only names sharing enough trigrams with <code>name</code> are
+     * checked, otherwise every name is.
+     * @param name the name to match
+     * @param maxDistance the most edits allowed
+     * @param limit the most items to return
+     * @return the first item with each matching name, closest first, then in alphabetical order of name, empty if <code>name</code> is
+     * <code>null</code>
+     */
+    public Food[] findSimilar(String name, int maxDistance, int limit) {
+        if(maxDistance < 0)
+            throw new IllegalArgumentException("maxDistance must be >= 0!");
+        if(limit <= 0)
+            throw new IllegalArgumentException("limit must be > 0!");
+        if(name == null)
+            return new Food[0];
+        if(search != null)
+            return search.findSimilar(name, maxDistance, limit);
 
-        return null;
+        // Otherwise check every distinct name
+        String key = FoodNameIndex.fold(name);
+        HashMap<String, FoodNameSearch.Match> found = new HashMap<String, FoodNameSearch.Match>();
+        for(Food f : this) {
+            if(f.getName() != null) {
+                String folded = FoodNameIndex.fold(f.getName());
+                if(!found.containsKey(folded)) {
+                    int distance = FoodNameSearch.distance(key, folded, maxDistance);
+                    if(distance <= maxDistance)
+                        found.put(folded, new FoodNameSearch.Match(folded, f, distance));
+                }
+            }
+        }
+        return FoodNameSearch.best(new ArrayList<FoodNameSearch.Match>(found.values()), limit);
     }
 
     /**
@@ -227,6 +1233,7 @@ public class FoodList implements Iterable<Food> {
     public Iterator<Food> iterator() {
         return new Iterator<Food>() {
             private FoodListNode current = start;
+            private int index = 0;
 
             @Override
             public boolean hasNext() {
@@ -235,10 +1242,70 @@ public class FoodList implements Iterable<Food> {
 
             @Override
             public Food next() {
-                Food f = current.element;
-                current = current.next;
+                // Step over any holes
+                Food f = current.elements[index++];
+                while(f == null)
+                    f = current.elements[index++];
+                if(index == current.used) {
+                    current = current.next;
+                    index = 0;
+                }
                 return f;
             }
         };
     }
+
+    /**
+     * Cursor for paging through the list from any position. Jumps to the position in O(1) (O(n) the first time after items have been removed)
+     * &amp; then reads the items as they were when the cursor was made, so adding or removing items afterwards doesn't disturb it.
+     * @param from position of the first item to return, from 0
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that starts at <code>from</code>.
+     */
+    public Iterator<Food> iterator(int from) {
+        if(from < 0 || from > size)
+            throw new IndexOutOfBoundsException("position " + from + " is outside a list of " + size + " items!");
+        Food[] items = positions();
+        int length = size;
+
+        return new Iterator<Food>() {
+            private int position = from;
+
+            @Override
+            public boolean hasNext() {
+                return position < length;
+            }
+
+            @Override
+            public Food next() {
+                if(position >= length)
+                    throw new NoSuchElementException();
+                return items[position++];
+            }
+        };
+    }
+
+    /**
+     * Splits &amp; traverses the list by position rather than by following links, so it knows its exact size &amp; splits into halves of it in O(1)
+     * (O(n) the first time after items have been removed), which lets parallel streams spread the list evenly over all cores. Like
+     * <code>iterator(int)</code>, it covers the items as they were when it was made.
+     * @return a new <code>SIZED</code>, <code>SUBSIZED</code> &amp; <code>ORDERED</code> <code>Spliterator</code> over the list
+     */
+    @Override
+    public Spliterator<Food> spliterator() {
+        return Spliterators.spliterator(positions(), 0, size, Spliterator.ORDERED | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * @return a sequential <code>Stream</code> of the items in order
+     */
+    public Stream<Food> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel <code>Stream</code> of the items, split evenly by position
+     */
+    public Stream<Food> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
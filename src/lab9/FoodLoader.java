@@ -0,0 +1,710 @@
+package lab9;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads <code>Food</code> items from a text file in the format accepted by <code>Food.fromTextLine</code>, one per line. The file is memory-mapped
+ * &amp; each row is parsed straight from its bytes, so the only allocations per row are the resulting <code>Food</code> &amp; its name (food group
+ * names repeat, so they are shared). Callers that keep their own storage can take the raw fields through a <code>RowHandler</code> instead &amp;
+ * allocate nothing at all.
+ * Produces the same items &amp; throws the same <code>InputMismatchException</code>s as reading the file line by line with a <code>Scanner</code>
+ * &amp; passing each line to <code>fromTextLine</code>. Given a <code>FoodParseReport</code>, it skips malformed rows instead &amp; records them
+ * there, throwing only once they run over its budget. Column widths are tracked per loader &amp; merged into <code>Food.columnWidths</code> by
+ * the <code>load</code> methods.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodLoader {
+    /**
+     * Receives the fields of each row as it is parsed. The name &amp; food group are passed as ranges of <code>data</code>, which is only valid
+     * for the duration of the call.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    public interface RowHandler {
+        /**
+         * Called once per row, in file order.
+         * @param data the bytes of the file around this row
+         * @param nameOffset index in <code>data</code> of the first byte of the name
+         * @param nameLength length in bytes of the UTF-8 name
+         * @param groupOffset index in <code>data</code> of the first byte of the food group
+         * @param groupLength length in bytes of the UTF-8 food group
+         * @param kcal the Calorie value as parsed
+         * @param daily the daily percentage as parsed
+         */
+        void row(ByteBuffer data, int nameOffset, int nameLength, int groupOffset, int groupLength, int kcal, double daily);
+    }
+
+    /**
+     * Parses one range of a file into its own <code>FoodList</code>, splitting it in half on a line boundary &amp; forking while it is bigger than
+     * <code>chunkSize</code>. The halves are spliced back together in file order.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    protected static class ChunkTask extends RecursiveTask<FoodList> {
+        /**
+         * Version of this class's serialized form. Tasks are never serialized, but <code>ForkJoinTask</code> is <code>Serializable</code>.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The file being loaded.
+         */
+        private final transient FileChannel channel;
+
+        /**
+         * Byte offset of the first row in this range.
+         */
+        private final long start;
+
+        /**
+         * Byte offset just past the last row in this range.
+         */
+        private final long end;
+
+        /**
+         * Largest range parsed without splitting.
+         */
+        private final long chunkSize;
+
+        /**
+         * Report whose capacity &amp; budget each range's own report copies, or <code>null</code> to throw for the first malformed row.
+         */
+        private final transient FoodParseReport template;
+
+        /**
+         * Malformed rows in this range once computed, numbered from its first line, or <code>null</code> if throwing for them.
+         */
+        private transient FoodParseReport report;
+
+        /**
+         * Number of lines in this range once computed.
+         */
+        private long lines;
+
+        /**
+         * Constructor.
+         * @param channel the file being loaded
+         * @param start byte offset of the first row
+         * @param end byte offset just past the last row
+         * @param chunkSize largest range parsed without splitting
+         * @param template report whose capacity &amp; budget to copy, or <code>null</code> to throw for the first malformed row
+         */
+        protected ChunkTask(FileChannel channel, long start, long end, long chunkSize, FoodParseReport template) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+            this.template = template;
+        }
+
+        @Override
+        protected FoodList compute() {
+            try {
+                // Split in two if there's a line boundary past the middle
+                if(end - start > chunkSize) {
+                    long middle = nextLine(channel, start + (end - start) / 2, end);
+                    if(middle < end) {
+                        ChunkTask right = new ChunkTask(channel, middle, end, chunkSize, template);
+                        right.fork();
+
+                        // An error on the left is earlier in the file, so it wins over one on the right
+                        ChunkTask left = new ChunkTask(channel, start, middle, chunkSize, template);
+                        FoodList foods = left.compute();
+                        foods.append(right.join());
+
+                        // Renumber the right's malformed rows to follow the left's lines
+                        report = left.report;
+                        if(report != null)
+                            report.append(right.report, left.lines);
+                        lines = left.lines + right.lines;
+                        return foods;
+                    }
+                }
+
+                // Small enough: parse it with a loader of our own & fold its widths in when done
+                FoodList foods = new FoodList();
+                FoodLoader loader = new FoodLoader(template == null ? null : new FoodParseReport(template.getCapacity(), template.getBudget()));
+                try {
+                    loader.read(channel, start, end, (data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily) ->
+                            foods.add(loader.food(data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily)));
+                } finally {
+                    Food.widenColumns(loader.columnWidths);
+                }
+                report = loader.report;
+                lines = loader.line;
+                return foods;
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Smallest range of a file a parallel load hands to a single task.
+     */
+    static final long MIN_CHUNK = 1 << 20;
+
+    /**
+     * Largest number of bytes mapped at once. Files bigger than this are read in consecutive windows that start on a line boundary.
+     */
+    static final int WINDOW = 1 << 30;
+
+    /**
+     * Powers of ten that are exact as <code>double</code>s, for the fast path of <code>parseDaily</code>.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Number of slots in the food group cache. Must be a power of 2.
+     */
+    private static final int GROUP_CACHE_SIZE = 64;
+
+    /**
+     * Widths of the display columns of every row read so far, in the same order as <code>Food.columnWidths</code>.
+     */
+    protected final int[] columnWidths = new int[4];
+
+    /**
+     * Where malformed rows are recorded, or <code>null</code> to throw for the first one.
+     */
+    protected final FoodParseReport report;
+
+    /**
+     * Number of lines parsed so far, i.e. the line number of the row being parsed.
+     */
+    protected long line;
+
+    /**
+     * Kilocalories of the row being parsed.
+     */
+    private int kcal;
+
+    /**
+     * Daily percentage of the row being parsed.
+     */
+    private double daily;
+
+    /**
+     * Reusable buffer for copying text out of the mapped file.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * UTF-8 bytes of the cached food group names.
+     */
+    private final byte[][] groupKeys = new byte[GROUP_CACHE_SIZE][];
+
+    /**
+     * Cached food group names, in the same slots as <code>groupKeys</code>.
+     */
+    private final String[] groupNames = new String[GROUP_CACHE_SIZE];
+
+    /**
+     * Constructor, for a loader that throws an <code>InputMismatchException</code> for the first malformed row.
+     */
+    public FoodLoader() {
+        this(null);
+    }
+
+    /**
+     * Constructor.
+     * @param report where to record malformed rows, which are then skipped, or <code>null</code> to throw for the first one
+     */
+    public FoodLoader(FoodParseReport report) {
+        this.report = report;
+    }
+
+    /**
+     * Loads every <code>Food</code> in a file into a new list &amp; widens <code>Food.columnWidths</code> to fit them.
+     * Throws an <code>InputMismatchException</code> for the first malformed row, same as <code>Food.fromTextLine</code>.
+     * @param path the file to read
+     * @return a list of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodList load(Path path) throws IOException {
+        return load(path, (FoodParseReport) null);
+    }
+
+    /**
+     * Loads every well-formed <code>Food</code> in a file into a new list &amp; widens <code>Food.columnWidths</code> to fit them. Malformed rows
+     * are skipped &amp; recorded in <code>report</code>, which throws an <code>InputMismatchException</code> once they run over its budget.
+     * @param path the file to read
+     * @param report where to record malformed rows, or <code>null</code> to throw for the first one
+     * @return a list of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodList load(Path path, FoodParseReport report) throws IOException {
+        FoodList foods = new FoodList();
+        FoodLoader loader = new FoodLoader(report);
+        loader.load(path, (data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily) ->
+                foods.add(loader.food(data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily)));
+        return foods;
+    }
+
+    /**
+     * Loads every <code>Food</code> in a file into a new list using the common fork/join pool. See <code>loadParallel(Path, ForkJoinPool)</code>.
+     * @param path the file to read
+     * @return a list of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodList loadParallel(Path path) throws IOException {
+        return loadParallel(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads every <code>Food</code> in a file into a new list, splitting the file on line boundaries &amp; parsing the pieces on
+     * <code>pool</code>. Each piece builds its own list &amp; column widths, which are then spliced &amp; merged in file order, so the result is
+     * the same as <code>load(Path)</code>. If several rows are malformed, the <code>InputMismatchException</code> thrown is for the first one in
+     * the file, though rows after it may already have widened <code>Food.columnWidths</code>.
+     * @param path the file to read
+     * @param pool the pool to parse on
+     * @return a list of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodList loadParallel(Path path, ForkJoinPool pool) throws IOException {
+        return loadParallel(path, pool, null);
+    }
+
+    /**
+     * Loads every well-formed <code>Food</code> in a file into a new list like <code>loadParallel(Path, ForkJoinPool)</code>, skipping malformed
+     * rows like <code>load(Path, FoodParseReport)</code>. Each piece keeps its own report, numbered from its first line, &amp; they are merged in
+     * file order, so <code>report</code> ends up the same as after a sequential load. A piece gives up as soon as it alone runs over the budget.
+     * @param path the file to read
+     * @param pool the pool to parse on
+     * @param report where to record malformed rows, or <code>null</code> to throw for the first one
+     * @return a list of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodList loadParallel(Path path, ForkJoinPool pool, FoodParseReport report) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK, size / (pool.getParallelism() * 4L));
+            ChunkTask task = new ChunkTask(channel, 0, size, chunkSize, report);
+            FoodList foods = pool.invoke(task);
+            if(report != null)
+                report.append(task.report, 0);
+            return foods;
+        } catch(RuntimeException e) {
+            // Fork/join may rethrow a copy of an exception from another worker, with the original as its cause
+            RuntimeException original = e;
+            if(e.getCause() != null && e.getCause().getClass() == e.getClass())
+                original = (RuntimeException) e.getCause();
+            if(original instanceof UncheckedIOException)
+                throw ((UncheckedIOException) original).getCause();
+            throw original;
+        }
+    }
+
+    /**
+     * Finds the start of the first line at or after a byte offset, i.e. the position just past the next \n. Any line terminator Scanner
+     * accepts would do, but \n always ends a line by itself, even as part of \r\n.
+     * @param channel the file to search
+     * @param from byte offset to start looking at
+     * @param end byte offset to give up at
+     * @return the offset just past the next \n, or <code>end</code> if there isn't one before it
+     * @throws IOException if the file can't be read
+     */
+    static long nextLine(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while(position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0)
+                break;
+            for(int i = 0; i < read && position + i < end; i++) {
+                if(buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * Parses every row in a file into <code>handler</code> &amp; widens <code>Food.columnWidths</code> to fit them, including when a malformed row
+     * stops the load part way through.
+     * @param path the file to read
+     * @param handler receives each row
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public void load(Path path, RowHandler handler) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), handler);
+        } finally {
+            Food.widenColumns(columnWidths);
+        }
+    }
+
+    /**
+     * Parses the rows in a range of a file into <code>handler</code>. <code>start</code> must be the beginning of a line &amp; <code>end</code>
+     * the end of the file or just past a line terminator. Does not touch <code>Food.columnWidths</code>.
+     * @param channel the file to read
+     * @param start byte offset of the first row
+     * @param end byte offset to stop at
+     * @param handler receives each row
+     * @throws IOException if the range can't be mapped or holds a line longer than <code>WINDOW</code>
+     */
+    public void read(FileChannel channel, long start, long end, RowHandler handler) throws IOException {
+        long position = start;
+        boolean endOfFile = end >= channel.size();
+        while(position < end) {
+            int length = (int) Math.min(end - position, WINDOW);
+            boolean last = position + length == end;
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            // Anything not consumed is an unfinished line at the end of the window, so map again starting from it
+            int consumed = readWindow(data, length, last, last && endOfFile, handler);
+            if(consumed == 0 && !last)
+                throw new IOException("Line at byte " + position + " is longer than " + WINDOW + " bytes!");
+            position += consumed;
+        }
+    }
+
+    /**
+     * Builds a <code>Food</code> from the fields passed to a <code>RowHandler</code>.
+     * @param data the bytes of the file around this row
+     * @param nameOffset index in <code>data</code> of the first byte of the name
+     * @param nameLength length in bytes of the name
+     * @param groupOffset index in <code>data</code> of the first byte of the food group
+     * @param groupLength length in bytes of the food group
+     * @param kcal the Calorie value
+     * @param daily the daily percentage
+     * @return a new <code>Food</code> with a shared food group <code>String</code>
+     */
+    public Food food(ByteBuffer data, int nameOffset, int nameLength, int groupOffset, int groupLength, int kcal, double daily) {
+        return new Food(text(data, nameOffset, nameLength), group(data, groupOffset, groupLength), kcal, daily);
+    }
+
+    /**
+     * Getter for <code>columnWidths</code>
+     * @return the widths of the display columns of every row read so far
+     */
+    public int[] getColumnWidths() {
+        return columnWidths;
+    }
+
+    /**
+     * Parses the complete lines in one mapped window.
+     * @param data the window
+     * @param limit number of bytes in the window
+     * @param last whether the window runs to the end of the range, in which case a final line without a terminator is complete
+     * @param endOfFile whether the window runs to the end of the file, in which case trailing whitespace is ignored
+     * @param handler receives each row
+     * @return the number of bytes consumed, up to the start of the first unfinished line
+     */
+    private int readWindow(ByteBuffer data, int limit, boolean last, boolean endOfFile, RowHandler handler) {
+        int pos = 0;
+        while(pos < limit) {
+            // Stop once only whitespace remains in the file, like Scanner.hasNext()
+            int next = pos;
+            while(next < limit && isWhitespace(data.get(next)))
+                next++;
+            if(next == limit && endOfFile)
+                return limit;
+            if(next == limit && !last)
+                return pos;
+
+            // Find the end of the line
+            int eol = pos, terminator = 0;
+            while(eol < limit) {
+                terminator = terminatorLength(data, eol, limit, last);
+                if(terminator != 0)
+                    break;
+                eol++;
+            }
+            if(terminator < 0 || (eol == limit && !last))
+                return pos;
+
+            line++;
+            parseLine(data, pos, eol, handler);
+            pos = eol + terminator;
+        }
+        return pos;
+    }
+
+    /**
+     * Parses a single line &amp; passes it to <code>handler</code>, or rejects it if it is malformed.
+     * @param data the window holding the line
+     * @param start index of the first byte of the line
+     * @param end index just past the last byte of the line, terminator excluded
+     * @param handler receives the row
+     */
+    private void parseLine(ByteBuffer data, int start, int end, RowHandler handler) {
+        // String.split drops trailing empty values, so trailing spaces don't count as separators
+        while(end > start && data.get(end - 1) == ' ')
+            end--;
+
+        // Find the 3 separators, making sure there isn't a 4th
+        int first = -1, second = -1, third = -1;
+        for(int i = start; i < end; i++) {
+            if(data.get(i) == ' ') {
+                if(third >= 0) {
+                    reject(FoodParseReport.Reason.FIELD_COUNT);
+                    return;
+                }
+                if(first < 0) first = i;
+                else if(second < 0) second = i;
+                else third = i;
+            }
+        }
+        if(third < 0) {
+            reject(FoodParseReport.Reason.FIELD_COUNT);
+            return;
+        }
+
+        // Decode the numbers
+        if(!parseCals(data, second + 1, third) || !parseDaily(data, third + 1, end)) {
+            reject(FoodParseReport.Reason.NUMBER_FORMAT);
+            return;
+        }
+
+        // Keep the column widths up-to-date
+        int nameWidth = charCount(data, start, first);
+        int groupWidth = charCount(data, first + 1, second);
+        int calsWidth = Food.calsWidth(kcal);
+        int percentWidth = Food.percentWidth(daily);
+        if(nameWidth > columnWidths[0]) columnWidths[0] = nameWidth;
+        if(groupWidth > columnWidths[1]) columnWidths[1] = groupWidth;
+        if(calsWidth > columnWidths[2]) columnWidths[2] = calsWidth;
+        if(percentWidth > columnWidths[3]) columnWidths[3] = percentWidth;
+
+        handler.row(data, start, first - start, first + 1, second - first - 1, kcal, daily);
+    }
+
+    /**
+     * Records the row being parsed as malformed, or throws for it if there's no report.
+     * @param reason why it is malformed
+     */
+    private void reject(FoodParseReport.Reason reason) {
+        if(report == null)
+            throw reason.exception();
+        report.reject(line, reason);
+    }
+
+    /**
+     * Parses a Calorie value into <code>kcal</code>. Plain ASCII integers are decoded directly &amp; other ASCII text is turned away, anything
+     * else (more than 9 digits, or non-ASCII text that may be another script's digits) goes through <code>Food.parseCals</code>, which
+     * accepts exactly what <code>Integer.parseInt</code> does.
+     * @param data the window holding the value
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @return whether the value was valid
+     */
+    private boolean parseCals(ByteBuffer data, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if(i < end && (data.get(i) == '-' || data.get(i) == '+'))
+            negative = data.get(i++) == '-';
+
+        if(i == end)
+            return false;
+        int value = 0;
+        for(int j = i; j < end; j++) {
+            byte b = data.get(j);
+            if(b < '0' || b > '9')
+                return b < 0 && parseCalsSlowly(data, start, end);
+            value = value * 10 + (b - '0');
+        }
+
+        // 9 digits can't overflow
+        if(end - i > 9)
+            return parseCalsSlowly(data, start, end);
+
+        kcal = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * Fallback for <code>parseCals</code>, through <code>Food.parseCals</code>.
+     * @param data the window holding the value
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @return whether the value was valid
+     */
+    private boolean parseCalsSlowly(ByteBuffer data, int start, int end) {
+        long value = Food.parseCals(text(data, start, end - start));
+        if(value == Food.NOT_AN_INT)
+            return false;
+        kcal = (int) value;
+        return true;
+    }
+
+    /**
+     * Parses a daily percentage into <code>daily</code>. Plain decimals with up to 15 digits are decoded directly: the digits form an exact
+     * <code>long</code> &amp; dividing by an exact power of ten rounds correctly, so the result matches <code>Double.parseDouble</code>.
+     * Anything else goes through <code>Double.parseDouble</code>.
+     * @param data the window holding the value
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @return whether the value was valid
+     */
+    private boolean parseDaily(ByteBuffer data, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if(i < end && (data.get(i) == '-' || data.get(i) == '+'))
+            negative = data.get(i++) == '-';
+
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean point = false;
+        for(; i < end; i++) {
+            byte b = data.get(i);
+            if(b >= '0' && b <= '9') {
+                if(++digits > 15)
+                    return parseDailySlowly(data, start, end);
+                mantissa = mantissa * 10 + (b - '0');
+                if(point)
+                    fraction++;
+            } else if(b == '.' && !point) {
+                point = true;
+            } else {
+                return parseDailySlowly(data, start, end);
+            }
+        }
+        if(digits == 0)
+            return parseDailySlowly(data, start, end);
+
+        double value = mantissa / POWERS_OF_TEN[fraction];
+        daily = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * Fallback for <code>parseDaily</code>. Text <code>Food.mayBeDouble</code> rules out is turned away without parsing.
+     * @param data the window holding the value
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @return whether the value was valid
+     */
+    private boolean parseDailySlowly(ByteBuffer data, int start, int end) {
+        String value = text(data, start, end - start);
+        if(!Food.mayBeDouble(value))
+            return false;
+        try {
+            daily = Double.parseDouble(value);
+            return true;
+        } catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes UTF-8 text from the window.
+     * @param data the window holding the text
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the decoded <code>String</code>
+     */
+    protected String text(ByteBuffer data, int offset, int length) {
+        if(scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        data.get(offset, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a food group name from the window, reusing the <code>String</code> from an earlier row with the same bytes when there is one.
+     * @param data the window holding the name
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the food group name
+     */
+    protected String group(ByteBuffer data, int offset, int length) {
+        // Hash the bytes to pick a slot
+        int hash = 1;
+        for(int i = offset; i < offset + length; i++)
+            hash = 31 * hash + data.get(i);
+        int slot = (hash ^ (hash >>> 16)) & (GROUP_CACHE_SIZE - 1);
+
+        // Reuse the cached name if the bytes match
+        byte[] key = groupKeys[slot];
+        if(key != null && key.length == length) {
+            int i = 0;
+            while(i < length && key[i] == data.get(offset + i))
+                i++;
+            if(i == length)
+                return groupNames[slot];
+        }
+
+        // Otherwise decode it & take over the slot
+        key = new byte[length];
+        data.get(offset, key, 0, length);
+        groupKeys[slot] = key;
+        groupNames[slot] = new String(key, StandardCharsets.UTF_8);
+        return groupNames[slot];
+    }
+
+    /**
+     * Counts the <code>char</code>s the UTF-8 text in a range decodes to, i.e. the <code>length()</code> of the <code>String</code>.
+     * @param data the window holding the text
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @return the number of UTF-16 code units
+     */
+    static int charCount(ByteBuffer data, int start, int end) {
+        int count = 0;
+        for(int i = start; i < end; i++) {
+            int b = data.get(i) & 0xFF;
+
+            // Continuation bytes don't start a character, 4-byte sequences become a surrogate pair
+            if((b & 0xC0) != 0x80)
+                count++;
+            if((b & 0xF8) == 0xF0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks for a line terminator recognized by <code>Scanner.nextLine()</code>: \n, \r\n, \r, U+0085, U+2028 or U+2029.
+     * @param data the window
+     * @param i index to check
+     * @param limit number of bytes in the window
+     * @param last whether the window runs to the end of the range
+     * @return the length in bytes of the terminator at <code>i</code>, 0 if there isn't one, or -1 if the window ends before it can be told
+     */
+    static int terminatorLength(ByteBuffer data, int i, int limit, boolean last) {
+        byte b = data.get(i);
+        if(b == '\n')
+            return 1;
+        if(b == '\r') {
+            if(i + 1 < limit)
+                return data.get(i + 1) == '\n' ? 2 : 1;
+            return last ? 1 : -1;
+        }
+        if(b == (byte) 0xC2 || b == (byte) 0xE2) {
+            int length = b == (byte) 0xC2 ? 2 : 3;
+            if(i + length > limit)
+                return last ? 0 : -1;
+            if(length == 2)
+                return data.get(i + 1) == (byte) 0x85 ? 2 : 0;
+            return data.get(i + 1) == (byte) 0x80 && (data.get(i + 2) == (byte) 0xA8 || data.get(i + 2) == (byte) 0xA9) ? 3 : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * @param b a byte of the file
+     * @return whether <code>b</code> is an ASCII whitespace character by <code>Character.isWhitespace</code>
+     */
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+    }
+}
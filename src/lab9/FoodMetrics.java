@@ -0,0 +1,368 @@
+package lab9;
+
+import java.lang.management.ManagementFactory;
+import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters &amp; latency histograms for the operations on a food list, plus how the last load went. Turned on by starting the JVM with
+ * <code>-Dlab9.metrics=true</code>; when off, <code>ENABLED</code> is a constant <code>false</code>, so the JIT drops every timing call &amp; the
+ * hot paths cost what they did before. When on, recording never locks: counts &amp; histogram buckets are <code>LongAdder</code>s, which stripe
+ * across threads, &amp; each latency lands in one of 64 fixed power-of-2 nanosecond buckets, so percentiles are accurate to within a factor
+ * of 2.
+ * <p>
+ * Read through <code>summary</code>, the <code>Driver</code> menu, or JMX under <code>lab9:type=FoodMetrics</code> once <code>register</code>
+ * has been called.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodMetrics {
+    /**
+     * Operations that are timed.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    public enum Operation {
+        FIND_BY_NAME("findByName"),
+        RANDOM_MEAL("randomMeal"),
+        REMOVE_HIGH_CAL_FOODS("removeHighCalFoods"),
+        LIST("list");
+
+        /**
+         * Name shown in reports.
+         */
+        private final String label;
+
+        /**
+         * Constructor.
+         * @param label name shown in reports
+         */
+        Operation(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the name shown in reports
+         */
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Latencies of one operation, bucketed by power of 2.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class Histogram {
+        /**
+         * Bucket i counts latencies of [2^(i-1), 2^i) ns, bucket 0 those of 0 ns.
+         */
+        final LongAdder[] buckets = new LongAdder[64];
+
+        /**
+         * Number of latencies recorded.
+         */
+        final LongAdder count = new LongAdder();
+
+        /**
+         * Sum of the latencies recorded, in ns.
+         */
+        final LongAdder total = new LongAdder();
+
+        /**
+         * Longest latency recorded, in ns.
+         */
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Constructor. Makes an empty histogram.
+         */
+        Histogram() {
+            for(int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Records one latency.
+         * @param nanos the latency in ns
+         */
+        void record(long nanos) {
+            if(nanos < 0)
+                nanos = 0;
+            buckets[Math.min(buckets.length - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        /**
+         * @return the mean latency in ns, or 0 if none were recorded
+         */
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        /**
+         * Estimates a percentile as the upper end of the bucket it falls in, capped at the longest latency.
+         * @param fraction the percentile as a fraction, e.g. 0.99
+         * @return the latency in ns, or 0 if none were recorded
+         */
+        double percentile(double fraction) {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for(int i = 0; i < buckets.length; i++)
+                n += counts[i] = buckets[i].sum();
+            if(n == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(fraction * n), seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank)
+                    return Math.min(i == 0 ? 0 : Math.scalb(1.0, i), max.get());
+            }
+            return max.get();
+        }
+
+        /**
+         * Forgets every latency recorded.
+         */
+        void reset() {
+            for(LongAdder bucket : buckets)
+                bucket.reset();
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * Exposes the metrics over JMX.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Bean implements FoodMetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        @Override
+        public long getLoadMillis() {
+            return loadNanos / 1_000_000;
+        }
+
+        @Override
+        public long getRowsLoaded() {
+            return rowsLoaded;
+        }
+
+        @Override
+        public double getRowsPerSecond() {
+            return FoodMetrics.getRowsPerSecond();
+        }
+
+        @Override
+        public long getParseFailures() {
+            return parseFailures.sum();
+        }
+
+        @Override
+        public Map<String, Long> getOperationCounts() {
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            for(Operation op : Operation.values())
+                counts.put(op.toString(), histograms[op.ordinal()].count.sum());
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getMeanMicros() {
+            return micros(Histogram::mean);
+        }
+
+        @Override
+        public Map<String, Double> getP50Micros() {
+            return micros(h -> h.percentile(0.5));
+        }
+
+        @Override
+        public Map<String, Double> getP99Micros() {
+            return micros(h -> h.percentile(0.99));
+        }
+
+        @Override
+        public Map<String, Double> getMaxMicros() {
+            return micros(h -> h.max.get());
+        }
+
+        @Override
+        public void reset() {
+            FoodMetrics.reset();
+        }
+
+        /**
+         * @param stat a statistic of a histogram, in ns
+         * @return the statistic for each operation, in µs
+         */
+        private static Map<String, Double> micros(ToDoubleFunction<Histogram> stat) {
+            Map<String, Double> values = new LinkedHashMap<String, Double>();
+            for(Operation op : Operation.values())
+                values.put(op.toString(), stat.applyAsDouble(histograms[op.ordinal()]) / 1000);
+            return values;
+        }
+    }
+
+    /**
+     * Whether metrics are recorded, from the <code>lab9.metrics</code> system property.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("lab9.metrics");
+
+    /**
+     * Name the metrics are registered under with JMX.
+     */
+    public static final String OBJECT_NAME = "lab9:type=FoodMetrics";
+
+    /**
+     * One histogram per operation, by ordinal.
+     */
+    static final Histogram[] histograms = new Histogram[Operation.values().length];
+
+    static {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+    }
+
+    /**
+     * Number of rows that failed to parse.
+     */
+    static final LongAdder parseFailures = new LongAdder();
+
+    /**
+     * Time the last load took, in ns.
+     */
+    private static volatile long loadNanos;
+
+    /**
+     * Number of rows in the last load.
+     */
+    private static volatile long rowsLoaded;
+
+    /**
+     * Private constructor, everything is static.
+     */
+    private FoodMetrics() {
+    }
+
+    /**
+     * Starts timing an operation.
+     * @return the start time to pass to <code>stop</code>, or 0 if metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stops timing an operation &amp; records how long it took. Does nothing if metrics are off.
+     * @param op the operation
+     * @param start what <code>start</code> returned
+     */
+    public static void stop(Operation op, long start) {
+        if(ENABLED)
+            histograms[op.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Counts a row that failed to parse, if metrics are on. Returns its exception so the parser can count &amp; throw in one statement.
+     * @param e the exception describing the failure
+     * @return <code>e</code>
+     */
+    public static InputMismatchException parseFailed(InputMismatchException e) {
+        parseFailed();
+        return e;
+    }
+
+    /**
+     * Counts a row that failed to parse, if metrics are on. Used when the row is skipped rather than thrown for, see <code>FoodParseReport</code>.
+     */
+    public static void parseFailed() {
+        if(ENABLED)
+            parseFailures.increment();
+    }
+
+    /**
+     * Records how a load went. Does nothing if metrics are off.
+     * @param nanos how long it took, in ns
+     * @param rows the number of rows loaded
+     */
+    public static void loaded(long nanos, long rows) {
+        if(ENABLED) {
+            loadNanos = nanos;
+            rowsLoaded = rows;
+        }
+    }
+
+    /**
+     * @return the rows loaded per second by the last load, or 0 if nothing was loaded
+     */
+    public static double getRowsPerSecond() {
+        long nanos = loadNanos;
+        return nanos == 0 ? 0 : rowsLoaded * 1e9 / nanos;
+    }
+
+    /**
+     * Forgets every operation &amp; parse failure recorded. Keeps the last load.
+     */
+    public static void reset() {
+        for(Histogram h : histograms)
+            h.reset();
+        parseFailures.reset();
+    }
+
+    /**
+     * Makes the metrics readable over JMX, if they are on &amp; not already registered.
+     * @return whether the metrics are registered
+     */
+    public static boolean register() {
+        if(!ENABLED)
+            return false;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(!server.isRegistered(name))
+                server.registerMBean(new Bean(), name);
+            return true;
+        } catch(JMException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a table of the last load, parse failures &amp; each operation's count &amp; latencies in µs, one line per operation
+     */
+    public static String summary() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("Last load: %,d rows in %,d ms (%,.0f rows/s), %,d parse failures%n", rowsLoaded, loadNanos / 1_000_000,
+                getRowsPerSecond(), parseFailures.sum()));
+        s.append(String.format("%-20s %12s %12s %12s %12s %12s%n", "Operation", "Count", "Mean us", "p50 us", "p99 us", "Max us"));
+        for(Operation op : Operation.values()) {
+            Histogram h = histograms[op.ordinal()];
+            s.append(String.format("%-20s %,12d %,12.1f %,12.1f %,12.1f %,12.1f%n", op, h.count.sum(), h.mean() / 1000,
+                    h.percentile(0.5) / 1000, h.percentile(0.99) / 1000, h.max.get() / 1000.0));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package lab9;
+
+import java.util.Map;
+
+/**
+ * JMX view of <code>FoodMetrics</code>, registered as <code>lab9:type=FoodMetrics</code>. Latencies are per operation, keyed by the
+ * operation's name, in µs.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public interface FoodMetricsMXBean {
+    /**
+     * @return whether metrics are being recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * @return how long the last load took, in ms
+     */
+    long getLoadMillis();
+
+    /**
+     * @return the number of rows in the last load
+     */
+    long getRowsLoaded();
+
+    /**
+     * @return the rows loaded per second by the last load
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return the number of rows that failed to parse
+     */
+    long getParseFailures();
+
+    /**
+     * @return the number of times each operation ran
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * @return the mean latency of each operation
+     */
+    Map<String, Double> getMeanMicros();
+
+    /**
+     * @return the median latency of each operation, to within a factor of 2
+     */
+    Map<String, Double> getP50Micros();
+
+    /**
+     * @return the 99th percentile latency of each operation, to within a factor of 2
+     */
+    Map<String, Double> getP99Micros();
+
+    /**
+     * @return the longest latency of each operation
+     */
+    Map<String, Double> getMaxMicros();
+
+    /**
+     * Forgets every operation &amp; parse failure recorded.
+     */
+    void reset();
+}
@@ -0,0 +1,282 @@
+package lab9;
+
+import java.util.Arrays;
+
+/**
+ * Case-insensitive hash index from <code>Food</code> names to the <code>Food</code>s that have them, used by <code>FoodList</code> to make
+ * <code>findByName</code> O(1). Names are case-folded the same way <code>String.equalsIgnoreCase</code> compares them, so a lookup finds exactly
+ * what a scan would. Implemented as an open-addressing table with linear probing &amp; backward-shift deletion, so removals leave no tombstones.
+ * When several <code>Food</code>s share a name they are kept in the order they were added &amp; lookups return the first, matching a scan from
+ * the start of the list. <code>Food</code>s with a <code>null</code> name are never indexed.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class FoodNameIndex {
+    /**
+     * <code>Food</code>s sharing a single folded name, in the order they were added.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Duplicates {
+        /**
+         * The <code>Food</code>s, valid up to <code>count</code>.
+         */
+        Food[] items = new Food[4];
+
+        /**
+         * Number of <code>Food</code>s stored.
+         */
+        int count;
+    }
+
+    /**
+     * Smallest table size. Must be a power of 2.
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Folded names, <code>null</code> for empty slots.
+     */
+    private String[] keys;
+
+    /**
+     * Cached hashes of <code>keys</code>, so growing &amp; deleting don't have to rehash them.
+     */
+    private int[] hashes;
+
+    /**
+     * A <code>Food</code>, or <code>Duplicates</code> when more than one has the name in the same slot of <code>keys</code>.
+     */
+    private Object[] values;
+
+    /**
+     * Number of distinct names stored.
+     */
+    private int count;
+
+    /**
+     * Constructor.
+     * @param expected number of names expected, so the table can be sized up front
+     */
+    FoodNameIndex(int expected) {
+        int capacity = MIN_CAPACITY;
+        while(capacity * 3 / 4 < expected)
+            capacity <<= 1;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Finds the first <code>Food</code> added with a name equal to <code>name</code>, ignoring case. Doesn't allocate.
+     * @param name the name to look up
+     * @return the <code>Food</code>, or <code>null</code> if there isn't one
+     */
+    Food find(String name) {
+        if(name == null)
+            return null;
+
+        int slot = slotOf(name, hash(name));
+        if(slot < 0)
+            return null;
+        Object value = values[slot];
+        return value instanceof Duplicates ? ((Duplicates) value).items[0] : (Food) value;
+    }
+
+    /**
+     * Indexes a <code>Food</code> after any others with the same name.
+     * @param f the <code>Food</code> to add
+     */
+    void add(Food f) {
+        String name = f.getName();
+        if(name == null)
+            return;
+
+        // Case: name already present, append to its duplicates
+        int hash = hash(name);
+        int slot = slotOf(name, hash);
+        if(slot >= 0) {
+            Object value = values[slot];
+            Duplicates duplicates;
+            if(value instanceof Duplicates) {
+                duplicates = (Duplicates) value;
+            } else {
+                duplicates = new Duplicates();
+                duplicates.items[duplicates.count++] = (Food) value;
+                values[slot] = duplicates;
+            }
+            if(duplicates.count == duplicates.items.length)
+                duplicates.items = Arrays.copyOf(duplicates.items, duplicates.count * 2);
+            duplicates.items[duplicates.count++] = f;
+            return;
+        }
+
+        // Otherwise take a new slot, growing first if we'd go over 3/4 full
+        if(count + 1 > keys.length * 3 / 4)
+            resize(keys.length * 2);
+        insert(fold(name), hash, f);
+        count++;
+    }
+
+    /**
+     * Removes a <code>Food</code> from the index. If the same instance was added more than once, only its earliest entry is removed.
+     * @param f the <code>Food</code> to remove
+     */
+    void remove(Food f) {
+        String name = f.getName();
+        if(name == null)
+            return;
+        int slot = slotOf(name, hash(name));
+        if(slot < 0)
+            return;
+
+        // Case: several Foods with this name, drop ours & keep the rest in order
+        Object value = values[slot];
+        if(value instanceof Duplicates) {
+            Duplicates duplicates = (Duplicates) value;
+            for(int i = 0; i < duplicates.count; i++) {
+                if(duplicates.items[i] == f) {
+                    System.arraycopy(duplicates.items, i + 1, duplicates.items, i, duplicates.count - i - 1);
+                    duplicates.items[--duplicates.count] = null;
+                    if(duplicates.count == 1)
+                        values[slot] = duplicates.items[0];
+                    return;
+                }
+            }
+            return;
+        }
+
+        // Otherwise the name goes away with it
+        if(value == f) {
+            delete(slot);
+            count--;
+        }
+    }
+
+    /**
+     * Finds the slot holding a name.
+     * @param name the name, not folded
+     * @param hash the hash of the name
+     * @return the slot, or -1 if the name isn't present
+     */
+    private int slotOf(String name, int hash) {
+        int mask = keys.length - 1;
+        for(int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if(hashes[slot] == hash && matches(keys[slot], name))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores a new name in the first free slot of its probe sequence.
+     * @param key the folded name
+     * @param hash the hash of the name
+     * @param value the <code>Food</code> or <code>Duplicates</code> to store
+     */
+    private void insert(String key, int hash, Object value) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while(keys[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+    }
+
+    /**
+     * Empties a slot, shifting later entries of the same probe run back so lookups never hit a gap before their entry.
+     * @param slot the slot to empty
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int next = (slot + 1) & mask;
+        while(keys[next] != null) {
+            // An entry can move back into the gap only if its home slot isn't between the gap & where it is now
+            int home = hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                hashes[slot] = hashes[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = null;
+        values[slot] = null;
+    }
+
+    /**
+     * Rebuilds the table at a new size.
+     * @param capacity the new number of slots, a power of 2
+     */
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != null)
+                insert(oldKeys[i], oldHashes[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Folds a single code point for case-insensitive comparison, the same way <code>String.equalsIgnoreCase</code> does.
+     * @param codePoint the code point
+     * @return the folded code point
+     */
+    static int fold(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    /**
+     * @param name a name
+     * @return <code>name</code> with every code point folded
+     */
+    static String fold(String name) {
+        StringBuilder s = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); ) {
+            int codePoint = name.codePointAt(i);
+            s.appendCodePoint(fold(codePoint));
+            i += Character.charCount(codePoint);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Hashes a name by its folded code points, without building the folded <code>String</code>.
+     * @param name a name
+     * @return a hash equal for all names that are equal ignoring case
+     */
+    static int hash(String name) {
+        int hash = 0;
+        for(int i = 0; i < name.length(); ) {
+            int codePoint = name.codePointAt(i);
+            hash = 31 * hash + fold(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param key a folded name
+     * @param name a name, not folded
+     * @return whether <code>name</code> folds to <code>key</code>
+     */
+    static boolean matches(String key, String name) {
+        int i = 0, j = 0;
+        while(i < key.length() && j < name.length()) {
+            int codePoint = name.codePointAt(j);
+            if(key.codePointAt(i) != fold(codePoint))
+                return false;
+            i += Character.charCount(key.codePointAt(i));
+            j += Character.charCount(codePoint);
+        }
+        return i == key.length() && j == name.length();
+    }
+}
@@ -0,0 +1,685 @@
+package lab9;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Case-insensitive search index over the names of a <code>FoodList</code>'s items, for autocompleting a prefix &amp; for finding names within a few
+ * typos of one that wasn't found. Names are folded like <code>FoodNameIndex</code> folds them &amp; each distinct folded name is stored once, with
+ * the <code>Food</code>s that have it in the order they were added, so searches return the first of them, matching <code>findByName</code>.
+ * <ul>
+ *     <li>Prefixes are looked up in a radix tree (a trie with single-child chains merged into one edge), so completions cost the length of the
+ *     prefix plus a few nodes per name returned, in alphabetical order of folded name.</li>
+ *     <li>Typos are found through an inverted index of each name's trigrams &amp; where in the name they are, padded at both ends. An edit
+ *     (including swapping 2 neighbouring characters) changes at most 4 trigrams &amp; k edits move the rest by at most k places, so a name within
+ *     k edits of the query has all but 4k of the query's trigrams within k places of where the query has them. Only the postings of the query's
+ *     rarest trigrams, enough that any such name has to be in one of them, are read, &amp; each candidate is checked with an edit distance
+ *     bounded by k.</li>
+ * </ul>
+ * Names that go away are dropped from the tree straight away but left in the trigram postings, skipped when read, until they outnumber the live
+ * names &amp; the postings are rebuilt. <code>Food</code>s with a <code>null</code> name are never indexed.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class FoodNameSearch {
+    /**
+     * A distinct folded name &amp; the <code>Food</code>s that have it.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Term {
+        /**
+         * The folded name.
+         */
+        final String key;
+
+        /**
+         * Position in <code>terms</code>, which is what the trigram postings hold.
+         */
+        int id;
+
+        /**
+         * The <code>Food</code>s with the name in the order they were added, valid up to <code>count</code>.
+         */
+        Food[] items = new Food[1];
+
+        /**
+         * Number of <code>Food</code>s with the name.
+         */
+        int count;
+
+        /**
+         * Constructor.
+         * @param key the folded name
+         * @param id position in <code>terms</code>
+         */
+        Term(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    /**
+     * A node of the radix tree.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Node {
+        /**
+         * Folded characters on the edge from the parent, never empty except at the root.
+         */
+        String label;
+
+        /**
+         * Children in order of the first character of their labels, valid up to <code>childCount</code>.
+         */
+        Node[] children = NONE;
+
+        /**
+         * Number of children.
+         */
+        int childCount;
+
+        /**
+         * The name ending at this node, or <code>null</code> if none does.
+         */
+        Term term;
+
+        /**
+         * Constructor.
+         * @param label the edge label
+         */
+        Node(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Binary searches the children by first character.
+         * @param c the character
+         * @return the child's index, or -(insertion point) - 1 if no label starts with <code>c</code>
+         */
+        int indexOf(char c) {
+            int low = 0, high = childCount - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                char first = children[mid].label.charAt(0);
+                if(first < c)
+                    low = mid + 1;
+                else if(first > c)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -low - 1;
+        }
+
+        /**
+         * Adds a child at its place in order.
+         * @param at the insertion point
+         * @param child the child
+         */
+        void insert(int at, Node child) {
+            if(childCount == children.length)
+                children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+            System.arraycopy(children, at, children, at + 1, childCount - at);
+            children[at] = child;
+            childCount++;
+        }
+
+        /**
+         * Removes a child.
+         * @param at the child's index
+         */
+        void delete(int at) {
+            System.arraycopy(children, at + 1, children, at, childCount - at - 1);
+            children[--childCount] = null;
+        }
+    }
+
+    /**
+     * A name that matched a search, &amp; how far it was from what was searched for.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class Match implements Comparable<Match> {
+        /**
+         * The folded name.
+         */
+        final String key;
+
+        /**
+         * The first <code>Food</code> with the name.
+         */
+        final Food food;
+
+        /**
+         * Edit distance from the search.
+         */
+        final int distance;
+
+        /**
+         * Constructor.
+         * @param key the folded name
+         * @param food the first <code>Food</code> with it
+         * @param distance edit distance from the search
+         */
+        Match(String key, Food food, int distance) {
+            this.key = key;
+            this.food = food;
+            this.distance = distance;
+        }
+
+        /**
+         * Orders closer matches first, then alphabetically by folded name.
+         * @param other the match to compare to
+         * @return the order of the two
+         */
+        @Override
+        public int compareTo(Match other) {
+            return distance != other.distance ? Integer.compare(distance, other.distance) : key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * Shared empty child array, so leaves don't allocate one.
+     */
+    private static final Node[] NONE = new Node[0];
+
+    /**
+     * Length of the n-grams indexed.
+     */
+    static final int GRAM = 3;
+
+    /**
+     * Character the names are padded with at both ends, so the first &amp; last characters are in as many trigrams as the rest.
+     */
+    private static final char PAD = '\0';
+
+    /**
+     * Largest position stored with a trigram. Trigrams further into a name are all stored at this position.
+     */
+    private static final int MAX_POSITION = 0xFFFF;
+
+    /**
+     * Most entries the trigram postings can hold for names that have gone away before being rebuilt, whatever the number of live names.
+     */
+    private static final int MIN_DEAD = 1024;
+
+    /**
+     * Live names by folded name.
+     */
+    private final HashMap<String, Term> byKey = new HashMap<String, Term>();
+
+    /**
+     * Root of the radix tree, with an empty label.
+     */
+    private final Node root = new Node("");
+
+    /**
+     * Names by id, <code>null</code> for names that have gone away. Valid up to <code>nextId</code>.
+     */
+    private Term[] terms = new Term[16];
+
+    /**
+     * Length of each name by id, kept apart from <code>terms</code> so candidates of the wrong length are skipped without reading their names.
+     */
+    private int[] lengths = new int[16];
+
+    /**
+     * Id for the next new name.
+     */
+    private int nextId;
+
+    /**
+     * Number of ids in <code>terms</code> whose name has gone away.
+     */
+    private int dead;
+
+    /**
+     * Trigrams, packed 16 bits per character above a 16-bit position, in an open-addressing table. A slot is empty if its postings are
+     * <code>null</code>.
+     */
+    private long[] grams = new long[1024];
+
+    /**
+     * Ids of the names with each trigram, in increasing order, valid up to the matching <code>postingSizes</code>.
+     */
+    private int[][] postings = new int[1024][];
+
+    /**
+     * Number of ids in each posting.
+     */
+    private int[] postingSizes = new int[1024];
+
+    /**
+     * Number of distinct trigrams stored.
+     */
+    private int gramCount;
+
+    /**
+     * Indexes a <code>Food</code> after any others with the same name.
+     * @param f the <code>Food</code> to add
+     */
+    void add(Food f) {
+        if(f.getName() == null)
+            return;
+        String key = FoodNameIndex.fold(f.getName());
+        Term term = byKey.get(key);
+        if(term == null) {
+            term = new Term(key, nextId++);
+            byKey.put(key, term);
+            if(term.id == terms.length) {
+                terms = Arrays.copyOf(terms, terms.length * 2);
+                lengths = Arrays.copyOf(lengths, terms.length);
+            }
+            terms[term.id] = term;
+            lengths[term.id] = key.length();
+            insert(term);
+            post(term);
+        }
+        if(term.count == term.items.length)
+            term.items = Arrays.copyOf(term.items, term.count * 2);
+        term.items[term.count++] = f;
+    }
+
+    /**
+     * Removes a <code>Food</code> from the index. If the same instance was added more than once, only its earliest entry is removed.
+     * @param f the <code>Food</code> to remove
+     */
+    void remove(Food f) {
+        if(f.getName() == null)
+            return;
+        String key = FoodNameIndex.fold(f.getName());
+        Term term = byKey.get(key);
+        if(term == null)
+            return;
+        for(int i = 0; i < term.count; i++) {
+            if(term.items[i] == f) {
+                System.arraycopy(term.items, i + 1, term.items, i, term.count - i - 1);
+                term.items[--term.count] = null;
+                break;
+            }
+        }
+        if(term.count > 0)
+            return;
+
+        // Last one with the name, so the name goes too. Its postings stay until there are too many such leftovers
+        byKey.remove(key);
+        delete(key);
+        terms[term.id] = null;
+        if(++dead > Math.max(MIN_DEAD, byKey.size()))
+            repost();
+    }
+
+    /**
+     * Finds the names starting with a prefix, ignoring case.
+     * @param prefix the prefix
+     * @param limit the most names to return
+     * @return the first <code>Food</code> with each name, in alphabetical order of folded name
+     */
+    Food[] findByPrefix(String prefix, int limit) {
+        String key = FoodNameIndex.fold(prefix);
+        Node node = root;
+        int i = 0;
+        while(i < key.length()) {
+            int at = node.indexOf(key.charAt(i));
+            if(at < 0)
+                return new Food[0];
+            node = node.children[at];
+
+            // The prefix can end partway along an edge
+            int length = Math.min(node.label.length(), key.length() - i);
+            if(!node.label.regionMatches(0, key, i, length))
+                return new Food[0];
+            i += length;
+        }
+
+        ArrayList<Food> found = new ArrayList<Food>();
+        collect(node, found, limit);
+        return found.toArray(new Food[0]);
+    }
+
+    /**
+     * Adds the names under a node to a list in alphabetical order, stopping once it is full.
+     * @param node the node
+     * @param found the list to add the first <code>Food</code> of each name to
+     * @param limit how many names the list can hold
+     */
+    private static void collect(Node node, ArrayList<Food> found, int limit) {
+        if(node.term != null && found.size() < limit)
+            found.add(node.term.items[0]);
+        for(int i = 0; i < node.childCount && found.size() < limit; i++)
+            collect(node.children[i], found, limit);
+    }
+
+    /**
+     * Finds the names within a number of single-character insertions, deletions, substitutions or swaps of neighbouring characters of a name,
+     * ignoring case.
+     * @param name the name
+     * @param maxDistance the most edits allowed
+     * @param limit the most names to return
+     * @return the first <code>Food</code> with each name, closest first, then in alphabetical order of folded name
+     */
+    Food[] findSimilar(String name, int maxDistance, int limit) {
+        String key = FoodNameIndex.fold(name);
+        long[] queryGrams = grams(key);
+        int needed = queryGrams.length - maxDistance * (GRAM + 1);
+        ArrayList<Match> matches = new ArrayList<Match>();
+
+        // Case: a short name can lose all its trigrams to the edits allowed, so every name is a candidate
+        if(needed <= 0) {
+            for(int id = 0; id < nextId; id++)
+                check(terms[id], key, maxDistance, matches);
+            return best(matches, limit);
+        }
+
+        // Look up where each of the query's trigrams could have moved to
+        int window = 2 * maxDistance + 1;
+        int[][] slots = new int[queryGrams.length][window];
+        int[] sizes = new int[queryGrams.length];
+        Integer[] order = new Integer[queryGrams.length];
+        for(int g = 0; g < queryGrams.length; g++) {
+            for(int shift = 0; shift < window; shift++) {
+                int position = g + shift - maxDistance;
+                slots[g][shift] = position < 0 || position > MAX_POSITION ? -1 : slotOf(queryGrams[g] & ~MAX_POSITION | position);
+                if(slots[g][shift] >= 0)
+                    sizes[g] += postingSizes[slots[g][shift]];
+            }
+            order[g] = g;
+        }
+
+        // Any close enough name has one of the rarest (length - needed + 1) of them. Reading a few more postings, while that at most doubles
+        // what is read, lets candidates be dropped unless they turn up in enough of them: of any r trigrams read, a close enough name has at
+        // least r - (length - needed)
+        Arrays.sort(order, (a, b) -> Integer.compare(sizes[a], sizes[b]));
+        int total = 0, read = queryGrams.length - needed + 1;
+        for(int g = 0; g < read; g++)
+            total += sizes[order[g]];
+        int budget = 2 * total + 1024;
+        while(read < queryGrams.length && total + sizes[order[read]] <= budget)
+            total += sizes[order[read++]];
+        int hits = read - (queryGrams.length - needed);
+        int[] candidates = new int[total];
+        int count = 0;
+        for(int g = 0; g < read; g++) {
+            for(int slot : slots[order[g]]) {
+                if(slot >= 0) {
+                    System.arraycopy(postings[slot], 0, candidates, count, postingSizes[slot]);
+                    count += postingSizes[slot];
+                }
+            }
+        }
+
+        // Check each candidate found often enough & of a possible length once
+        Arrays.sort(candidates, 0, count);
+        for(int c = 0, run; c < count; c += run) {
+            int id = candidates[c];
+            run = 1;
+            while(c + run < count && candidates[c + run] == id)
+                run++;
+            if(run >= hits && Math.abs(lengths[id] - key.length()) <= maxDistance)
+                check(terms[id], key, maxDistance, matches);
+        }
+        return best(matches, limit);
+    }
+
+    /**
+     * Adds a name to a list of matches if it is close enough.
+     * @param term the name, or <code>null</code> if it has gone away
+     * @param key the folded name searched for
+     * @param maxDistance the most edits allowed
+     * @param matches the list of matches
+     */
+    private static void check(Term term, String key, int maxDistance, ArrayList<Match> matches) {
+        if(term == null)
+            return;
+        int distance = distance(key, term.key, maxDistance);
+        if(distance <= maxDistance)
+            matches.add(new Match(term.key, term.items[0], distance));
+    }
+
+    /**
+     * Sorts matches &amp; keeps the best.
+     * @param matches the matches
+     * @param limit the most to keep
+     * @return the <code>Food</code>s of the best matches, best first
+     */
+    static Food[] best(ArrayList<Match> matches, int limit) {
+        matches.sort(null);
+        Food[] found = new Food[Math.min(limit, matches.size())];
+        for(int i = 0; i < found.length; i++)
+            found[i] = matches.get(i).food;
+        return found;
+    }
+
+    /**
+     * Edit distance between two strings, by character, counting insertions, deletions, substitutions &amp; swaps of adjacent characters as 1 edit
+     * each (optimal string alignment), giving up once it must be over a bound. O(n * min(n, max)) time, checking only the diagonal band an answer
+     * within the bound can come from.
+     * @param a a string
+     * @param b another string
+     * @param max the bound
+     * @return the distance, or <code>max + 1</code> if it is more than <code>max</code>
+     */
+    static int distance(String a, String b, int max) {
+        if(Math.abs(a.length() - b.length()) > max)
+            return max + 1;
+        int over = max + 1;
+        int[] older = new int[b.length() + 1], previous = new int[b.length() + 1], current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++)
+            previous[j] = Math.min(j, over);
+
+        for(int i = 1; i <= a.length(); i++) {
+            int from = Math.max(1, i - max), to = Math.min(b.length(), i + max);
+            current[0] = Math.min(i, over);
+            if(from > 1)
+                current[from - 1] = over;
+            int lowest = current[0];
+            for(int j = from; j <= to; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(previous[j - 1] + cost, Math.min(previous[j], current[j - 1]) + 1);
+                if(i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                    d = Math.min(d, older[j - 2] + 1);
+                current[j] = Math.min(d, over);
+                if(current[j] < lowest)
+                    lowest = current[j];
+            }
+            if(to < b.length())
+                current[to + 1] = over;
+            if(lowest > max)
+                return over;
+            int[] swap = older;
+            older = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Adds a new name to the radix tree.
+     * @param term the name
+     */
+    private void insert(Term term) {
+        String key = term.key;
+        Node node = root;
+        int i = 0;
+        while(i < key.length()) {
+            int at = node.indexOf(key.charAt(i));
+
+            // Case: nothing shares the next character, hang the rest of the name off here
+            if(at < 0) {
+                Node leaf = new Node(key.substring(i));
+                leaf.term = term;
+                node.insert(-at - 1, leaf);
+                return;
+            }
+
+            // Follow the edge as far as it matches, splitting it if the name leaves it partway
+            Node child = node.children[at];
+            int common = 1;
+            while(common < child.label.length() && i + common < key.length() && child.label.charAt(common) == key.charAt(i + common))
+                common++;
+            if(common < child.label.length()) {
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.insert(0, child);
+                node.children[at] = split;
+                child = split;
+            }
+            node = child;
+            i += common;
+        }
+        node.term = term;
+    }
+
+    /**
+     * Removes a name from the radix tree, merging away nodes left with no name &amp; a single child.
+     * @param key the folded name
+     */
+    private void delete(String key) {
+        Node parent = null, node = root;
+        int at = -1, i = 0;
+        while(i < key.length()) {
+            parent = node;
+            at = node.indexOf(key.charAt(i));
+            node = node.children[at];
+            i += node.label.length();
+        }
+        node.term = null;
+        if(node == root)
+            return;
+
+        // Drop a bare leaf, then check whether its parent is now a link in a chain
+        if(node.childCount == 0) {
+            parent.delete(at);
+            node = parent;
+        }
+        if(node != root && node.term == null && node.childCount == 1) {
+            Node child = node.children[0];
+            node.label = node.label + child.label;
+            node.children = child.children;
+            node.childCount = child.childCount;
+            node.term = child.term;
+        }
+    }
+
+    /**
+     * Adds a name's id to the postings of each of its trigrams at its position.
+     * @param term the name
+     */
+    private void post(Term term) {
+        for(long gram : grams(term.key)) {
+            if(gramCount + 1 > grams.length * 3 / 4)
+                resize(grams.length * 2);
+            int mask = grams.length - 1;
+            int slot = hash(gram) & mask;
+            while(postings[slot] != null && grams[slot] != gram)
+                slot = (slot + 1) & mask;
+            if(postings[slot] == null) {
+                grams[slot] = gram;
+                postings[slot] = new int[2];
+                gramCount++;
+            } else if(postingSizes[slot] == postings[slot].length) {
+                postings[slot] = Arrays.copyOf(postings[slot], postingSizes[slot] * 2);
+            }
+            postings[slot][postingSizes[slot]++] = term.id;
+        }
+    }
+
+    /**
+     * Rebuilds the trigram postings from the live names only, giving them new ids in the same order.
+     */
+    private void repost() {
+        Term[] live = new Term[Math.max(16, byKey.size())];
+        int count = 0;
+        for(int id = 0; id < nextId; id++) {
+            if(terms[id] != null) {
+                terms[id].id = count;
+                lengths[count] = lengths[id];
+                live[count++] = terms[id];
+            }
+        }
+        terms = live;
+        lengths = Arrays.copyOf(lengths, live.length);
+        nextId = count;
+        dead = 0;
+        grams = new long[1024];
+        postings = new int[1024][];
+        postingSizes = new int[1024];
+        gramCount = 0;
+        for(int id = 0; id < count; id++)
+            post(terms[id]);
+    }
+
+    /**
+     * Rebuilds the trigram table at a new size.
+     * @param capacity the new number of slots, a power of 2
+     */
+    private void resize(int capacity) {
+        long[] oldGrams = grams;
+        int[][] oldPostings = postings;
+        int[] oldSizes = postingSizes;
+        grams = new long[capacity];
+        postings = new int[capacity][];
+        postingSizes = new int[capacity];
+        int mask = capacity - 1;
+        for(int i = 0; i < oldGrams.length; i++) {
+            if(oldPostings[i] != null) {
+                int slot = hash(oldGrams[i]) & mask;
+                while(postings[slot] != null)
+                    slot = (slot + 1) & mask;
+                grams[slot] = oldGrams[i];
+                postings[slot] = oldPostings[i];
+                postingSizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    /**
+     * Finds the slot holding a trigram.
+     * @param gram the packed trigram
+     * @return the slot, or -1 if no name has it
+     */
+    private int slotOf(long gram) {
+        int mask = grams.length - 1;
+        for(int slot = hash(gram) & mask; postings[slot] != null; slot = (slot + 1) & mask) {
+            if(grams[slot] == gram)
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a folded name into its trigrams, padded with 2 <code>PAD</code>s at each end so an n-character name has n + 2, each packed with its
+     * position (capped at <code>MAX_POSITION</code>).
+     * @param key the folded name
+     * @return the packed trigrams, in order of position
+     */
+    static long[] grams(String key) {
+        int length = key.length() + 2 * (GRAM - 1);
+        long[] packed = new long[length - GRAM + 1];
+        long gram = 0;
+        for(int i = 0; i < length; i++) {
+            char c = i < GRAM - 1 || i >= key.length() + GRAM - 1 ? PAD : key.charAt(i - (GRAM - 1));
+            gram = (gram << 16 | c) & ((1L << 16 * GRAM) - 1);
+            if(i >= GRAM - 1)
+                packed[i - (GRAM - 1)] = gram << 16 | Math.min(i - (GRAM - 1), MAX_POSITION);
+        }
+        return packed;
+    }
+
+    /**
+     * @param gram a packed trigram
+     * @return its hash, with the high bits mixed into the low ones the table uses
+     */
+    private static int hash(long gram) {
+        long h = gram * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
@@ -0,0 +1,251 @@
+package lab9;
+
+import java.util.Arrays;
+import java.util.InputMismatchException;
+
+/**
+ * Collects the malformed rows a load skips instead of throwing on the first one: the line number &amp; reason of the first few, &amp; how many
+ * there were in all. The load gives up with an <code>InputMismatchException</code> once more rows than the error budget are malformed, so a file
+ * that isn't a food file at all still fails fast. Recording a row allocates nothing once the kept rows are full, so a load stays at full speed
+ * however many rows are bad.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodParseReport {
+    /**
+     * Why a row is malformed, with the message <code>Food.fromTextLine</code> throws for it.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    public enum Reason {
+        /**
+         * There was no line at all.
+         */
+        NULL_LINE("line is null!"),
+
+        /**
+         * The line doesn't split into exactly 4 values on single spaces.
+         */
+        FIELD_COUNT("line does not have 4 space-separated values!"),
+
+        /**
+         * The Calories aren't a whole number or the daily percentage isn't a decimal number.
+         */
+        NUMBER_FORMAT("Numerical value in line does not match input format!");
+
+        /**
+         * Message of the exception thrown for it.
+         */
+        private final String message;
+
+        /**
+         * Constructor.
+         * @param message message of the exception thrown for it
+         */
+        Reason(String message) {
+            this.message = message;
+        }
+
+        /**
+         * Getter for <code>message</code>
+         * @return the message of the exception thrown for it
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Builds the exception thrown for it by parsers not given a report, &amp; counts the failure.
+         * @return a new <code>InputMismatchException</code> with its message
+         */
+        public InputMismatchException exception() {
+            return FoodMetrics.parseFailed(new InputMismatchException(message));
+        }
+    }
+
+    /**
+     * Most malformed rows kept, by default.
+     */
+    public static final int DEFAULT_CAPACITY = 20;
+
+    /**
+     * Most malformed rows kept. Later ones are only counted.
+     */
+    private final int capacity;
+
+    /**
+     * Most malformed rows tolerated before the load is given up.
+     */
+    private final long budget;
+
+    /**
+     * Line numbers (from 1) of the kept rows, in the order they were recorded.
+     */
+    private long[] lines = new long[4];
+
+    /**
+     * Reasons of the kept rows, in the same slots as <code>lines</code>.
+     */
+    private Reason[] reasons = new Reason[4];
+
+    /**
+     * Number of rows kept.
+     */
+    private int kept;
+
+    /**
+     * Number of malformed rows recorded, kept or not.
+     */
+    private long rejected;
+
+    /**
+     * Constructor, keeping <code>DEFAULT_CAPACITY</code> rows &amp; tolerating any number.
+     */
+    public FoodParseReport() {
+        this(DEFAULT_CAPACITY, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity most malformed rows to keep, later ones are only counted
+     * @param budget most malformed rows to tolerate, <code>Long.MAX_VALUE</code> for any number
+     */
+    public FoodParseReport(int capacity, long budget) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("capacity must be >= 0!");
+        if(budget < 0)
+            throw new IllegalArgumentException("budget must be >= 0!");
+        this.capacity = capacity;
+        this.budget = budget;
+    }
+
+    /**
+     * Records a malformed row. Throws an <code>InputMismatchException</code> if that makes more than the budget allows.
+     * @param line its line number, from 1
+     * @param reason why it is malformed
+     */
+    public void reject(long line, Reason reason) {
+        FoodMetrics.parseFailed();
+        if(kept < capacity)
+            keep(line, reason);
+        if(++rejected > budget)
+            throw overBudget();
+    }
+
+    /**
+     * Adds the rows of a report on a later part of the same file, as parallel loads do. Throws an <code>InputMismatchException</code> if that
+     * makes more than the budget allows.
+     * @param other the report on the later part, whose failures are already counted
+     * @param lineOffset number of lines before the part
+     */
+    public void append(FoodParseReport other, long lineOffset) {
+        for(int i = 0; i < other.kept && kept < capacity; i++)
+            keep(other.lines[i] + lineOffset, other.reasons[i]);
+        rejected += other.rejected;
+        if(rejected > budget)
+            throw overBudget();
+    }
+
+    /**
+     * Adds the rows recorded by an earlier parse of the same file, e.g. the one a snapshot was built from, without counting them as new failures.
+     * Throws an <code>InputMismatchException</code> if that makes more than the budget allows.
+     * @param lines line numbers (from 1) of the rows kept then, in the order they were recorded
+     * @param reasons why each of them is malformed
+     * @param rejected number of malformed rows then, kept or not
+     */
+    void replay(long[] lines, Reason[] reasons, long rejected) {
+        for(int i = 0; i < lines.length && kept < capacity; i++)
+            keep(lines[i], reasons[i]);
+        this.rejected += rejected;
+        if(this.rejected > budget)
+            throw overBudget();
+    }
+
+    /**
+     * Getter for <code>capacity</code>
+     * @return the most malformed rows kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter for <code>budget</code>
+     * @return the most malformed rows tolerated
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of malformed rows recorded, kept or not
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of malformed rows kept, at most <code>capacity</code>
+     */
+    public int getKept() {
+        return kept;
+    }
+
+    /**
+     * @param index index of a kept row, in the order they were recorded
+     * @return its line number, from 1
+     */
+    public long getLine(int index) {
+        if(index < 0 || index >= kept)
+            throw new IndexOutOfBoundsException("index is out of bounds!");
+        return lines[index];
+    }
+
+    /**
+     * @param index index of a kept row, in the order they were recorded
+     * @return why it is malformed
+     */
+    public Reason getReason(int index) {
+        if(index < 0 || index >= kept)
+            throw new IndexOutOfBoundsException("index is out of bounds!");
+        return reasons[index];
+    }
+
+    /**
+     * Keeps a malformed row, growing the arrays up to <code>capacity</code> if they are full.
+     * @param line its line number, from 1
+     * @param reason why it is malformed
+     */
+    private void keep(long line, Reason reason) {
+        if(kept == lines.length) {
+            lines = Arrays.copyOf(lines, Math.min(capacity, kept * 2));
+            reasons = Arrays.copyOf(reasons, lines.length);
+        }
+        lines[kept] = line;
+        reasons[kept++] = reason;
+    }
+
+    /**
+     * @return the exception thrown once more rows than the budget allows are malformed
+     */
+    private InputMismatchException overBudget() {
+        String first = kept > 0 ? " (first at line " + lines[0] + ": " + reasons[0].getMessage() + ")" : "";
+        return new InputMismatchException("more than " + budget + " malformed lines" + first + "!");
+    }
+
+    /**
+     * @return the number of malformed rows, then one line per kept row
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(rejected).append(rejected == 1 ? " malformed line" : " malformed lines");
+        for(int i = 0; i < kept; i++)
+            sb.append(System.lineSeparator()).append("  line ").append(lines[i]).append(": ").append(reasons[i].getMessage());
+        if(rejected > kept)
+            sb.append(System.lineSeparator()).append("  ... & ").append(rejected - kept).append(" more");
+        return sb.toString();
+    }
+}
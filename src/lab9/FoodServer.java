@@ -0,0 +1,252 @@
+package lab9;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless server answering queries on a shared <code>ConcurrentFoodList</code> over a localhost socket, so many clients can use one loaded
+ * database at once. Each connection is handled on its own virtual thread, so thousands of mostly idle connections cost little. Lookups, meals &amp;
+ * listings read the list without locking &amp; run at the same time; purges rewrite it without stopping them (see <code>ConcurrentFoodList</code>).
+ * <p>
+ * The protocol is lines of UTF-8 text. Each request is one line, a command &amp; its arguments separated by spaces, &amp; commands are
+ * case-insensitive. Requests on a connection are answered in order, so a client can send several before reading the answers.
+ * <ul>
+ *     <li><code>LIST [from [count]]</code>: up to <code>count</code> (default <code>DEFAULT_PAGE</code>, at most <code>MAX_PAGE</code>)
+ *     table rows starting at position <code>from</code> (default 0)</li>
+ *     <li><code>FIND name</code>: the row of the first item with the name, ignoring case, or nothing</li>
+ *     <li><code>MEAL [numFoods]</code>: the rows of a random meal of <code>numFoods</code> items (default 3)</li>
+ *     <li><code>PURGE cals</code>: removes the items with at least <code>cals</code> Calories &amp; answers the number of items left</li>
+ *     <li><code>COUNT</code>: the number of items</li>
+ *     <li><code>QUIT</code>: closes the connection</li>
+ * </ul>
+ * Answers start with <code>OK n</code> followed by <code>n</code> lines, or are a single <code>ERR message</code> line if the request was bad.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodServer implements Closeable {
+    /**
+     * Port served on when none is given.
+     */
+    public static final int DEFAULT_PORT = 9240;
+
+    /**
+     * Rows listed when a <code>LIST</code> doesn't say how many.
+     */
+    public static final int DEFAULT_PAGE = 100;
+
+    /**
+     * Most rows a single <code>LIST</code> returns.
+     */
+    public static final int MAX_PAGE = 10_000;
+
+    /**
+     * The shared list.
+     */
+    private final ConcurrentFoodList foods;
+
+    /**
+     * Socket accepting connections on the loopback interface.
+     */
+    private final ServerSocket listener;
+
+    /**
+     * Runs each connection on a new virtual thread.
+     */
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Constructor. Starts listening, but connections aren't answered until <code>serve</code> or <code>start</code> is called.
+     * @param foods the list to serve
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be listened on
+     */
+    public FoodServer(ConcurrentFoodList foods, int port) throws IOException {
+        this.foods = foods;
+        listener = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Getter for the port being listened on
+     * @return the port
+     */
+    public int getPort() {
+        return listener.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, handing each to a new virtual thread. Blocks the calling thread.
+     * @throws IOException if accepting fails for any reason other than the server being closed
+     */
+    public void serve() throws IOException {
+        while(!listener.isClosed()) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch(SocketException e) {
+                // Closing the server wakes accept up this way
+                if(listener.isClosed())
+                    return;
+                throw e;
+            }
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Accepts connections on a virtual thread of their own, so the calling thread can carry on.
+     * @return the accepting thread
+     */
+    public Thread start() {
+        return Thread.ofVirtual().name("food-server-" + getPort()).start(() -> {
+            try {
+                serve();
+            } catch(IOException e) {
+                System.err.println("Food server stopped: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stops accepting connections &amp; closes the open ones.
+     * @throws IOException if the listening socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * Answers the requests on one connection until the client quits or disconnects.
+     * @param socket the connection
+     */
+    private void handle(Socket socket) {
+        try(socket;
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while((line = in.readLine()) != null) {
+                if(!answer(line, out))
+                    break;
+
+                // Only send once every request that has already arrived is answered
+                if(!in.ready())
+                    out.flush();
+            }
+            out.flush();
+        } catch(IOException e) {
+            // The client went away, nothing left to answer
+        }
+    }
+
+    /**
+     * Answers a single request.
+     * @param line the request
+     * @param out where to write the answer
+     * @return <code>false</code> if the client asked to quit
+     * @throws IOException if the answer can't be written
+     */
+    boolean answer(String line, Writer out) throws IOException {
+        String[] words = line.trim().split(" +");
+        String command = words[0].toUpperCase(Locale.ROOT);
+        try {
+            switch(command) {
+                case "LIST":
+                    int from = words.length > 1 ? Integer.parseInt(words[1]) : 0;
+                    int count = words.length > 2 ? Integer.parseInt(words[2]) : DEFAULT_PAGE;
+                    if(count <= 0 || count > MAX_PAGE)
+                        throw new IllegalArgumentException("count must be between 1 & " + MAX_PAGE + "!");
+
+                    // Rows come from a single snapshot, so the header count can be worked out before writing them
+                    long started = FoodMetrics.start();
+                    try {
+                        Iterator<Food> cursor = foods.iterator(from);
+                        Food[] page = new Food[count];
+                        int rows = 0;
+                        while(rows < count && cursor.hasNext())
+                            page[rows++] = cursor.next();
+                        rows(out, page, rows);
+                    } finally {
+                        FoodMetrics.stop(FoodMetrics.Operation.LIST, started);
+                    }
+                    return true;
+
+                case "FIND":
+                    if(words.length != 2)
+                        throw new IllegalArgumentException("FIND takes 1 name!");
+                    Food f = foods.findByName(words[1]);
+                    if(f == null)
+                        rows(out, null, 0);
+                    else
+                        rows(out, new Food[] {f}, 1);
+                    return true;
+
+                case "MEAL":
+                    int numFoods = words.length > 1 ? Integer.parseInt(words[1]) : 3;
+                    if(numFoods <= 0 || numFoods > MAX_PAGE)
+                        throw new IllegalArgumentException("numFoods must be between 1 & " + MAX_PAGE + "!");
+                    Food[] meal = foods.randomMeal(numFoods);
+                    rows(out, meal, meal.length);
+                    return true;
+
+                case "PURGE":
+                    if(words.length != 2)
+                        throw new IllegalArgumentException("PURGE takes 1 Calorie limit!");
+                    int cals = Integer.parseInt(words[1]);
+                    if(cals <= 0)
+                        throw new IllegalArgumentException("cals must be > 0!");
+                    foods.removeHighCalFoods(cals);
+                    out.write("OK 1\n" + foods.getLength() + "\n");
+                    return true;
+
+                case "COUNT":
+                    out.write("OK 1\n" + foods.getLength() + "\n");
+                    return true;
+
+                case "QUIT":
+                    out.write("OK 0\n");
+                    return false;
+
+                default:
+                    throw new IllegalArgumentException("unknown command \"" + words[0] + "\"!");
+            }
+        } catch(NumberFormatException e) {
+            out.write("ERR expected a whole number!\n");
+        } catch(IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException e) {
+            // e.g. a bad argument, a page past the end or a meal from a list purged to nothing
+            out.write("ERR " + e.getMessage() + "\n");
+        }
+        return true;
+    }
+
+    /**
+     * Writes an <code>OK</code> answer of table rows.
+     * @param out where to write
+     * @param rows the items, or <code>null</code> if there are none
+     * @param count the number of items to write
+     * @throws IOException if the answer can't be written
+     */
+    private static void rows(Writer out, Food[] rows, int count) throws IOException {
+        out.write("OK " + count + "\n");
+        for(int i = 0; i < count; i++) {
+            out.write(rows[i].toString());
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package lab9;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of a <code>FoodList</code>, so a food file only has to be parsed once. The snapshot holds a table of the distinct names &amp;
+ * food groups, fixed-width columns of codes into that table, Calories &amp; daily percentages, &amp; the column widths of the items, so loading it
+ * is a memory map &amp; a walk down the columns. The text file stays the source of truth: each snapshot records the size &amp; a CRC-32C of the
+ * contents of the file it was built from, &amp; <code>load(Path, Path, boolean)</code> rebuilds it whenever those no longer match, so a file
+ * rewritten at the same size within the file system's timestamp resolution isn't mistaken for the old one. A snapshot of a file with
+ * malformed rows also records the <code>FoodParseReport</code> of the rows skipped, so loading it reports them again.
+ * <p>
+ * Layout, all numbers big-endian:
+ * <pre>
+ *  0  long    magic number, "FOODSNAP" in ASCII
+ *  8  int     format version
+ * 12  int     number of items
+ * 16  long    size in bytes of the source file
+ * 24  long    CRC-32C of the contents of the source file
+ * 32  int     number of strings in the table
+ * 36  int     total length of the strings in bytes
+ * 40  int[4]  column widths, in the order of <code>Food.tableHeaders</code>
+ * 56  long    CRC-32C of everything after the header
+ * 64  int[]   offset of each string in the string bytes, plus one past the last
+ *     byte[]  the strings, UTF-8, padded to a multiple of 4 bytes
+ *     int[]   string table index of each item's name, -1 for <code>null</code>
+ *     int[]   string table index of each item's food group, -1 for <code>null</code>
+ *     int[]   Calories of each item
+ *     padding to a multiple of 8 bytes
+ *     double[] daily percentage of each item
+ *     long    number of malformed rows skipped when the items were parsed
+ *     int     number of those rows kept in the report
+ *     int     padding
+ *     long[]  line number of each kept row
+ *     int[]   <code>FoodParseReport.Reason</code> ordinal of each kept row
+ * </pre>
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodSnapshot {
+    /**
+     * Marks a file as a snapshot: "FOODSNAP" in ASCII.
+     */
+    static final long MAGIC = 0x464F4F44534E4150L;
+
+    /**
+     * Version of the layout written by this class. Snapshots of any other version are rebuilt.
+     */
+    static final int VERSION = 3;
+
+    /**
+     * Size of the header in bytes.
+     */
+    static final int HEADER = 64;
+
+    /**
+     * Where the snapshot is being written.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Bytes waiting to be written.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+    /**
+     * Checksum of everything written after the header so far.
+     */
+    private final CRC32C checksum = new CRC32C();
+
+    /**
+     * Number of bytes written after the header so far, including those still in <code>buffer</code>.
+     */
+    private long written;
+
+    /**
+     * Constructor, for writing.
+     * @param channel where to write, positioned just past the header
+     */
+    private FoodSnapshot(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Loads a food file, from its snapshot if that is up to date &amp; from the text otherwise, in which case the snapshot is rebuilt. A snapshot
+     * that can't be read or written is treated as missing: the text is always enough to load from.
+     * @param text the food file
+     * @param snapshot where its snapshot is kept
+     * @param parallel whether to parse the text on all cores if it has to be parsed
+     * @return a list of the file's items, in order. <code>Food.columnWidths</code> is widened to fit them.
+     * @throws IOException if the food file can't be read
+     */
+    public static FoodList load(Path text, Path snapshot, boolean parallel) throws IOException {
+        return load(text, snapshot, parallel, null);
+    }
+
+    /**
+     * Loads a food file like <code>load(Path, Path, boolean)</code>, skipping malformed rows. They are recorded in <code>report</code>, which
+     * throws an <code>InputMismatchException</code> once they run over its budget. An up to date snapshot replays the rows the parse it was built
+     * from skipped, as many as that parse's report kept, so the report &amp; budget work the same whether the text is parsed or not.
+     * @param text the food file
+     * @param snapshot where its snapshot is kept
+     * @param parallel whether to parse the text on all cores if it has to be parsed
+     * @param report where to record malformed rows, or <code>null</code> to throw for the first one. Must not hold any rows yet.
+     * @return a list of the file's items, in order. <code>Food.columnWidths</code> is widened to fit them.
+     * @throws IOException if the food file can't be read
+     */
+    public static FoodList load(Path text, Path snapshot, boolean parallel, FoodParseReport report) throws IOException {
+        // Checksum the text before parsing it, so a snapshot built from a file appended to meanwhile is rebuilt by the next load
+        long size, contents;
+        try(FileChannel channel = FileChannel.open(text, StandardOpenOption.READ)) {
+            size = channel.size();
+            CRC32C checksum = new CRC32C();
+            contents = FoodWatcher.checksum(channel, checksum, 0, size, false) < 0 ? -1 : checksum.getValue();
+        }
+        if(contents >= 0 && Files.isRegularFile(snapshot)) {
+            try {
+                // Without a report, a snapshot with skipped rows isn't used, so parsing the text throws for the first one
+                FoodList foods = read(snapshot, size, contents, report);
+                if(foods != null)
+                    return foods;
+            } catch(IOException e) {
+                // Unreadable or corrupt, so rebuild it
+            }
+        }
+
+        FoodList foods = parallel ? FoodLoader.loadParallel(text, ForkJoinPool.commonPool(), report) : FoodLoader.load(text, report);
+        try {
+            if(contents >= 0)
+                write(foods, snapshot, size, contents, report);
+        } catch(IOException e) {
+            // Can't save it this time, so the next start parses the text again
+        }
+        return foods;
+    }
+
+    /**
+     * Loads a snapshot, whatever file it was built from, &amp; widens <code>Food.columnWidths</code> to fit its items. Any malformed rows it
+     * records are ignored.
+     * @param snapshot the snapshot
+     * @return a list of its items, in order
+     * @throws IOException if it can't be read, isn't a snapshot of this version or fails its checksum
+     */
+    public static FoodList read(Path snapshot) throws IOException {
+        return read(snapshot, -1, -1, new FoodParseReport(0, Long.MAX_VALUE));
+    }
+
+    /**
+     * Writes a list's items to a snapshot, replacing it atomically if the file system allows.
+     * @param foods the items
+     * @param snapshot where to write
+     * @param size size of the file the items came from, or -1 if none
+     * @param contents CRC-32C of the contents of the file the items came from, or -1 if none
+     * @throws IOException if the snapshot can't be written
+     */
+    public static void write(FoodList foods, Path snapshot, long size, long contents) throws IOException {
+        write(foods, snapshot, size, contents, null);
+    }
+
+    /**
+     * Writes a list's items to a snapshot like <code>write(FoodList, Path, long, long)</code>, along with the malformed rows skipped when they
+     * were parsed.
+     * @param foods the items
+     * @param snapshot where to write
+     * @param size size of the file the items came from, or -1 if none
+     * @param contents CRC-32C of the contents of the file the items came from, or -1 if none
+     * @param report the malformed rows skipped when the items were parsed, or <code>null</code> if none were
+     * @throws IOException if the snapshot can't be written
+     */
+    public static void write(FoodList foods, Path snapshot, long size, long contents, FoodParseReport report) throws IOException {
+        // Give every distinct name & group a code, & work out the widths the items need
+        StringDictionary strings = new StringDictionary();
+        int count = foods.getLength();
+        int[] names = new int[count], groups = new int[count];
+        int[] widths = new int[Food.tableHeaders.length];
+        for(int i = 0; i < widths.length; i++)
+            widths[i] = Food.tableHeaders[i].length();
+        int i = 0;
+        for(Food f : foods) {
+            names[i] = strings.code(f.getName());
+            groups[i] = strings.code(f.getGroup());
+            widths[0] = Math.max(widths[0], String.valueOf(f.getName()).length());
+            widths[1] = Math.max(widths[1], String.valueOf(f.getGroup()).length());
+            widths[2] = Math.max(widths[2], Food.calsWidth(f.getCals()));
+            widths[3] = Math.max(widths[3], Food.percentWidth(f.getDailyPercentage()));
+            i++;
+        }
+        byte[][] encoded = new byte[strings.size()][];
+        int stringBytes = 0;
+        for(int code = 0; code < encoded.length; code++) {
+            encoded[code] = strings.get(code).getBytes(StandardCharsets.UTF_8);
+            stringBytes += encoded[code].length;
+        }
+
+        // Write the body after a gap for the header, then go back & fill the header in once the checksum is known. The temporary file has a
+        // name of its own, so processes rebuilding the same snapshot at once don't write over each other's.
+        Path directory = snapshot.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, snapshot.getFileName() + ".", ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                FoodSnapshot out = new FoodSnapshot(channel);
+                channel.position(HEADER);
+                int offset = 0;
+                for(byte[] string : encoded) {
+                    out.putInt(offset);
+                    offset += string.length;
+                }
+                out.putInt(offset);
+                for(byte[] string : encoded)
+                    out.put(string);
+                out.pad(4);
+                for(int name : names)
+                    out.putInt(name);
+                for(int group : groups)
+                    out.putInt(group);
+                for(Food f : foods)
+                    out.putInt(f.getCals());
+                out.pad(8);
+                for(Food f : foods)
+                    out.putDouble(f.getDailyPercentage());
+                int kept = report == null ? 0 : report.getKept();
+                out.putLong(report == null ? 0 : report.getRejected());
+                out.putInt(kept);
+                out.putInt(0);
+                for(int row = 0; row < kept; row++)
+                    out.putLong(report.getLine(row));
+                for(int row = 0; row < kept; row++)
+                    out.putInt(report.getReason(row).ordinal());
+                out.drain();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putLong(MAGIC).putInt(VERSION).putInt(count).putLong(size).putLong(contents);
+                header.putInt(encoded.length).putInt(stringBytes);
+                for(int width : widths)
+                    header.putInt(width);
+                header.putLong(out.checksum.getValue());
+                header.flip();
+                while(header.hasRemaining())
+                    channel.write(header, header.position());
+                channel.force(false);
+            }
+
+            try {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException | RuntimeException e) {
+            // Don't leave a half-written snapshot lying around
+            try {
+                Files.deleteIfExists(temp);
+            } catch(IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a snapshot if it was built from a file of the given size &amp; contents, &amp; replays the malformed rows skipped then into a
+     * report. Throws an <code>InputMismatchException</code> if they run over its budget.
+     * @param snapshot the snapshot
+     * @param size the source file's size, or -1 to accept any
+     * @param contents CRC-32C of the source file's contents, ignored if <code>size</code> is -1
+     * @param report where to record the malformed rows skipped when the snapshot was built, or <code>null</code> to pass over a snapshot with any
+     * @return a list of its items, in order, or <code>null</code> if it was built from a different file or, without a report, skipped rows
+     * @throws IOException if it can't be read, isn't a snapshot of this version or fails its checksum
+     */
+    private static FoodList read(Path snapshot, long size, long contents, FoodParseReport report) throws IOException {
+        MappedByteBuffer data;
+        try(FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("\"" + snapshot + "\" is not a food snapshot!");
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // Check the header before trusting any of it
+        if(data.getLong(0) != MAGIC || data.getInt(8) != VERSION)
+            throw new IOException("\"" + snapshot + "\" is not a version " + VERSION + " food snapshot!");
+        if(size >= 0 && (data.getLong(16) != size || data.getLong(24) != contents))
+            return null;
+        int count = data.getInt(12), stringCount = data.getInt(32), stringBytes = data.getInt(36);
+        long strings = HEADER + 4L * (stringCount + 1);
+        long columns = strings + align(stringBytes, 4);
+        long dailies = align(columns + 12L * count, 8);
+        long skipped = dailies + 8L * count;
+        if(count < 0 || stringCount < 0 || stringBytes < 0 || skipped + 16 > data.capacity())
+            throw new IOException("\"" + snapshot + "\" is truncated!");
+        long rejected = data.getLong((int) skipped);
+        int kept = data.getInt((int) skipped + 8);
+        if(kept < 0 || skipped + 16 + 12L * kept != data.capacity())
+            throw new IOException("\"" + snapshot + "\" is truncated!");
+        CRC32C checksum = new CRC32C();
+        checksum.update(data.slice(HEADER, data.capacity() - HEADER));
+        if(checksum.getValue() != data.getLong(56))
+            throw new IOException("\"" + snapshot + "\" is corrupt!");
+
+        // Decode each distinct string once
+        String[] table = new String[stringCount];
+        byte[] bytes = new byte[stringBytes];
+        data.get((int) strings, bytes);
+        for(int code = 0; code < stringCount; code++) {
+            int from = data.getInt(HEADER + 4 * code), to = data.getInt(HEADER + 4 * (code + 1));
+            if(from < 0 || to < from || to > stringBytes)
+                throw new IOException("\"" + snapshot + "\" is corrupt!");
+            table[code] = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        // Walk down the columns
+        FoodList foods = new FoodList();
+        int names = (int) columns, groups = names + 4 * count, kcal = groups + 4 * count, daily = (int) dailies;
+        for(int i = 0; i < count; i++) {
+            int name = data.getInt(names + 4 * i), group = data.getInt(groups + 4 * i);
+            if(name < -1 || name >= stringCount || group < -1 || group >= stringCount)
+                throw new IOException("\"" + snapshot + "\" is corrupt!");
+            foods.add(new Food(name < 0 ? null : table[name], group < 0 ? null : table[group], data.getInt(kcal + 4 * i),
+                    data.getDouble(daily + 8 * i)));
+        }
+
+        // Replay the rows skipped when it was built, which may run over the budget
+        if(rejected < kept)
+            throw new IOException("\"" + snapshot + "\" is corrupt!");
+        if(rejected > 0 && report == null)
+            return null;
+        long[] lines = new long[kept];
+        FoodParseReport.Reason[] reasons = new FoodParseReport.Reason[kept];
+        int reasonColumn = (int) skipped + 16 + 8 * kept;
+        for(int row = 0; row < kept; row++) {
+            int reason = data.getInt(reasonColumn + 4 * row);
+            if(reason < 0 || reason >= FoodParseReport.Reason.values().length)
+                throw new IOException("\"" + snapshot + "\" is corrupt!");
+            lines[row] = data.getLong((int) skipped + 16 + 8 * row);
+            reasons[row] = FoodParseReport.Reason.values()[reason];
+        }
+        if(report != null)
+            report.replay(lines, reasons, rejected);
+
+        int[] widths = new int[Food.tableHeaders.length];
+        for(int i = 0; i < widths.length; i++)
+            widths[i] = data.getInt(40 + 4 * i);
+        Food.widenColumns(widths);
+        return foods;
+    }
+
+    /**
+     * @param value a non-negative offset or length
+     * @param alignment a power of 2
+     * @return <code>value</code> rounded up to a multiple of <code>alignment</code>
+     */
+    private static long align(long value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Buffers an <code>int</code>.
+     * @param value the value
+     * @throws IOException if the buffer had to be written &amp; that failed
+     */
+    private void putInt(int value) throws IOException {
+        room(4);
+        buffer.putInt(value);
+        written += 4;
+    }
+
+    /**
+     * Buffers a <code>long</code>.
+     * @param value the value
+     * @throws IOException if the buffer had to be written &amp; that failed
+     */
+    private void putLong(long value) throws IOException {
+        room(8);
+        buffer.putLong(value);
+        written += 8;
+    }
+
+    /**
+     * Buffers a <code>double</code>.
+     * @param value the value
+     * @throws IOException if the buffer had to be written &amp; that failed
+     */
+    private void putDouble(double value) throws IOException {
+        room(8);
+        buffer.putDouble(value);
+        written += 8;
+    }
+
+    /**
+     * Buffers some bytes.
+     * @param bytes the bytes
+     * @throws IOException if the buffer had to be written &amp; that failed
+     */
+    private void put(byte[] bytes) throws IOException {
+        for(int from = 0; from < bytes.length; ) {
+            room(1);
+            int length = Math.min(bytes.length - from, buffer.remaining());
+            buffer.put(bytes, from, length);
+            from += length;
+            written += length;
+        }
+    }
+
+    /**
+     * Buffers zeroes up to the next multiple of <code>alignment</code> bytes after the header.
+     * @param alignment a power of 2, at most 8
+     * @throws IOException if the buffer had to be written &amp; that failed
+     */
+    private void pad(int alignment) throws IOException {
+        int padding = (int) (align(written, alignment) - written);
+        room(padding);
+        for(int i = 0; i < padding; i++)
+            buffer.put((byte) 0);
+        written += padding;
+    }
+
+    /**
+     * Makes room in the buffer, writing it out if it is too full.
+     * @param bytes the number of bytes needed
+     * @throws IOException if writing failed
+     */
+    private void room(int bytes) throws IOException {
+        if(buffer.remaining() < bytes)
+            drain();
+    }
+
+    /**
+     * Writes out &amp; checksums everything buffered.
+     * @throws IOException if writing failed
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,465 @@
+package lab9;
+
+import java.util.Arrays;
+
+/**
+ * Running totals of a <code>FoodList</code>'s items, for the whole list &amp; for each food group, kept up-to-date as items are added &amp;
+ * removed so summaries never walk the list. Counts &amp; sums of Calories &amp; daily percentages are updated in O(1) per item.
+ * <p>
+ * The lowest &amp; highest Calories of each group come from a count of the group's items at each Calorie value below
+ * <code>HISTOGRAM_LIMIT</code>, grown to the highest value seen. Removing a group's lowest or highest item steps to the next value still
+ * counted, &amp; since a purge only ever lowers the highest, a whole purge steps over each value at most once. Items with more Calories than the
+ * histogram covers are only counted; if one of them was a group's lowest or highest when it was removed, the group is marked stale &amp; the next
+ * summary recomputes every stale group's in one pass over the list.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodStats {
+    /**
+     * Calorie values from 0 up to this are counted one by one for each group, so the lowest &amp; highest stay exact as items are removed.
+     */
+    static final int HISTOGRAM_LIMIT = 1 << 14;
+
+    /**
+     * Totals for a set of items: a food group, a whole list or a meal. Never changes once made.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    public static class Summary {
+        /**
+         * The food group summarized, or <code>null</code> for items of every group.
+         */
+        private final String group;
+
+        /**
+         * Number of items.
+         */
+        private final int count;
+
+        /**
+         * Sum of the items' Calories.
+         */
+        private final long totalCals;
+
+        /**
+         * Lowest Calories of any item, 0 if there are none.
+         */
+        private final int minCals;
+
+        /**
+         * Highest Calories of any item, 0 if there are none.
+         */
+        private final int maxCals;
+
+        /**
+         * Sum of the items' daily percentages.
+         */
+        private final double totalDailyPercentage;
+
+        /**
+         * Constructor.
+         * @param group the food group, or <code>null</code> for every group
+         * @param count the number of items
+         * @param totalCals the sum of their Calories
+         * @param minCals their lowest Calories
+         * @param maxCals their highest Calories
+         * @param totalDailyPercentage the sum of their daily percentages
+         */
+        Summary(String group, int count, long totalCals, int minCals, int maxCals, double totalDailyPercentage) {
+            this.group = group;
+            this.count = count;
+            this.totalCals = totalCals;
+            this.minCals = count == 0 ? 0 : minCals;
+            this.maxCals = count == 0 ? 0 : maxCals;
+            this.totalDailyPercentage = totalDailyPercentage;
+        }
+
+        /**
+         * Getter for <code>group</code>
+         * @return the food group summarized, or <code>null</code> for items of every group
+         */
+        public String getGroup() {
+            return group;
+        }
+
+        /**
+         * Getter for <code>count</code>
+         * @return the number of items
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Getter for <code>totalCals</code>
+         * @return the sum of the items' Calories
+         */
+        public long getTotalCals() {
+            return totalCals;
+        }
+
+        /**
+         * @return the mean Calories of the items, 0 if there are none
+         */
+        public double getAverageCals() {
+            return count == 0 ? 0 : (double) totalCals / count;
+        }
+
+        /**
+         * Getter for <code>minCals</code>
+         * @return the lowest Calories of any item, 0 if there are none
+         */
+        public int getMinCals() {
+            return minCals;
+        }
+
+        /**
+         * Getter for <code>maxCals</code>
+         * @return the highest Calories of any item, 0 if there are none
+         */
+        public int getMaxCals() {
+            return maxCals;
+        }
+
+        /**
+         * Getter for <code>totalDailyPercentage</code>
+         * @return the sum of the items' daily percentages
+         */
+        public double getTotalDailyPercentage() {
+            return totalDailyPercentage;
+        }
+
+        /**
+         * @return the group if there is one, count, Calorie total, mean, lowest &amp; highest, &amp; daily percentage total
+         */
+        @Override
+        public String toString() {
+            return (group == null ? "" : group + ": ") + count + " items, " + totalCals + " calories (average " + Math.round(getAverageCals())
+                    + ", " + minCals + "-" + maxCals + "), " + Math.round(totalDailyPercentage * 100) + "% daily";
+        }
+    }
+
+    /**
+     * Number of items in each group, indexed by <code>FoodGroups</code> code + 1 (so items without a group are at 0).
+     */
+    private int[] counts = new int[0];
+
+    /**
+     * Sum of the Calories of each group's items, indexed the same as <code>counts</code>.
+     */
+    private long[] cals = new long[0];
+
+    /**
+     * Sum of the daily percentages of each group's items, indexed the same as <code>counts</code>.
+     */
+    private double[] daily = new double[0];
+
+    /**
+     * Lowest Calories in each group, indexed the same as <code>counts</code>. Only meaningful while the group has items &amp; isn't stale.
+     */
+    private int[] mins = new int[0];
+
+    /**
+     * Highest Calories in each group, indexed the same as <code>counts</code>. Only meaningful while the group has items &amp; isn't stale.
+     */
+    private int[] maxes = new int[0];
+
+    /**
+     * Number of each group's items at each Calorie value below <code>HISTOGRAM_LIMIT</code>, indexed the same as <code>counts</code> then by
+     * Calories. <code>null</code> for groups that have never had an item.
+     */
+    private int[][] histograms = new int[0][];
+
+    /**
+     * Number of each group's items with <code>HISTOGRAM_LIMIT</code> Calories or more, indexed the same as <code>counts</code>.
+     */
+    private int[] beyond = new int[0];
+
+    /**
+     * Whether each group's lowest &amp; highest Calories need recomputing, indexed the same as <code>counts</code>.
+     */
+    private boolean[] stale = new boolean[0];
+
+    /**
+     * Whether any group is stale.
+     */
+    private boolean anyStale;
+
+    /**
+     * Number of items in every group.
+     */
+    private int count;
+
+    /**
+     * Sum of the Calories of every item.
+     */
+    private long totalCals;
+
+    /**
+     * Sum of the daily percentages of every item.
+     */
+    private double totalDaily;
+
+    /**
+     * Totals a set of items, e.g. a meal. O(k) time for k items.
+     * @param foods the items
+     * @return their summary, for every group
+     */
+    public static Summary summarize(Food... foods) {
+        long total = 0;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        double daily = 0;
+        for(Food f : foods) {
+            total += f.getCals();
+            min = Math.min(min, f.getCals());
+            max = Math.max(max, f.getCals());
+            daily += f.getDailyPercentage();
+        }
+        return new Summary(null, foods.length, total, min, max, daily);
+    }
+
+    /**
+     * Counts an item that was added to the list. O(1) amortized time.
+     * @param f the item
+     */
+    void add(Food f) {
+        int group = f.getGroupCode() + 1, kcal = f.getCals();
+        if(group >= counts.length)
+            grow(group + 1);
+        count++;
+        totalCals += kcal;
+        totalDaily += f.getDailyPercentage();
+
+        // A group's first item sets its range, later ones can only widen it
+        if(counts[group]++ == 0) {
+            mins[group] = kcal;
+            maxes[group] = kcal;
+        } else if(!stale[group]) {
+            mins[group] = Math.min(mins[group], kcal);
+            maxes[group] = Math.max(maxes[group], kcal);
+        }
+        cals[group] += kcal;
+        daily[group] += f.getDailyPercentage();
+
+        if(kcal >= HISTOGRAM_LIMIT) {
+            beyond[group]++;
+            return;
+        }
+        int[] histogram = histograms[group];
+        if(histogram == null || kcal >= histogram.length) {
+            histogram = Arrays.copyOf(histogram == null ? new int[0] : histogram, Math.min(HISTOGRAM_LIMIT, Integer.highestOneBit(kcal) * 2 + 64));
+            histograms[group] = histogram;
+        }
+        histogram[kcal]++;
+    }
+
+    /**
+     * Uncounts an item that was removed from the list. O(1) time, plus the Calorie values stepped over if it was its group's lowest or highest.
+     * @param f the item
+     */
+    void remove(Food f) {
+        int group = f.getGroupCode() + 1, kcal = f.getCals();
+        count--;
+        totalCals -= kcal;
+        totalDaily -= f.getDailyPercentage();
+        cals[group] -= kcal;
+        daily[group] -= f.getDailyPercentage();
+
+        // Case: the group's last item, so start it afresh, sums & all
+        if(--counts[group] == 0) {
+            cals[group] = 0;
+            daily[group] = 0;
+            beyond[group] = 0;
+            if(histograms[group] != null)
+                Arrays.fill(histograms[group], 0);
+            stale[group] = false;
+            return;
+        }
+
+        int[] histogram = histograms[group];
+        if(kcal >= HISTOGRAM_LIMIT)
+            beyond[group]--;
+        else
+            histogram[kcal]--;
+        if(stale[group] || (kcal != mins[group] && kcal != maxes[group]))
+            return;
+
+        // Otherwise the range may have shrunk. Step to the next value still counted, unless the rest of the range is beyond the histogram
+        if(kcal == maxes[group] && (kcal >= HISTOGRAM_LIMIT || histogram[kcal] == 0)) {
+            if(beyond[group] > 0) {
+                stale[group] = true;
+                anyStale = true;
+                return;
+            }
+            int next = Math.min(kcal, histogram.length - 1);
+            while(histogram[next] == 0)
+                next--;
+            maxes[group] = next;
+        }
+        if(kcal == mins[group] && kcal < HISTOGRAM_LIMIT && histogram[kcal] == 0) {
+            int next = kcal;
+            while(next < histogram.length && histogram[next] == 0)
+                next++;
+            if(next == histogram.length) {
+                stale[group] = true;
+                anyStale = true;
+                return;
+            }
+            mins[group] = next;
+        } else if(kcal == mins[group] && kcal >= HISTOGRAM_LIMIT) {
+            stale[group] = true;
+            anyStale = true;
+        }
+    }
+
+    /**
+     * Adds another list's totals to these, for items moved over from it. O(groups) time plus the length of its histograms.
+     * @param other the other list's totals
+     */
+    void addAll(FoodStats other) {
+        if(other.counts.length > counts.length)
+            grow(other.counts.length);
+        count += other.count;
+        totalCals += other.totalCals;
+        totalDaily += other.totalDaily;
+        for(int group = 0; group < other.counts.length; group++) {
+            if(other.counts[group] == 0)
+                continue;
+            if(counts[group] == 0) {
+                mins[group] = other.mins[group];
+                maxes[group] = other.maxes[group];
+            } else {
+                mins[group] = Math.min(mins[group], other.mins[group]);
+                maxes[group] = Math.max(maxes[group], other.maxes[group]);
+            }
+            if(other.stale[group]) {
+                stale[group] = true;
+                anyStale = true;
+            }
+            counts[group] += other.counts[group];
+            cals[group] += other.cals[group];
+            daily[group] += other.daily[group];
+            beyond[group] += other.beyond[group];
+
+            int[] theirs = other.histograms[group];
+            if(theirs != null) {
+                int[] ours = histograms[group];
+                if(ours == null || ours.length < theirs.length)
+                    histograms[group] = ours = Arrays.copyOf(ours == null ? new int[0] : ours, theirs.length);
+                for(int kcal = 0; kcal < theirs.length; kcal++)
+                    ours[kcal] += theirs[kcal];
+            }
+        }
+    }
+
+    /**
+     * Forgets every item. O(groups) time.
+     */
+    void clear() {
+        counts = new int[0];
+        cals = new long[0];
+        daily = new double[0];
+        mins = new int[0];
+        maxes = new int[0];
+        histograms = new int[0][];
+        beyond = new int[0];
+        stale = new boolean[0];
+        anyStale = false;
+        count = 0;
+        totalCals = 0;
+        totalDaily = 0;
+    }
+
+    /**
+     * @return whether some group's lowest or highest Calories must be recomputed with <code>rescan</code> before they can be summarized
+     */
+    boolean isStale() {
+        return anyStale;
+    }
+
+    /**
+     * Recomputes the lowest &amp; highest Calories of every stale group. O(n) time.
+     * @param foods the items counted
+     */
+    void rescan(Iterable<Food> foods) {
+        for(int group = 0; group < stale.length; group++) {
+            if(stale[group]) {
+                mins[group] = Integer.MAX_VALUE;
+                maxes[group] = Integer.MIN_VALUE;
+            }
+        }
+        for(Food f : foods) {
+            int group = f.getGroupCode() + 1;
+            if(stale[group]) {
+                mins[group] = Math.min(mins[group], f.getCals());
+                maxes[group] = Math.max(maxes[group], f.getCals());
+            }
+        }
+        Arrays.fill(stale, false);
+        anyStale = false;
+    }
+
+    /**
+     * Totals of every item. O(groups) time. Only valid while not stale.
+     * @return the summary
+     */
+    Summary summary() {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for(int group = 0; group < counts.length; group++) {
+            if(counts[group] > 0) {
+                min = Math.min(min, mins[group]);
+                max = Math.max(max, maxes[group]);
+            }
+        }
+        return new Summary(null, count, totalCals, min, max, totalDaily);
+    }
+
+    /**
+     * Totals of one group. O(1) time. Only valid while not stale.
+     * @param group the food group
+     * @return the summary, with a count of 0 if the group has no items
+     */
+    Summary summary(String group) {
+        int code = FoodGroups.find(group) + 1;
+        if(code < 0 || code >= counts.length || counts[code] == 0)
+            return new Summary(group, 0, 0, 0, 0, 0);
+        return new Summary(group, counts[code], cals[code], mins[code], maxes[code], daily[code]);
+    }
+
+    /**
+     * Totals of each group with items, in the order <code>FoodGroups</code> first saw the groups. O(groups) time. Only valid while not stale.
+     * @return the summaries
+     */
+    Summary[] groupSummaries() {
+        int groups = 0;
+        for(int c : counts) {
+            if(c > 0)
+                groups++;
+        }
+        Summary[] summaries = new Summary[groups];
+        int i = 0;
+        for(int code = 0; code < counts.length; code++) {
+            if(counts[code] > 0)
+                summaries[i++] = summary(FoodGroups.name(code - 1));
+        }
+        return summaries;
+    }
+
+    /**
+     * Lengthens the per-group arrays.
+     * @param groups the number of groups to make room for, including "no group"
+     */
+    private void grow(int groups) {
+        int length = Math.max(groups, counts.length * 2);
+        counts = Arrays.copyOf(counts, length);
+        cals = Arrays.copyOf(cals, length);
+        daily = Arrays.copyOf(daily, length);
+        mins = Arrays.copyOf(mins, length);
+        maxes = Arrays.copyOf(maxes, length);
+        histograms = Arrays.copyOf(histograms, length);
+        beyond = Arrays.copyOf(beyond, length);
+        stale = Arrays.copyOf(stale, length);
+    }
+}
@@ -0,0 +1,458 @@
+package lab9;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Column-oriented alternative to <code>FoodList</code> for very large collections of <code>Food</code> items. Instead of a node &amp; a
+ * <code>Food</code> per item, each field is kept in its own primitive array: Calories in an <code>int[]</code>, daily percentages in a
+ * <code>double[]</code>, food groups as <code>FoodGroups</code> codes, since they repeat, &amp; names as UTF-8 text in one <code>byte[]</code> arena,
+ * found by an offset &amp; length per item. Names are nearly all distinct, so they are stored once each as they are, &amp; compared ignoring
+ * case a code point at a time, checking a hash of the folded name first. That's 28 bytes per item plus the bytes of its name, &amp; scans read
+ * consecutive memory instead of chasing pointers.
+ * Supports the same operations as <code>FoodList</code>. Items are handed out as <code>Food</code> views: new instances copied from the columns,
+ * so changing one does not change the store. Values are validated the same way <code>Food</code>'s setters do.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodStore implements Iterable<Food> {
+    /**
+     * Number of items stored.
+     */
+    protected int size;
+
+    /**
+     * Calories of each item. Valid up to <code>size</code>.
+     */
+    protected int[] kcal;
+
+    /**
+     * Daily percentage of each item. Valid up to <code>size</code>.
+     */
+    protected double[] daily;
+
+    /**
+     * <code>FoodGroups</code> code of each item's food group. Valid up to <code>size</code>.
+     */
+    protected int[] groups;
+
+    /**
+     * Hash of each item's case-folded name, the same as <code>FoodNameIndex</code> uses. Valid up to <code>size</code>.
+     */
+    protected int[] nameHashes;
+
+    /**
+     * Index in <code>text</code> of each item's name. Valid up to <code>size</code>.
+     */
+    protected int[] nameOffsets;
+
+    /**
+     * Length in bytes of each item's name, or -1 for a <code>null</code> name. Valid up to <code>size</code>.
+     */
+    protected int[] nameLengths;
+
+    /**
+     * UTF-8 names of the items, valid up to <code>textUsed</code>. Names of removed items stay until they outnumber the live ones.
+     */
+    protected byte[] text = new byte[256];
+
+    /**
+     * Bytes of <code>text</code> in use.
+     */
+    protected int textUsed;
+
+    /**
+     * Bytes of <code>text</code> holding names of items still in the store.
+     */
+    protected int textLive;
+
+    /**
+     * Default constructor. Makes an empty store.
+     */
+    public FoodStore() {
+        this(16);
+    }
+
+    /**
+     * Constructor with an expected number of items, so the columns can be sized up front.
+     * @param capacity number of items to make room for
+     */
+    public FoodStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        kcal = new int[capacity];
+        daily = new double[capacity];
+        groups = new int[capacity];
+        nameHashes = new int[capacity];
+        nameOffsets = new int[capacity];
+        nameLengths = new int[capacity];
+    }
+
+    /**
+     * Loads every <code>Food</code> in a file into a new store, straight from the file's bytes, &amp; widens <code>Food.columnWidths</code> to fit
+     * them. ASCII names are copied into the text arena without being decoded. See <code>FoodLoader</code>.
+     * @param path the file to read
+     * @return a store of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static FoodStore load(Path path) throws IOException {
+        FoodStore foods = new FoodStore();
+        FoodLoader loader = new FoodLoader();
+        loader.load(path, (data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily) ->
+                foods.add(loader, data, nameOffset, nameLength, loader.group(data, groupOffset, groupLength), kcal, daily));
+        return foods;
+    }
+
+    /**
+     * Adds a row passed to a <code>FoodLoader.RowHandler</code>, copying an ASCII name's bytes as they are &amp; decoding any other name first so
+     * the arena only ever holds valid UTF-8.
+     * @param loader the loader, to decode a name that isn't ASCII
+     * @param data the bytes of the file around this row
+     * @param nameOffset index in <code>data</code> of the first byte of the name
+     * @param nameLength length in bytes of the name
+     * @param group food group of the row
+     * @param kcal the Calorie value
+     * @param daily the daily percentage
+     */
+    private void add(FoodLoader loader, ByteBuffer data, int nameOffset, int nameLength, String group, int kcal, double daily) {
+        // Copy & hash in one pass, leaving the copy unused if the name turns out not to be ASCII
+        ensureText(nameLength);
+        int hash = 0;
+        for(int i = 0; i < nameLength; i++) {
+            byte b = data.get(nameOffset + i);
+            if(b < 0) {
+                add(loader.text(data, nameOffset, nameLength), group, kcal, daily);
+                return;
+            }
+            text[textUsed + i] = b;
+            hash = 31 * hash + FoodNameIndex.fold(b);
+        }
+        append(kcal, FoodGroups.code(group), daily, hash ^ (hash >>> 16), nameLength);
+    }
+
+    /**
+     * Adds a <code>Food</code>'s values to the end of the store. Amortized O(1) time.
+     * @param f <code>Food</code> instance to be added.
+     */
+    public void add(Food f) {
+        add(f.getName(), f.getGroup(), f.getCals(), f.getDailyPercentage());
+    }
+
+    /**
+     * Adds an item to the end of the store without building a <code>Food</code>. A negative <code>kcal</code> or <code>daily</code> is stored as 0,
+     * as <code>Food</code>'s full constructor would leave it. Amortized O(1) time.
+     * @param name Name of the food
+     * @param group Food group it belongs to
+     * @param kcal The amount of energy in Calories in a serving of the food
+     * @param daily Daily recommended percentage of the food per serving
+     */
+    public void add(String name, String group, int kcal, double daily) {
+        if(name == null) {
+            append(kcal, FoodGroups.code(group), daily, 0, -1);
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensureText(bytes.length);
+        System.arraycopy(bytes, 0, text, textUsed, bytes.length);
+        append(kcal, FoodGroups.code(group), daily, FoodNameIndex.hash(name), bytes.length);
+    }
+
+    /**
+     * Adds an item whose name was just copied to the end of the text arena.
+     * @param kcal the Calories, stored as 0 if negative
+     * @param group the food group code
+     * @param daily the daily percentage, stored as 0 if negative
+     * @param hash hash of the folded name
+     * @param nameLength length in bytes of the name, or -1 if it is <code>null</code>
+     */
+    private void append(int kcal, int group, double daily, int hash, int nameLength) {
+        if(size == this.kcal.length)
+            grow(size * 2);
+
+        this.kcal[size] = kcal >= 0 ? kcal : 0;
+        this.daily[size] = daily >= 0 ? daily : 0.0;
+        groups[size] = group;
+        nameHashes[size] = hash;
+        nameOffsets[size] = textUsed;
+        nameLengths[size] = nameLength;
+        textUsed += Math.max(nameLength, 0);
+        textLive += Math.max(nameLength, 0);
+        size++;
+    }
+
+    /**
+     * Getter for <code>size</code>
+     * @return the number of items in this store
+     */
+    public int getLength() {
+        return size;
+    }
+
+    /**
+     * Builds a <code>Food</code> view of an item.
+     * @param position position of the item, from 0
+     * @return a new <code>Food</code> with the item's values
+     */
+    public Food get(int position) {
+        checkPosition(position);
+        return new Food(name(position), FoodGroups.name(groups[position]), kcal[position], daily[position]);
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the name of the item, decoded from the text arena
+     */
+    public String getName(int position) {
+        checkPosition(position);
+        return name(position);
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the food group of the item
+     */
+    public String getGroup(int position) {
+        checkPosition(position);
+        return FoodGroups.name(groups[position]);
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the Calories of the item
+     */
+    public int getCals(int position) {
+        checkPosition(position);
+        return kcal[position];
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the daily percentage of the item
+     */
+    public double getDailyPercentage(int position) {
+        checkPosition(position);
+        return daily[position];
+    }
+
+    /**
+     * Deletes all items with Calories >= <code>cals</code>, shifting the rest down so they stay in order. O(n) time over the primitive columns.
+     * The removed names stay in the text arena until they take up more of it than the live ones, when it is compacted too.
+     * @param cals The Calorie threshold
+     */
+    public void removeHighCalFoods(int cals) {
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            if(kcal[i] < cals) {
+                kcal[kept] = kcal[i];
+                daily[kept] = daily[i];
+                groups[kept] = groups[i];
+                nameHashes[kept] = nameHashes[i];
+                nameOffsets[kept] = nameOffsets[i];
+                nameLengths[kept] = nameLengths[i];
+                kept++;
+            } else {
+                textLive -= Math.max(nameLengths[i], 0);
+            }
+        }
+        size = kept;
+
+        if(textUsed - textLive > textLive)
+            compactText();
+    }
+
+    /**
+     * Searches for an item by name (case-insensitive). If several items share the name, the first is returned. O(n) time, comparing the
+     * hashes in <code>nameHashes</code> &amp; only decoding the names whose hash matches, without allocating.
+     * @param name the name of the item to search for.
+     * @return a <code>Food</code> view of the item if found,<code>null</code> if not.
+     */
+    public Food findByName(String name) {
+        if(name == null)
+            return null;
+        int hash = FoodNameIndex.hash(name);
+        for(int i = 0; i < size; i++) {
+            if(nameHashes[i] == hash && nameMatches(i, name))
+                return get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Picks items at random for a meal, possibly the same one more than once. Uses a generator kept by the calling thread. O(k) time.
+     * @param numFoods the number of items to be included in the random meal.
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods) {
+        return randomMeal(numFoods, true, FoodList.random.get());
+    }
+
+    /**
+     * Picks items at random for a meal using a generator seeded with <code>seed</code>, so the same store &amp; seed always give the same meal.
+     * @param numFoods the number of items to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param seed the seed for the generator
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, long seed) {
+        return randomMeal(numFoods, replacement, new SplittableRandom(seed));
+    }
+
+    /**
+     * Picks items at random for a meal. See <code>FoodList.randomMeal(int, boolean, SplittableRandom)</code>. O(k) time.
+     * @param numFoods the number of items to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) {
+        FoodList.checkMeal(size, numFoods, replacement);
+        int[] picks = new int[numFoods];
+        FoodList.pickPositions(size, replacement, rand, picks, 0, numFoods);
+
+        Food[] meal = new Food[numFoods];
+        for(int i = 0; i < numFoods; i++)
+            meal[i] = get(picks[i]);
+        return meal;
+    }
+
+    /**
+     * @return "Empty list!" if the store is empty, otherwise each item, in order, on its own line.
+     */
+    @Override
+    public String toString() {
+        if(size == 0)
+            return "Empty list!\n";
+        StringBuilder s = new StringBuilder();
+
+        for(Food f : this) {
+            s.append(f);
+            s.append('\n');
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that hands out a <code>Food</code> view of each item, in order.
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return new Iterator<Food>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public Food next() {
+                if(position >= size)
+                    throw new NoSuchElementException();
+                return get(position++);
+            }
+        };
+    }
+
+    /**
+     * Makes sure a position holds an item.
+     * @param position the position to check
+     */
+    private void checkPosition(int position) {
+        if(position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("position " + position + " is outside a store of " + size + " items!");
+    }
+
+    /**
+     * Decodes an item's name from the text arena.
+     * @param position position of the item
+     * @return the name
+     */
+    private String name(int position) {
+        int length = nameLengths[position];
+        return length < 0 ? null : new String(text, nameOffsets[position], length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares an item's name with another, ignoring case the way <code>FoodNameIndex</code> does, by decoding the stored UTF-8 a code point at a
+     * time.
+     * @param position position of the item
+     * @param name the name to compare with
+     * @return whether the names are equal ignoring case
+     */
+    private boolean nameMatches(int position, String name) {
+        int length = nameLengths[position];
+        if(length < 0)
+            return false;
+        int offset = nameOffsets[position];
+        int end = offset + length;
+        int i = 0;
+        while(offset < end && i < name.length()) {
+            // Decode one code point of valid UTF-8
+            int b = text[offset++];
+            int codePoint;
+            if(b >= 0) {
+                codePoint = b;
+            } else {
+                int extra = b >= -32 ? (b >= -16 ? 3 : 2) : 1;
+                codePoint = b & (0x3F >> extra);
+                for(int j = 0; j < extra; j++)
+                    codePoint = codePoint << 6 | text[offset++] & 0x3F;
+            }
+
+            int other = name.codePointAt(i);
+            if(FoodNameIndex.fold(codePoint) != FoodNameIndex.fold(other))
+                return false;
+            i += Character.charCount(other);
+        }
+        return offset == end && i == name.length();
+    }
+
+    /**
+     * Makes sure a name fits at the end of the text arena, growing it if not.
+     * @param length length in bytes of the name
+     */
+    private void ensureText(int length) {
+        long needed = (long) textUsed + length;
+        if(needed <= text.length)
+            return;
+        if(needed > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("The names in a FoodStore can't take up more than 2 GB!");
+        text = Arrays.copyOf(text, (int) Math.min(Math.max(needed, (long) text.length * 2), Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * Drops the names of removed items by copying the live ones to a new text arena, in item order.
+     */
+    private void compactText() {
+        byte[] moved = new byte[(int) Math.min(Math.max((long) textLive * 2, 256), Integer.MAX_VALUE - 8)];
+        int used = 0;
+        for(int i = 0; i < size; i++) {
+            int length = Math.max(nameLengths[i], 0);
+            System.arraycopy(text, nameOffsets[i], moved, used, length);
+            nameOffsets[i] = used;
+            used += length;
+        }
+        textUsed = used;
+        text = moved;
+    }
+
+    /**
+     * Resizes all the columns.
+     * @param capacity the new number of items to make room for
+     */
+    private void grow(int capacity) {
+        kcal = Arrays.copyOf(kcal, capacity);
+        daily = Arrays.copyOf(daily, capacity);
+        groups = Arrays.copyOf(groups, capacity);
+        nameHashes = Arrays.copyOf(nameHashes, capacity);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+    }
+}
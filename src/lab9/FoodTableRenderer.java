@@ -0,0 +1,253 @@
+package lab9;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Writes <code>Food</code>s as an aligned table, one row at a time, to a buffered output instead of building the whole table as one
+ * <code>String</code> the way <code>FoodList.toString()</code> does. Rows come from an <code>Iterator</code> used as a cursor, so a huge list can
+ * be shown a page at a time &amp; only the current row is ever held in memory. The renderer keeps the lines of the last rows it wrote in a
+ * small cache of fixed size, so listing the same page again doesn't format its items again unless they or <code>Food.columnWidths</code>
+ * changed. Items themselves hold no formatted text. Output is only guaranteed to appear after <code>flush</code>.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodTableRenderer {
+    /**
+     * Default number of lines cached, a few pages' worth.
+     */
+    public static final int DEFAULT_CACHED_LINES = 1 << 10;
+
+    /**
+     * A cached display line, with the item &amp; values it was formatted from &amp; the version of the column widths it was padded to.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class CachedLine {
+        /**
+         * The item.
+         */
+        final Food food;
+
+        /**
+         * Its name when formatted.
+         */
+        final String name;
+
+        /**
+         * Its food group when formatted.
+         */
+        final String group;
+
+        /**
+         * Its Calories when formatted.
+         */
+        final int kcal;
+
+        /**
+         * Its daily percentage when formatted.
+         */
+        final double daily;
+
+        /**
+         * <code>Food.DisplayWidths.version</code> it was padded to.
+         */
+        final int version;
+
+        /**
+         * The line.
+         */
+        final String line;
+
+        /**
+         * Constructor.
+         * @param food the item
+         * @param version the version of the widths it was padded to
+         * @param line the line
+         */
+        CachedLine(Food food, int version, String line) {
+            this.food = food;
+            this.name = food.getName();
+            this.group = food.getGroup();
+            this.kcal = food.getCals();
+            this.daily = food.getDailyPercentage();
+            this.version = version;
+            this.line = line;
+        }
+
+        /**
+         * @param f an item
+         * @param version the current version of the column widths
+         * @return whether this is the line of <code>f</code> as it is now, padded to the current widths
+         */
+        boolean matches(Food f, int version) {
+            // Setters store what they're given, so an unchanged field is the same reference
+            return food == f && this.version == version && name == f.getName() && group == f.getGroup() && kcal == f.getCals()
+                    && Double.doubleToRawLongBits(daily) == Double.doubleToRawLongBits(f.getDailyPercentage());
+        }
+    }
+
+    /**
+     * Where the table goes.
+     */
+    protected final Writer out;
+
+    /**
+     * Lines of the rows written most recently, indexed by the identity hash of their item. A new line replaces whatever shared its slot.
+     */
+    private final CachedLine[] cache;
+
+    /**
+     * Constructor for writing to a <code>Writer</code>, which is buffered unless it already is, caching <code>DEFAULT_CACHED_LINES</code> lines.
+     * @param out where to write the table
+     */
+    public FoodTableRenderer(Writer out) {
+        this(out, DEFAULT_CACHED_LINES);
+    }
+
+    /**
+     * Constructor for writing to a <code>Writer</code>, which is buffered unless it already is.
+     * @param out where to write the table
+     * @param cachedLines the most lines to cache, rounded up to a power of 2; 0 to cache none
+     */
+    public FoodTableRenderer(Writer out, int cachedLines) {
+        if(cachedLines < 0 || cachedLines > 1 << 30)
+            throw new IllegalArgumentException("cachedLines must be between 0 & 2^30!");
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+        this.cache = cachedLines == 0 ? null : new CachedLine[cachedLines == 1 ? 1 : Integer.highestOneBit(cachedLines - 1) << 1];
+    }
+
+    /**
+     * Constructor for writing to a stream, e.g. <code>System.out</code>, through a buffer. Uses the stream's charset if it is a
+     * <code>PrintStream</code>, the default charset if not.
+     * @param out where to write the table
+     */
+    public FoodTableRenderer(OutputStream out) {
+        this(new OutputStreamWriter(out, out instanceof PrintStream ? ((PrintStream) out).charset() : Charset.defaultCharset()));
+    }
+
+    /**
+     * Writes the table headers from <code>Food.tableHeaders</code>, padded to the current <code>Food.columnWidths</code>, &amp; a newline.
+     */
+    public void header() {
+        int[] widths = Food.displayWidths().widths;
+        try {
+            for(int i = 0; i < Food.tableHeaders.length; i++) {
+                out.write(Food.tableHeaders[i]);
+                spaces(widths[i] - Food.tableHeaders[i].length() + (i < Food.tableHeaders.length - 1 ? 1 : 0));
+            }
+            out.write('\n');
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes every remaining row from a cursor.
+     * @param cursor the rows to write
+     * @return the number of rows written
+     */
+    public long rows(Iterator<Food> cursor) {
+        long started = FoodMetrics.start();
+        long written = 0;
+        while(cursor.hasNext()) {
+            row(cursor.next());
+            written++;
+        }
+        FoodMetrics.stop(FoodMetrics.Operation.LIST, started);
+        return written;
+    }
+
+    /**
+     * Writes the next page of rows from a cursor, leaving it at the start of the following page.
+     * @param cursor the rows to write
+     * @param pageSize the most rows to write
+     * @return the number of rows written, less than <code>pageSize</code> only if the cursor ran out
+     */
+    public int page(Iterator<Food> cursor, int pageSize) {
+        long started = FoodMetrics.start();
+        int written = 0;
+        while(written < pageSize && cursor.hasNext()) {
+            row(cursor.next());
+            written++;
+        }
+        FoodMetrics.stop(FoodMetrics.Operation.LIST, started);
+        return written;
+    }
+
+    /**
+     * Writes every item as a row, or "Empty list!" if there are none.
+     * @param foods the items to write
+     * @return the number of rows written
+     */
+    public long table(Iterable<Food> foods) {
+        Iterator<Food> cursor = foods.iterator();
+        if(!cursor.hasNext()) {
+            line("Empty list!");
+            return 0;
+        }
+        return rows(cursor);
+    }
+
+    /**
+     * Writes a single row &amp; a newline, reusing its cached line if it has one that is still current.
+     * @param f the item to write
+     */
+    public void row(Food f) {
+        if(cache == null) {
+            line(f.toString());
+            return;
+        }
+        Food.DisplayWidths widths = Food.displayWidths();
+        int slot = System.identityHashCode(f) & (cache.length - 1);
+        CachedLine cached = cache[slot];
+        if(cached == null || !cached.matches(f, widths.version)) {
+            cached = new CachedLine(f, widths.version, f.toString(widths.widths));
+            cache[slot] = cached;
+        }
+        line(cached.line);
+    }
+
+    /**
+     * Sends everything written so far on to the output.
+     */
+    public void flush() {
+        try {
+            out.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a line of text &amp; a newline.
+     * @param text the text
+     */
+    private void line(String text) {
+        try {
+            out.write(text);
+            out.write('\n');
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes spaces.
+     * @param count how many, none if &lt;= 0
+     * @throws IOException if the output fails
+     */
+    private void spaces(int count) throws IOException {
+        for(int i = 0; i < count; i++)
+            out.write(' ');
+    }
+}
@@ -0,0 +1,353 @@
+package lab9;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps a <code>FoodList</code> in step with a food file that other programs append to. Remembers how many bytes of the file are already in
+ * the list, so each <code>refresh</code> only parses the complete lines added since &amp; splices them onto the list, which keeps its indexes up
+ * to date &amp; widens <code>Food.columnWidths</code> for just the new items. If anything other than an append happened, i.e. the file shrank,
+ * was rewritten at the same size, had its last line extended or no longer holds the bytes already loaded, the whole file is loaded again
+ * instead.
+ * <p>
+ * Checking is polling: a <code>refresh</code> that finds the file's size &amp; modification time unchanged costs one file system lookup. One
+ * that finds them changed checksums the last <code>TAIL</code> bytes already loaded &amp; reads only the new bytes after them, so its cost
+ * depends on how much was appended, not on the size of the file. A rewrite that leaves that block &amp; everything before it the same length
+ * while changing earlier bytes goes unnoticed until the next full load. Not thread-safe, like <code>FoodList</code>, so call it from the
+ * thread that uses the list, e.g. before each menu action.
+ * <p>
+ * Given a <code>FoodParseReport</code>, full loads &amp; refreshes skip malformed rows instead of throwing for the first one. Each records them
+ * in a report of its own with the same capacity &amp; budget, numbered by line from the start of the file, which <code>getReport</code> returns.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class FoodWatcher {
+    /**
+     * Most times a full load is retried when the file changes while it is being read.
+     */
+    private static final int ATTEMPTS = 5;
+
+    /**
+     * Number of bytes just before <code>consumed</code> whose checksum tells an append from a rewrite.
+     */
+    static final int TAIL = 1 << 16;
+
+    /**
+     * The food file.
+     */
+    private final Path text;
+
+    /**
+     * Its binary snapshot, used &amp; rebuilt on full loads, or <code>null</code> to always parse the text.
+     */
+    private final Path snapshot;
+
+    /**
+     * Whether full loads of the text parse it on all cores.
+     */
+    private final boolean parallel;
+
+    /**
+     * The live list.
+     */
+    private final FoodList foods;
+
+    /**
+     * Report whose capacity &amp; budget the report of each load &amp; refresh copies, or <code>null</code> to throw for the first malformed row.
+     */
+    private final FoodParseReport template;
+
+    /**
+     * Malformed rows skipped by the last full load or refresh, or <code>null</code> if throwing for them.
+     */
+    private FoodParseReport report;
+
+    /**
+     * Byte offset just past the last line already in the list. Blank lines after it are left unconsumed, since a row following them makes them
+     * malformed rows.
+     */
+    private long consumed;
+
+    /**
+     * Number of \n line terminators before <code>consumed</code>, so malformed rows in appended lines can be numbered from the start of the file.
+     */
+    private long lines;
+
+    /**
+     * Whether the last row in the list had no line terminator, so anything appended would change it.
+     */
+    private boolean lastLineOpen;
+
+    /**
+     * Size of the file when last checked.
+     */
+    private long size;
+
+    /**
+     * Modification time of the file when last checked, in ms since the epoch.
+     */
+    private long modified;
+
+    /**
+     * CRC-32C of the <code>TAIL</code> bytes before <code>consumed</code>, or of all of them if there are fewer, to tell an append from a
+     * rewrite.
+     */
+    private long fingerprint;
+
+    /**
+     * Constructor. Call <code>reload</code> before use.
+     * @param text the food file
+     * @param snapshot its binary snapshot, or <code>null</code>
+     * @param parallel whether to parse the text on all cores when loading it all
+     * @param template report whose capacity &amp; budget to copy, or <code>null</code> to throw for the first malformed row
+     */
+    private FoodWatcher(Path text, Path snapshot, boolean parallel, FoodParseReport template) {
+        this.text = text;
+        this.snapshot = snapshot;
+        this.parallel = parallel;
+        this.template = template;
+        foods = new FoodList();
+    }
+
+    /**
+     * Loads a food file &amp; starts watching it.
+     * @param text the food file
+     * @param snapshot its binary snapshot, used &amp; rebuilt on full loads, or <code>null</code> to always parse the text
+     * @param parallel whether to parse the text on all cores when loading it all
+     * @return a watcher whose list holds the file's items
+     * @throws IOException if the file can't be read
+     */
+    public static FoodWatcher open(Path text, Path snapshot, boolean parallel) throws IOException {
+        return open(text, snapshot, parallel, null);
+    }
+
+    /**
+     * Loads a food file &amp; starts watching it, skipping malformed rows on every load &amp; refresh. See <code>getReport</code>.
+     * @param text the food file
+     * @param snapshot its binary snapshot, used &amp; rebuilt on full loads, or <code>null</code> to always parse the text
+     * @param parallel whether to parse the text on all cores when loading it all
+     * @param report report whose capacity &amp; budget each load's &amp; refresh's report copies, or <code>null</code> to throw for the first
+     * malformed row
+     * @return a watcher whose list holds the file's items
+     * @throws IOException if the file can't be read
+     */
+    public static FoodWatcher open(Path text, Path snapshot, boolean parallel, FoodParseReport report) throws IOException {
+        FoodWatcher watcher = new FoodWatcher(text, snapshot, parallel, report);
+        watcher.reload();
+        return watcher;
+    }
+
+    /**
+     * Getter for the live list. It stays the same instance across reloads.
+     * @return the list of the file's items
+     */
+    public FoodList getFoods() {
+        return foods;
+    }
+
+    /**
+     * Getter for <code>report</code>
+     * @return the malformed rows skipped by the last full load or refresh, empty if it found no new rows, or <code>null</code> if the watcher
+     * throws for them
+     */
+    public FoodParseReport getReport() {
+        return report;
+    }
+
+    /**
+     * Brings the list up to date with the file. Malformed new rows are skipped if the watcher has a report, otherwise the
+     * <code>InputMismatchException</code> of the first one is thrown. If one is thrown, including for running over the report's budget, the
+     * list &amp; <code>Food.columnWidths</code> are left unchanged &amp; the rows are tried again by the next <code>refresh</code>.
+     * @return the number of items added, or -1 if the whole file was loaded again
+     * @throws IOException if the file can't be read
+     */
+    public int refresh() throws IOException {
+        report = newReport();
+        long newSize = Files.size(text);
+        long newModified = Files.getLastModifiedTime(text).toMillis();
+        if(newSize == size && newModified == modified)
+            return 0;
+
+        try(FileChannel channel = FileChannel.open(text, StandardOpenOption.READ)) {
+            newSize = channel.size();
+
+            // Anything but new bytes after the old end means the file was rewritten
+            if(newSize <= size || lastLineOpen || newSize - consumed > FoodLoader.WINDOW || tailChecksum(channel, consumed) != fingerprint) {
+                reload();
+                return -1;
+            }
+
+            // Parse up to the end of the last complete, non-blank line
+            long limit = scanBack(channel, consumed, newSize, true);
+            long content = scanBack(channel, consumed, limit, false);
+            if(content == consumed) {
+                size = newSize;
+                modified = newModified;
+                return 0;
+            }
+            long end = FoodLoader.nextLine(channel, content, limit);
+            long newLines = checksum(channel, new CRC32C(), consumed, end, true);
+            long newFingerprint = tailChecksum(channel, end);
+            if(newLines < 0 || newFingerprint < 0)
+                throw new IOException("\"" + text + "\" was truncated while being read!");
+
+            // Number malformed rows from the start of the file, not of the new lines
+            FoodList added = new FoodList();
+            FoodParseReport skipped = newReport();
+            FoodLoader loader = new FoodLoader(skipped);
+            loader.line = lines;
+            loader.read(channel, consumed, end, (data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily) ->
+                    added.add(loader.food(data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily)));
+
+            int count = added.getLength();
+            foods.append(added);
+            Food.widenColumns(loader.getColumnWidths());
+
+            // Only record the file as seen once its new rows are in, so a failed refresh is retried
+            consumed = end;
+            lines += newLines;
+            report = skipped;
+            fingerprint = newFingerprint;
+            size = newSize;
+            modified = newModified;
+            return count;
+        }
+    }
+
+    /**
+     * Loads the whole file again, into the same list, retrying if the file changes while it is read.
+     * @throws IOException if the file can't be read
+     */
+    public void reload() throws IOException {
+        for(int attempt = 1; ; attempt++) {
+            long before = Files.size(text), beforeModified = Files.getLastModifiedTime(text).toMillis();
+            FoodParseReport skipped = newReport();
+            FoodList loaded = snapshot != null ? FoodSnapshot.load(text, snapshot, parallel, skipped)
+                    : parallel ? FoodLoader.loadParallel(text, ForkJoinPool.commonPool(), skipped) : FoodLoader.load(text, skipped);
+
+            try(FileChannel channel = FileChannel.open(text, StandardOpenOption.READ)) {
+                // Only trust the offsets if what we loaded is what's there now
+                if((channel.size() != before || Files.getLastModifiedTime(text).toMillis() != beforeModified) && attempt < ATTEMPTS)
+                    continue;
+
+                // The last row may be missing its terminator, in which case any append would extend it
+                long content = scanBack(channel, 0, before, false);
+                long end = FoodLoader.nextLine(channel, content, before);
+                lastLineOpen = content > 0 && end == before && byteAt(channel, before - 1) != '\n';
+                consumed = content == 0 ? 0 : end;
+                size = before;
+                modified = beforeModified;
+
+                // If the file was cut short meanwhile the checksum won't match, so the next refresh loads it again
+                lines = Math.max(checksum(channel, new CRC32C(), 0, consumed, true), 0);
+                fingerprint = tailChecksum(channel, consumed);
+            }
+
+            foods.clear();
+            foods.append(loaded);
+            report = skipped;
+            return;
+        }
+    }
+
+    /**
+     * Finds the last byte of a kind in a range of a file, reading backwards.
+     * @param channel the file
+     * @param from byte offset of the start of the range
+     * @param to byte offset just past the end of the range
+     * @param newline whether to look for \n, rather than for anything other than whitespace
+     * @return the offset just past the byte found, or <code>from</code> if there isn't one
+     * @throws IOException if the file can't be read
+     */
+    static long scanBack(FileChannel channel, long from, long to, boolean newline) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = to;
+        while(position > from) {
+            int length = (int) Math.min(buffer.capacity(), position - from);
+            buffer.clear().limit(length);
+            long start = position - length;
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, start + buffer.position()) < 0)
+                    throw new IOException("\"" + channel + "\" was truncated while being read!");
+            }
+            for(int i = length - 1; i >= 0; i--) {
+                byte b = buffer.get(i);
+                if(newline ? b == '\n' : !FoodLoader.isWhitespace(b))
+                    return start + i + 1;
+            }
+            position = start;
+        }
+        return from;
+    }
+
+    /**
+     * Reads one byte of a file.
+     * @param channel the file
+     * @param position its offset
+     * @return the byte
+     * @throws IOException if the file can't be read
+     */
+    private static byte byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        if(channel.read(buffer, position) < 1)
+            throw new IOException("\"" + channel + "\" was truncated while being read!");
+        return buffer.get(0);
+    }
+
+    /**
+     * @return a new, empty report with the capacity &amp; budget of <code>template</code>, or <code>null</code> if there is none
+     */
+    private FoodParseReport newReport() {
+        return template == null ? null : new FoodParseReport(template.getCapacity(), template.getBudget());
+    }
+
+    /**
+     * Checksums the <code>TAIL</code> bytes of a file before an offset, or all of them if there are fewer.
+     * @param channel the file
+     * @param end byte offset just past the block
+     * @return the CRC-32C of the block, or -1 if it wasn't all there to read
+     * @throws IOException if the file can't be read
+     */
+    private static long tailChecksum(FileChannel channel, long end) throws IOException {
+        CRC32C checksum = new CRC32C();
+        return checksum(channel, checksum, Math.max(0, end - TAIL), end, false) < 0 ? -1 : checksum.getValue();
+    }
+
+    /**
+     * Adds a range of a file to a checksum, optionally counting the lines in it.
+     * @param channel the file
+     * @param checksum the checksum
+     * @param from byte offset of the start of the range
+     * @param to byte offset just past the end of the range
+     * @param countLines whether to count the \n bytes in the range
+     * @return the number of \n bytes in the range if counted, otherwise 0, or -1 if the range wasn't all there to read
+     * @throws IOException if the file can't be read
+     */
+    static long checksum(FileChannel channel, CRC32C checksum, long from, long to, boolean countLines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        long lines = 0;
+        for(long position = from; position < to; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if(read < 0)
+                return -1;
+            buffer.flip();
+            if(countLines) {
+                for(int i = 0; i < read; i++) {
+                    if(buffer.get(i) == '\n')
+                        lines++;
+                }
+            }
+            checksum.update(buffer);
+            position += read;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,218 @@
+package lab9;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * A batch of random meals of the same number of foods, stored flat so it can be refilled without allocating: the list positions of every
+ * meal's items in one <code>int[]</code>, meal after meal, &amp; each meal's total Calories &amp; daily percentage alongside. Filled by
+ * <code>FoodList.randomMeals</code>.
+ * <p>
+ * Meals are generated in blocks of <code>BLOCK</code>, each with its own generator split off a seeded one in block order, so the blocks can be
+ * filled on all cores &amp; a seed still always gives the same meals, whatever the number of cores or the size of the batch.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class MealBatch {
+    /**
+     * Receives meals as a long run of them is generated, a batch at a time.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    public interface Sink {
+        /**
+         * Called with each filled batch, in order, from the thread that started the run. The batch is refilled after this returns, so anything
+         * needed later must be copied out.
+         * @param meals the batch
+         * @param first number of meals generated before this batch
+         */
+        void accept(MealBatch meals, long first);
+    }
+
+    /**
+     * Number of meals generated with each generator.
+     */
+    public static final int BLOCK = 1024;
+
+    /**
+     * Number of items in each meal.
+     */
+    protected final int numFoods;
+
+    /**
+     * List positions of the items of each meal, <code>numFoods</code> per meal.
+     */
+    protected final int[] positions;
+
+    /**
+     * Total Calories of each meal.
+     */
+    protected final long[] kcal;
+
+    /**
+     * Total daily percentage of each meal.
+     */
+    protected final double[] daily;
+
+    /**
+     * Number of meals currently filled.
+     */
+    protected int size;
+
+    /**
+     * The items the positions refer to, valid up to their list's length when filled.
+     */
+    protected Food[] items;
+
+    /**
+     * Constructor. Makes an empty batch.
+     * @param capacity the most meals it can hold
+     * @param numFoods number of items in each meal
+     */
+    public MealBatch(int capacity, int numFoods) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0!");
+        if(numFoods <= 0)
+            throw new IllegalArgumentException("numFoods must be > 0!");
+        if((long) capacity * numFoods > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("A batch can't hold " + capacity + " meals of " + numFoods + " foods!");
+        this.numFoods = numFoods;
+        positions = new int[capacity * numFoods];
+        kcal = new long[capacity];
+        daily = new double[capacity];
+    }
+
+    /**
+     * Fills the first <code>count</code> meals, in parallel if there is more than one block.
+     * @param items the items to pick from
+     * @param length the number of items to pick from
+     * @param replacement whether a meal can hold the same item more than once
+     * @param rand generator to split each block's generator off, in order
+     * @param count the number of meals
+     */
+    void fill(Food[] items, int length, boolean replacement, SplittableRandom rand, int count) {
+        FoodList.checkMeal(length, numFoods, replacement);
+        if(count > getCapacity())
+            throw new IllegalArgumentException("A batch of " + getCapacity() + " meals can't hold " + count + "!");
+        this.items = items;
+        size = count;
+
+        int blocks = (count + BLOCK - 1) / BLOCK;
+        SplittableRandom[] generators = new SplittableRandom[blocks];
+        for(int b = 0; b < blocks; b++)
+            generators[b] = rand.split();
+        IntStream stream = IntStream.range(0, blocks);
+        (blocks > 1 ? stream.parallel() : stream).forEach(b -> fillBlock(length, replacement, generators[b], b * BLOCK,
+                Math.min(count, (b + 1) * BLOCK)));
+    }
+
+    /**
+     * Fills a range of meals &amp; works out their totals.
+     * @param length the number of items to pick from
+     * @param replacement whether a meal can hold the same item more than once
+     * @param rand the generator to use
+     * @param from the first meal
+     * @param to one past the last meal
+     */
+    private void fillBlock(int length, boolean replacement, SplittableRandom rand, int from, int to) {
+        for(int m = from; m < to; m++) {
+            int offset = m * numFoods;
+            FoodList.pickPositions(length, replacement, rand, positions, offset, numFoods);
+            long cals = 0;
+            double per = 0;
+            for(int i = offset; i < offset + numFoods; i++) {
+                Food f = items[positions[i]];
+                cals += f.getCals();
+                per += f.getDailyPercentage();
+            }
+            kcal[m] = cals;
+            daily[m] = per;
+        }
+    }
+
+    /**
+     * Getter for <code>numFoods</code>
+     * @return the number of items in each meal
+     */
+    public int getFoodsPerMeal() {
+        return numFoods;
+    }
+
+    /**
+     * Getter for <code>size</code>
+     * @return the number of meals filled
+     */
+    public int getLength() {
+        return size;
+    }
+
+    /**
+     * @return the most meals the batch can hold
+     */
+    public int getCapacity() {
+        return kcal.length;
+    }
+
+    /**
+     * @param meal a meal, from 0
+     * @param i an item of the meal, from 0
+     * @return the list position of the item
+     */
+    public int getPosition(int meal, int i) {
+        checkMeal(meal);
+        if(i < 0 || i >= numFoods)
+            throw new IndexOutOfBoundsException("item " + i + " is outside a meal of " + numFoods + " foods!");
+        return positions[meal * numFoods + i];
+    }
+
+    /**
+     * @param meal a meal, from 0
+     * @param i an item of the meal, from 0
+     * @return the item
+     */
+    public Food getFood(int meal, int i) {
+        return items[getPosition(meal, i)];
+    }
+
+    /**
+     * @param meal a meal, from 0
+     * @return the total Calories of the meal
+     */
+    public long getCals(int meal) {
+        checkMeal(meal);
+        return kcal[meal];
+    }
+
+    /**
+     * @param meal a meal, from 0
+     * @return the total daily percentage of the meal
+     */
+    public double getDailyPercentage(int meal) {
+        checkMeal(meal);
+        return daily[meal];
+    }
+
+    /**
+     * Copies a meal out of the batch.
+     * @param meal a meal, from 0
+     * @return a new array of the meal's items
+     */
+    public Food[] getMeal(int meal) {
+        checkMeal(meal);
+        Food[] foods = new Food[numFoods];
+        for(int i = 0; i < numFoods; i++)
+            foods[i] = items[positions[meal * numFoods + i]];
+        return foods;
+    }
+
+    /**
+     * Makes sure a meal has been filled.
+     * @param meal the meal to check
+     */
+    private void checkMeal(int meal) {
+        if(meal < 0 || meal >= size)
+            throw new IndexOutOfBoundsException("meal " + meal + " is outside a batch of " + size + " meals!");
+    }
+}
@@ -0,0 +1,537 @@
+package lab9;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the best meals of a given number of different <code>Food</code>s whose Calories add up to no more than a budget, "best" meaning the
+ * highest total of a value per item, by default its daily percentage. Returns the top few meals, best first.
+ * <p>
+ * Two exact strategies are used. Small enough problems fill a knapsack table with a row per meal size &amp; a column per Calorie total, each cell
+ * holding the best few partial meals with exactly that many items &amp; Calories. That takes O(n &middot; numFoods &middot; budget) time, so
+ * when it would be too slow or too big (large meals, large budgets) a branch-and-bound search is used instead, which tries items from the most
+ * valuable down, skips any partial meal that can't beat the worst meal kept so far, &amp; searches the branches for each first item in parallel.
+ * <p>
+ * Either way the items are first thinned out: an item can be dropped if enough other items have no more Calories &amp; at least its value, since
+ * swapping it for one of those never makes a meal worse. The <code>Food</code>s must not be changed while a search runs.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class MealOptimizer {
+    /**
+     * Values items by their daily percentage.
+     */
+    public static final ToDoubleFunction<Food> DAILY = Food::getDailyPercentage;
+
+    /**
+     * Values items by their Calories, i.e. finds the most filling meals that fit the budget.
+     */
+    public static final ToDoubleFunction<Food> CALORIES = Food::getCals;
+
+    /**
+     * Most cells times meals kept per cell the knapsack table may have before the search is used instead.
+     */
+    static final long MAX_TABLE = 1 << 24;
+
+    /**
+     * Most item-cell visits the knapsack table may take before the search is used instead.
+     */
+    static final long MAX_TABLE_WORK = 1L << 31;
+
+    /**
+     * The items to pick from, in list order.
+     */
+    private final Food[] foods;
+
+    /**
+     * Pool used for parallel searches.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor, searching on the common fork/join pool.
+     * @param foods the items to pick meals from. Copied, so later changes to the list don't affect this optimizer.
+     */
+    public MealOptimizer(FoodList foods) {
+        this(foods, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     * @param foods the items to pick meals from. Copied, so later changes to the list don't affect this optimizer.
+     * @param pool the pool to search on
+     */
+    public MealOptimizer(FoodList foods, ForkJoinPool pool) {
+        this.foods = Arrays.copyOf(foods.positions(), foods.getLength());
+        this.pool = pool;
+    }
+
+    /**
+     * Finds the meals with the highest total daily percentage.
+     * @param numFoods the number of different items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @return up to <code>meals</code> meals, best first, each with its items in list order. Fewer if fewer meals fit the budget.
+     */
+    public Food[][] best(int numFoods, int budget, int meals) {
+        return best(numFoods, budget, meals, DAILY);
+    }
+
+    /**
+     * Finds the meals with the highest total value, using whichever strategy suits the problem. Which of several equally good meals are
+     * returned is unspecified.
+     * @param numFoods the number of different items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item. Must be finite.
+     * @return up to <code>meals</code> meals, best first, each with its items in list order. Fewer if fewer meals fit the budget.
+     */
+    public Food[][] best(int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        check(numFoods, budget, meals);
+        int[] items = candidates(numFoods, budget, meals, value);
+        long cells = (long) numFoods * (budget + 1L) * meals;
+        if(cells <= MAX_TABLE && cells / meals * items.length <= MAX_TABLE_WORK)
+            return byTable(items, numFoods, budget, meals, value);
+        return bySearch(items, numFoods, budget, meals, value);
+    }
+
+    /**
+     * Finds the meals with the highest total value by filling a knapsack table. O(n &middot; numFoods &middot; budget &middot; meals) time at
+     * worst, O(numFoods &middot; budget &middot; meals) memory.
+     * @param numFoods the number of different items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item. Must be finite.
+     * @return up to <code>meals</code> meals, best first, each with its items in list order
+     */
+    public Food[][] byTable(int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        check(numFoods, budget, meals);
+        return byTable(candidates(numFoods, budget, meals, value), numFoods, budget, meals, value);
+    }
+
+    /**
+     * Finds the meals with the highest total value by a parallel branch-and-bound search. Exponential time at worst, but fast when the most
+     * valuable items mostly fit the budget.
+     * @param numFoods the number of different items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item. Must be finite.
+     * @return up to <code>meals</code> meals, best first, each with its items in list order
+     */
+    public Food[][] bySearch(int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        check(numFoods, budget, meals);
+        return bySearch(candidates(numFoods, budget, meals, value), numFoods, budget, meals, value);
+    }
+
+    /**
+     * Makes sure a search makes sense.
+     * @param numFoods the number of items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     */
+    private static void check(int numFoods, int budget, int meals) {
+        if(numFoods <= 0)
+            throw new IllegalArgumentException("numFoods must be > 0!");
+        if(budget < 0)
+            throw new IllegalArgumentException("budget must be >= 0!");
+        if(meals <= 0)
+            throw new IllegalArgumentException("meals must be > 0!");
+    }
+
+    /**
+     * Drops the items that can't be in any of the best meals: those over budget, &amp; those with at least <code>numFoods + meals - 1</code>
+     * other items of no more Calories &amp; at least as much value ahead of them. Any meal using such an item can be turned into that many other
+     * meals at least as good by swapping it for one of the unused ones, so it can't be among the best <code>meals</code>.
+     * @param numFoods the number of items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item
+     * @return list positions of the items kept, in list order
+     */
+    private int[] candidates(int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        // Visit items by Calories, keeping the values of the best few seen so far in a min-heap
+        Integer[] order = new Integer[foods.length];
+        int count = 0;
+        for(int i = 0; i < foods.length; i++) {
+            if(foods[i].getCals() <= budget)
+                order[count++] = i;
+        }
+        Arrays.sort(order, 0, count, Comparator.comparingInt((Integer i) -> foods[i].getCals()).thenComparingInt(i -> i));
+
+        int keep = (int) Math.min(Integer.MAX_VALUE, (long) numFoods + meals - 1);
+        double[] heap = new double[Math.min(keep, Math.max(count, 1))];
+        int heapSize = 0, kept = 0;
+        int[] items = new int[count];
+        for(int k = 0; k < count; k++) {
+            double v = value.applyAsDouble(foods[order[k]]);
+            if(heapSize < heap.length) {
+                siftUp(heap, heapSize++, v);
+            } else if(v > heap[0]) {
+                siftDown(heap, heapSize, v);
+            } else {
+                continue;
+            }
+            items[kept++] = order[k];
+        }
+
+        items = Arrays.copyOf(items, kept);
+        Arrays.sort(items);
+        return items;
+    }
+
+    /**
+     * Fills the knapsack table for <code>byTable</code>. Cell (j, c) holds the best partial meals of j items &amp; exactly c Calories, each as
+     * its value &amp; a link into a pool of (item, link to the rest) pairs, so meals share their common prefixes.
+     * @param items list positions of the items to use, in list order
+     * @param numFoods the number of items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item
+     * @return up to <code>meals</code> meals, best first
+     */
+    private Food[][] byTable(int[] items, int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        int width = budget + 1;
+        double[][] values = new double[numFoods + 1][];
+        int[][] links = new int[numFoods + 1][];
+        int[][] counts = new int[numFoods + 1][];
+        for(int j = 0; j <= numFoods; j++) {
+            int cells = j == 0 ? 1 : width;
+            values[j] = new double[cells * meals];
+            links[j] = new int[cells * meals];
+            counts[j] = new int[cells];
+        }
+
+        // The empty meal
+        counts[0][0] = 1;
+        links[0][0] = -1;
+        int[] poolItems = new int[1024], poolLinks = new int[1024];
+        int poolSize = 0;
+
+        // Take each item into every partial meal one item smaller, biggest first so nothing takes the same item twice
+        for(int n = 0; n < items.length; n++) {
+            Food f = foods[items[n]];
+            int kcal = f.getCals();
+            double v = value.applyAsDouble(f);
+            for(int j = Math.min(numFoods, n + 1); j >= 1; j--) {
+                int[] fromCounts = counts[j - 1], toCounts = counts[j];
+                double[] fromValues = values[j - 1], toValues = values[j];
+                int[] fromLinks = links[j - 1], toLinks = links[j];
+                int highest = j == 1 ? kcal : budget;
+                for(int c = highest; c >= kcal; c--) {
+                    int from = c - kcal, fromCount = fromCounts[from];
+                    for(int r = 0; r < fromCount; r++) {
+                        // Entries are sorted, so once one doesn't get in none of the rest will
+                        double candidate = fromValues[from * meals + r] + v;
+                        int toCount = toCounts[c];
+                        if(toCount == meals && !(candidate > toValues[c * meals + meals - 1]))
+                            break;
+
+                        if(poolSize == poolItems.length) {
+                            poolItems = Arrays.copyOf(poolItems, poolSize * 2);
+                            poolLinks = Arrays.copyOf(poolLinks, poolSize * 2);
+                        }
+                        poolItems[poolSize] = items[n];
+                        poolLinks[poolSize] = fromLinks[from * meals + r];
+
+                        // Insert in order, dropping the worst if the cell is full
+                        int at = Math.min(toCount, meals - 1);
+                        while(at > 0 && candidate > toValues[c * meals + at - 1]) {
+                            toValues[c * meals + at] = toValues[c * meals + at - 1];
+                            toLinks[c * meals + at] = toLinks[c * meals + at - 1];
+                            at--;
+                        }
+                        toValues[c * meals + at] = candidate;
+                        toLinks[c * meals + at] = poolSize++;
+                        if(toCount < meals)
+                            toCounts[c]++;
+                    }
+                }
+            }
+        }
+
+        // Gather the full meals of every Calorie total & keep the best
+        List<int[]> best = new ArrayList<int[]>();
+        List<Double> totals = new ArrayList<Double>();
+        for(int c = 0; c <= budget; c++) {
+            for(int r = 0; r < counts[numFoods][c]; r++) {
+                int[] meal = new int[numFoods];
+                int link = links[numFoods][c * meals + r];
+                for(int i = numFoods - 1; i >= 0; i--) {
+                    meal[i] = poolItems[link];
+                    link = poolLinks[link];
+                }
+                best.add(meal);
+                totals.add(values[numFoods][c * meals + r]);
+            }
+        }
+        return top(best, totals, meals);
+    }
+
+    /**
+     * Runs the branch-and-bound search for <code>bySearch</code>.
+     * @param items list positions of the items to use, in list order
+     * @param numFoods the number of items in each meal
+     * @param budget the most Calories a meal may have
+     * @param meals the number of meals to return
+     * @param value the value of each item
+     * @return up to <code>meals</code> meals, best first
+     */
+    private Food[][] bySearch(int[] items, int numFoods, int budget, int meals, ToDoubleFunction<Food> value) {
+        if(items.length < numFoods)
+            return new Food[0][];
+
+        // Try the most valuable items first, so the first meals found are good & the bound is tight
+        Integer[] boxed = new Integer[items.length];
+        for(int i = 0; i < items.length; i++)
+            boxed[i] = items[i];
+        Arrays.sort(boxed, Comparator.comparingDouble((Integer i) -> -value.applyAsDouble(foods[i])).thenComparingInt(i -> i));
+        int n = boxed.length;
+        int[] order = new int[n], kcal = new int[n];
+        double[] values = new double[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = boxed[i];
+            kcal[i] = foods[order[i]].getCals();
+            values[i] = value.applyAsDouble(foods[order[i]]);
+        }
+
+        // The cheapest item from each position on, for ruling out meals that can't fit
+        int[] cheapest = new int[n + 1];
+        cheapest[n] = Integer.MAX_VALUE;
+        for(int i = n - 1; i >= 0; i--)
+            cheapest[i] = Math.min(kcal[i], cheapest[i + 1]);
+
+        Search search = new Search(order, kcal, values, cheapest, numFoods, meals);
+        pool.submit(() -> IntStream.range(0, n - numFoods + 1).parallel().forEach(first -> {
+            int[] chosen = new int[numFoods];
+            chosen[0] = first;
+            search.extend(chosen, 1, first + 1, budget - kcal[first], values[first]);
+        })).join();
+
+        List<int[]> best = new ArrayList<int[]>();
+        List<Double> totals = new ArrayList<Double>();
+        search.results(best, totals);
+        return top(best, totals, meals);
+    }
+
+    /**
+     * State shared by the branches of a branch-and-bound search.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private class Search {
+        /**
+         * List positions of the items, most valuable first.
+         */
+        final int[] order;
+
+        /**
+         * Calories of each item, in the same order.
+         */
+        final int[] kcal;
+
+        /**
+         * Value of each item, in the same order.
+         */
+        final double[] values;
+
+        /**
+         * Fewest Calories of any item from each position on.
+         */
+        final int[] cheapest;
+
+        /**
+         * Number of items in each meal.
+         */
+        final int numFoods;
+
+        /**
+         * Number of meals to keep.
+         */
+        final int meals;
+
+        /**
+         * Best meals found so far, as positions in <code>order</code>, worst first.
+         */
+        private final List<int[]> kept = new ArrayList<int[]>();
+
+        /**
+         * Totals of <code>kept</code>, in the same order.
+         */
+        private final List<Double> keptTotals = new ArrayList<Double>();
+
+        /**
+         * Total of the worst meal kept once there are <code>meals</code> of them, negative infinity until then. Read without locking to prune.
+         */
+        private volatile double threshold = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Constructor.
+         * @param order list positions of the items, most valuable first
+         * @param kcal Calories of each item
+         * @param values value of each item
+         * @param cheapest fewest Calories of any item from each position on
+         * @param numFoods number of items in each meal
+         * @param meals number of meals to keep
+         */
+        Search(int[] order, int[] kcal, double[] values, int[] cheapest, int numFoods, int meals) {
+            this.order = order;
+            this.kcal = kcal;
+            this.values = values;
+            this.cheapest = cheapest;
+            this.numFoods = numFoods;
+            this.meals = meals;
+        }
+
+        /**
+         * Tries every way of finishing a partial meal with items from <code>next</code> on.
+         * @param chosen positions in <code>order</code> of the items chosen so far
+         * @param count the number chosen
+         * @param next the first position that may be chosen next
+         * @param left Calories left in the budget
+         * @param total value of the items chosen
+         */
+        void extend(int[] chosen, int count, int next, int left, double total) {
+            if(left < 0)
+                return;
+            if(count == numFoods) {
+                offer(chosen, total);
+                return;
+            }
+
+            int needed = numFoods - count;
+            for(int i = next; i <= order.length - needed; i++) {
+                // The best possible finish is the next most valuable items, so stop once that can't beat the worst meal kept
+                double bound = total;
+                for(int k = i; k < i + needed; k++)
+                    bound += values[k];
+                if(bound < threshold)
+                    return;
+                if((long) cheapest[i] * needed > left)
+                    return;
+                if(kcal[i] > left)
+                    continue;
+
+                chosen[count] = i;
+                extend(chosen, count + 1, i + 1, left - kcal[i], total + values[i]);
+            }
+        }
+
+        /**
+         * Keeps a full meal if it is among the best so far.
+         * @param chosen positions in <code>order</code> of its items
+         * @param total its value
+         */
+        synchronized void offer(int[] chosen, double total) {
+            if(kept.size() == meals && total < threshold)
+                return;
+            int[] meal = new int[numFoods];
+            for(int i = 0; i < numFoods; i++)
+                meal[i] = order[chosen[i]];
+            Arrays.sort(meal);
+
+            int at = 0;
+            while(at < kept.size() && compare(total, meal, keptTotals.get(at), kept.get(at)) > 0)
+                at++;
+            if(kept.size() == meals && at == 0)
+                return;
+            kept.add(at, meal);
+            keptTotals.add(at, total);
+            if(kept.size() > meals) {
+                kept.remove(0);
+                keptTotals.remove(0);
+            }
+            if(kept.size() == meals)
+                threshold = keptTotals.get(0);
+        }
+
+        /**
+         * Hands over the meals kept.
+         * @param meals where to add the meals, as list positions
+         * @param totals where to add their totals
+         */
+        synchronized void results(List<int[]> meals, List<Double> totals) {
+            meals.addAll(kept);
+            totals.addAll(keptTotals);
+        }
+    }
+
+    /**
+     * Orders meals best first.
+     * @param total the total of one meal
+     * @param meal its list positions, ascending
+     * @param otherTotal the total of another
+     * @param other its list positions, ascending
+     * @return &gt; 0 if the first is better, &lt; 0 if the second is, 0 if they are the same meal
+     */
+    private static int compare(double total, int[] meal, double otherTotal, int[] other) {
+        int byTotal = Double.compare(total, otherTotal);
+        return byTotal != 0 ? byTotal : -Arrays.compare(meal, other);
+    }
+
+    /**
+     * Picks the best meals &amp; turns them into <code>Food</code>s.
+     * @param meals the meals, as list positions
+     * @param totals their totals, in the same order
+     * @param count the most to return
+     * @return up to <code>count</code> meals, best first, each with its items in list order
+     */
+    private Food[][] top(List<int[]> meals, List<Double> totals, int count) {
+        Integer[] order = new Integer[meals.size()];
+        for(int i = 0; i < order.length; i++) {
+            Arrays.sort(meals.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(totals.get(b), meals.get(b), totals.get(a), meals.get(a)));
+
+        Food[][] best = new Food[Math.min(count, order.length)][];
+        for(int m = 0; m < best.length; m++) {
+            int[] meal = meals.get(order[m]);
+            best[m] = new Food[meal.length];
+            for(int i = 0; i < meal.length; i++)
+                best[m][i] = foods[meal[i]];
+        }
+        return best;
+    }
+
+    /**
+     * Adds a value to a min-heap.
+     * @param heap the heap
+     * @param size its size before adding
+     * @param v the value
+     */
+    private static void siftUp(double[] heap, int size, double v) {
+        int i = size;
+        while(i > 0 && heap[(i - 1) / 2] > v) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = v;
+    }
+
+    /**
+     * Replaces the smallest value of a min-heap.
+     * @param heap the heap
+     * @param size its size
+     * @param v the new value
+     */
+    private static void siftDown(double[] heap, int size, double v) {
+        int i = 0;
+        while(2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if(child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if(heap[child] >= v)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = v;
+    }
+}
@@ -0,0 +1,536 @@
+package lab9;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Off-heap alternative to <code>FoodStore</code> for catalogues of tens of millions of items. Nothing is kept on the heap per item, so the garbage
+ * collector has nothing to trace or copy however big the store gets: each item is a fixed-width record in one native <code>MemorySegment</code>
+ * &amp; its name is UTF-8 text in a second one, the text arena. Food groups are <code>FoodGroups</code> codes in the record, since they repeat.
+ * <p>
+ * Record layout, <code>RECORD_BYTES</code> per item: Calories (<code>int</code>), food group code (<code>int</code>), daily percentage
+ * (<code>double</code>), hash of the case-folded name (<code>int</code>, the same as <code>FoodNameIndex</code> uses), name length in bytes
+ * (<code>int</code>, -1 for a <code>null</code> name) &amp; name offset in the text arena (<code>long</code>).
+ * <p>
+ * Scanning, <code>indexOf</code>, <code>removeHighCalFoods</code> &amp; picking meal positions read the segments in place &amp; allocate nothing;
+ * only the <code>Food</code> views handed out are built on the heap. Memory is released by <code>close</code>, after which the store can't be
+ * used. Not thread-safe, but may be used from any one thread at a time.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class OffHeapFoodStore implements Iterable<Food>, AutoCloseable {
+    /**
+     * Bytes per record.
+     */
+    public static final int RECORD_BYTES = 32;
+
+    /**
+     * Offset of each field in a record.
+     */
+    private static final long KCAL = 0, GROUP = 4, DAILY = 8, HASH = 16, NAME_LENGTH = 20, NAME_OFFSET = 24;
+
+    /**
+     * Number of items stored.
+     */
+    protected int size;
+
+    /**
+     * Owns <code>records</code>.
+     */
+    private Arena recordArena;
+
+    /**
+     * One record per item, valid up to <code>size</code>.
+     */
+    private MemorySegment records;
+
+    /**
+     * Owns <code>text</code>.
+     */
+    private Arena textArena;
+
+    /**
+     * UTF-8 names of the items, valid up to <code>textUsed</code>. Names of removed items stay until they outnumber the live ones.
+     */
+    private MemorySegment text;
+
+    /**
+     * Bytes of <code>text</code> in use.
+     */
+    private long textUsed;
+
+    /**
+     * Bytes of <code>text</code> holding names of items still in the store.
+     */
+    private long textLive;
+
+    /**
+     * Default constructor. Makes an empty store.
+     */
+    public OffHeapFoodStore() {
+        this(1024);
+    }
+
+    /**
+     * Constructor with an expected number of items, so the segments can be sized up front.
+     * @param capacity number of items to make room for
+     */
+    public OffHeapFoodStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        recordArena = Arena.ofShared();
+        records = recordArena.allocate((long) capacity * RECORD_BYTES, Long.BYTES);
+        textArena = Arena.ofShared();
+        text = textArena.allocate((long) capacity * 16, 1);
+    }
+
+    /**
+     * Loads every <code>Food</code> in a file into a new store, straight from the file's bytes, &amp; widens <code>Food.columnWidths</code> to fit
+     * them. ASCII names are copied into the text arena without being decoded. See <code>FoodLoader</code>.
+     * @param path the file to read
+     * @return a store of the file's items, in order
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static OffHeapFoodStore load(Path path) throws IOException {
+        OffHeapFoodStore foods = new OffHeapFoodStore();
+        FoodLoader loader = new FoodLoader();
+        try {
+            loader.load(path, (data, nameOffset, nameLength, groupOffset, groupLength, kcal, daily) ->
+                    foods.add(loader, data, nameOffset, nameLength, loader.group(data, groupOffset, groupLength), kcal, daily));
+        } catch(IOException | RuntimeException | Error e) {
+            // Shared arenas are never freed by the garbage collector
+            foods.close();
+            throw e;
+        }
+        return foods;
+    }
+
+    /**
+     * Adds a row passed to a <code>FoodLoader.RowHandler</code>, copying an ASCII name's bytes as they are &amp; decoding any other name first so
+     * the arena only ever holds valid UTF-8.
+     * @param loader the loader, to decode a name that isn't ASCII
+     * @param data the bytes of the file around this row
+     * @param nameOffset index in <code>data</code> of the first byte of the name
+     * @param nameLength length in bytes of the name
+     * @param group food group of the row
+     * @param kcal the Calorie value
+     * @param daily the daily percentage
+     */
+    private void add(FoodLoader loader, ByteBuffer data, int nameOffset, int nameLength, String group, int kcal, double daily) {
+        // Copy & hash in one pass, leaving the copy unused if the name turns out not to be ASCII
+        ensureText(nameLength);
+        int hash = 0;
+        for(int i = 0; i < nameLength; i++) {
+            byte b = data.get(nameOffset + i);
+            if(b < 0) {
+                add(loader.text(data, nameOffset, nameLength), group, kcal, daily);
+                return;
+            }
+            text.set(ValueLayout.JAVA_BYTE, textUsed + i, b);
+            hash = 31 * hash + FoodNameIndex.fold(b);
+        }
+        append(kcal, FoodGroups.code(group), daily, hash ^ (hash >>> 16), nameLength);
+    }
+
+    /**
+     * Adds a <code>Food</code>'s values to the end of the store. Amortized O(1) time.
+     * @param f <code>Food</code> instance to be added.
+     */
+    public void add(Food f) {
+        add(f.getName(), f.getGroup(), f.getCals(), f.getDailyPercentage());
+    }
+
+    /**
+     * Adds an item to the end of the store without building a <code>Food</code>. A negative <code>kcal</code> or <code>daily</code> is stored as 0,
+     * as <code>Food</code>'s full constructor would leave it. Amortized O(1) time.
+     * @param name Name of the food
+     * @param group Food group it belongs to
+     * @param kcal The amount of energy in Calories in a serving of the food
+     * @param daily Daily recommended percentage of the food per serving
+     */
+    public void add(String name, String group, int kcal, double daily) {
+        if(name == null) {
+            append(kcal, FoodGroups.code(group), daily, 0, -1);
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensureText(bytes.length);
+        MemorySegment.copy(bytes, 0, text, ValueLayout.JAVA_BYTE, textUsed, bytes.length);
+        append(kcal, FoodGroups.code(group), daily, FoodNameIndex.hash(name), bytes.length);
+    }
+
+    /**
+     * Writes a record for a name just copied to the end of the text arena.
+     * @param kcal the Calories, stored as 0 if negative
+     * @param group the food group code
+     * @param daily the daily percentage, stored as 0 if negative
+     * @param hash hash of the folded name
+     * @param nameLength length in bytes of the name, or -1 if it is <code>null</code>
+     */
+    private void append(int kcal, int group, double daily, int hash, int nameLength) {
+        if((long) (size + 1) * RECORD_BYTES > records.byteSize())
+            growRecords(records.byteSize() * 2);
+
+        long record = (long) size * RECORD_BYTES;
+        records.set(ValueLayout.JAVA_INT, record + KCAL, kcal >= 0 ? kcal : 0);
+        records.set(ValueLayout.JAVA_INT, record + GROUP, group);
+        records.set(ValueLayout.JAVA_DOUBLE, record + DAILY, daily >= 0 ? daily : 0.0);
+        records.set(ValueLayout.JAVA_INT, record + HASH, hash);
+        records.set(ValueLayout.JAVA_INT, record + NAME_LENGTH, nameLength);
+        records.set(ValueLayout.JAVA_LONG, record + NAME_OFFSET, textUsed);
+        textUsed += Math.max(nameLength, 0);
+        textLive += Math.max(nameLength, 0);
+        size++;
+    }
+
+    /**
+     * Getter for <code>size</code>
+     * @return the number of items in this store
+     */
+    public int getLength() {
+        return size;
+    }
+
+    /**
+     * @return the bytes of native memory the store has reserved
+     */
+    public long getOffHeapBytes() {
+        return records.byteSize() + text.byteSize();
+    }
+
+    /**
+     * Builds a <code>Food</code> view of an item.
+     * @param position position of the item, from 0
+     * @return a new <code>Food</code> with the item's values
+     */
+    public Food get(int position) {
+        checkPosition(position);
+        long record = (long) position * RECORD_BYTES;
+        return new Food(name(record), FoodGroups.name(records.get(ValueLayout.JAVA_INT, record + GROUP)),
+                records.get(ValueLayout.JAVA_INT, record + KCAL), records.get(ValueLayout.JAVA_DOUBLE, record + DAILY));
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the name of the item, decoded from the text arena
+     */
+    public String getName(int position) {
+        checkPosition(position);
+        return name((long) position * RECORD_BYTES);
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the food group of the item
+     */
+    public String getGroup(int position) {
+        checkPosition(position);
+        return FoodGroups.name(records.get(ValueLayout.JAVA_INT, (long) position * RECORD_BYTES + GROUP));
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the Calories of the item
+     */
+    public int getCals(int position) {
+        checkPosition(position);
+        return records.get(ValueLayout.JAVA_INT, (long) position * RECORD_BYTES + KCAL);
+    }
+
+    /**
+     * @param position position of the item, from 0
+     * @return the daily percentage of the item
+     */
+    public double getDailyPercentage(int position) {
+        checkPosition(position);
+        return records.get(ValueLayout.JAVA_DOUBLE, (long) position * RECORD_BYTES + DAILY);
+    }
+
+    /**
+     * Deletes all items with Calories >= <code>cals</code> by compaction, moving each kept record down over the removed ones so the rest stay in
+     * order. O(n) time over the records. The removed names stay in the text arena until they take up more of it than the live ones, when it is
+     * compacted too. Allocates nothing unless the text arena is compacted.
+     * @param cals The Calorie threshold
+     */
+    public void removeHighCalFoods(int cals) {
+        // Kept records are moved a run at a time, from the first after a removed one up to the next removed one
+        int kept = 0, run = 0;
+        for(int i = 0; i < size; i++) {
+            long record = (long) i * RECORD_BYTES;
+            if(records.get(ValueLayout.JAVA_INT, record + KCAL) >= cals) {
+                textLive -= Math.max(records.get(ValueLayout.JAVA_INT, record + NAME_LENGTH), 0);
+                kept += move(run, i, kept);
+                run = i + 1;
+            }
+        }
+        size = kept + move(run, size, kept);
+
+        if(textUsed - textLive > textLive)
+            compactText();
+    }
+
+    /**
+     * Moves a run of records down, if they aren't there already.
+     * @param from position of the first record
+     * @param to position just past the last record
+     * @param target position to move the first record to, &lt;= <code>from</code>
+     * @return the number of records moved
+     */
+    private int move(int from, int to, int target) {
+        if(target != from && to > from)
+            MemorySegment.copy(records, (long) from * RECORD_BYTES, records, (long) target * RECORD_BYTES, (long) (to - from) * RECORD_BYTES);
+        return to - from;
+    }
+
+    /**
+     * Searches for an item by name (case-insensitive). If several items share the name, the first is returned. O(n) time, comparing the
+     * hashes in the records &amp; only decoding the names whose hash matches, without allocating.
+     * @param name the name of the item to search for.
+     * @return the position of the item if found, -1 if not.
+     */
+    public int indexOf(String name) {
+        if(name == null)
+            return -1;
+        int hash = FoodNameIndex.hash(name);
+        for(int i = 0; i < size; i++) {
+            long record = (long) i * RECORD_BYTES;
+            if(records.get(ValueLayout.JAVA_INT, record + HASH) == hash && nameMatches(record, name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Searches for an item by name (case-insensitive). If several items share the name, the first is returned. See <code>indexOf</code>.
+     * @param name the name of the item to search for.
+     * @return a <code>Food</code> view of the item if found,<code>null</code> if not.
+     */
+    public Food findByName(String name) {
+        int position = indexOf(name);
+        return position < 0 ? null : get(position);
+    }
+
+    /**
+     * Picks items at random for a meal, possibly the same one more than once. Uses a generator kept by the calling thread. O(k) time.
+     * @param numFoods the number of items to be included in the random meal.
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods) {
+        return randomMeal(numFoods, true, FoodList.random.get());
+    }
+
+    /**
+     * Picks items at random for a meal using a generator seeded with <code>seed</code>, so the same store &amp; seed always give the same meal.
+     * @param numFoods the number of items to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param seed the seed for the generator
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, long seed) {
+        return randomMeal(numFoods, replacement, new SplittableRandom(seed));
+    }
+
+    /**
+     * Picks items at random for a meal. See <code>FoodList.randomMeal(int, boolean, SplittableRandom)</code>. O(k) time.
+     * @param numFoods the number of items to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code> views of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) {
+        int[] picks = new int[numFoods];
+        randomMeal(picks, replacement, rand);
+
+        Food[] meal = new Food[numFoods];
+        for(int i = 0; i < numFoods; i++)
+            meal[i] = get(picks[i]);
+        return meal;
+    }
+
+    /**
+     * Picks the positions of items at random for a meal, filling a caller-supplied array so that, with replacement, nothing is allocated. Read
+     * the items with the positional getters. O(k) time.
+     * @param picks array to fill with positions, one per item in the meal
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     */
+    public void randomMeal(int[] picks, boolean replacement, SplittableRandom rand) {
+        FoodList.checkMeal(size, picks.length, replacement);
+        FoodList.pickPositions(size, replacement, rand, picks, 0, picks.length);
+    }
+
+    /**
+     * Frees the store's native memory. The store can't be used afterwards. Closing it again does nothing, as <code>AutoCloseable</code>
+     * recommends.
+     */
+    @Override
+    public void close() {
+        // Both arenas are closed together, so one being closed means the store already was
+        if(!recordArena.scope().isAlive())
+            return;
+        size = 0;
+        recordArena.close();
+        textArena.close();
+    }
+
+    /**
+     * @return "Empty list!" if the store is empty, otherwise each item, in order, on its own line.
+     */
+    @Override
+    public String toString() {
+        if(size == 0)
+            return "Empty list!\n";
+        StringBuilder s = new StringBuilder();
+
+        for(Food f : this) {
+            s.append(f);
+            s.append('\n');
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that hands out a <code>Food</code> view of each item, in order.
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return new Iterator<Food>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public Food next() {
+                if(position >= size)
+                    throw new NoSuchElementException();
+                return get(position++);
+            }
+        };
+    }
+
+    /**
+     * Decodes an item's name from the text arena.
+     * @param record offset of the item's record
+     * @return the name
+     */
+    private String name(long record) {
+        int length = records.get(ValueLayout.JAVA_INT, record + NAME_LENGTH);
+        if(length < 0)
+            return null;
+        long offset = records.get(ValueLayout.JAVA_LONG, record + NAME_OFFSET);
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(text, ValueLayout.JAVA_BYTE, offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares an item's name with another, ignoring case the way <code>FoodNameIndex</code> does, by decoding the stored UTF-8 a code point at a
+     * time.
+     * @param record offset of the item's record
+     * @param name the name to compare with
+     * @return whether the names are equal ignoring case
+     */
+    private boolean nameMatches(long record, String name) {
+        int length = records.get(ValueLayout.JAVA_INT, record + NAME_LENGTH);
+        if(length < 0)
+            return false;
+        long offset = records.get(ValueLayout.JAVA_LONG, record + NAME_OFFSET);
+        long end = offset + length;
+        int i = 0;
+        while(offset < end && i < name.length()) {
+            // Decode one code point of valid UTF-8
+            int b = text.get(ValueLayout.JAVA_BYTE, offset++);
+            int codePoint;
+            if(b >= 0) {
+                codePoint = b;
+            } else {
+                int extra = b >= -32 ? (b >= -16 ? 3 : 2) : 1;
+                codePoint = b & (0x3F >> extra);
+                for(int j = 0; j < extra; j++)
+                    codePoint = codePoint << 6 | text.get(ValueLayout.JAVA_BYTE, offset++) & 0x3F;
+            }
+
+            int other = name.codePointAt(i);
+            if(FoodNameIndex.fold(codePoint) != FoodNameIndex.fold(other))
+                return false;
+            i += Character.charCount(other);
+        }
+        return offset == end && i == name.length();
+    }
+
+    /**
+     * Makes sure a name fits at the end of the text arena, moving it to a bigger segment if not.
+     * @param length length in bytes of the name
+     */
+    private void ensureText(int length) {
+        if(textUsed + length > text.byteSize())
+            moveText(Math.max(textUsed + length, text.byteSize() * 2), false);
+    }
+
+    /**
+     * Drops the names of removed items by copying the live ones to a new text arena, in record order.
+     */
+    private void compactText() {
+        moveText(Math.max(textLive * 2, 1024), true);
+    }
+
+    /**
+     * Moves the names to a new text arena &amp; frees the old one.
+     * @param capacity size of the new arena in bytes
+     * @param compact whether to copy only the names of items in the store, updating their records, rather than the whole arena
+     */
+    private void moveText(long capacity, boolean compact) {
+        Arena arena = Arena.ofShared();
+        MemorySegment moved = arena.allocate(capacity, 1);
+        if(compact) {
+            long used = 0;
+            for(int i = 0; i < size; i++) {
+                long record = (long) i * RECORD_BYTES;
+                int length = Math.max(records.get(ValueLayout.JAVA_INT, record + NAME_LENGTH), 0);
+                MemorySegment.copy(text, records.get(ValueLayout.JAVA_LONG, record + NAME_OFFSET), moved, used, length);
+                records.set(ValueLayout.JAVA_LONG, record + NAME_OFFSET, used);
+                used += length;
+            }
+            textUsed = used;
+        } else {
+            MemorySegment.copy(text, 0, moved, 0, textUsed);
+        }
+        textArena.close();
+        textArena = arena;
+        text = moved;
+    }
+
+    /**
+     * Moves the records to a bigger segment &amp; frees the old one.
+     * @param capacity size of the new segment in bytes
+     */
+    private void growRecords(long capacity) {
+        Arena arena = Arena.ofShared();
+        MemorySegment moved = arena.allocate(capacity, Long.BYTES);
+        MemorySegment.copy(records, 0, moved, 0, (long) size * RECORD_BYTES);
+        recordArena.close();
+        recordArena = arena;
+        records = moved;
+    }
+
+    /**
+     * Makes sure a position holds an item.
+     * @param position the position to check
+     */
+    private void checkPosition(int position) {
+        if(position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("position " + position + " is outside a store of " + size + " items!");
+    }
+}
@@ -0,0 +1,542 @@
+package lab9;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Immutable, versioned collection of <code>Food</code> items. Adding or removing items never changes a list; it returns a new version, &amp; every
+ * version stays usable, so a full menu &amp; any number of "what-if" purges of it can be kept side by side without reloading the file. Since
+ * nothing ever changes, any number of threads can read a version while another makes new ones, without locking.
+ * <p>
+ * Items live in leaves of up to <code>LEAF_CAPACITY</code>, under branches of up to <code>BRANCHING</code> children, all leaves at the same
+ * depth. Every node knows how many items are below it &amp; the most Calories any of them has. A new version copies only the nodes on the paths to
+ * what changed &amp; shares every other node with the version it came from: an append copies one path, &amp; a purge shares every subtree whose
+ * items are all under the limit without looking inside it. The items themselves are shared, not copied.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+public class PersistentFoodList implements Iterable<Food> {
+    /**
+     * Most items in a leaf.
+     */
+    static final int LEAF_CAPACITY = FoodList.NODE_CAPACITY;
+
+    /**
+     * Most children of a branch.
+     */
+    static final int BRANCHING = 32;
+
+    /**
+     * Node of the tree: a leaf holding items or a branch holding nodes. Never changed once made.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    static class Node {
+        /**
+         * The items of a leaf, exactly as many as it holds, or <code>null</code> for a branch.
+         */
+        final Food[] items;
+
+        /**
+         * The children of a branch, exactly as many as it has, or <code>null</code> for a leaf.
+         */
+        final Node[] children;
+
+        /**
+         * Number of items below this node.
+         */
+        final int count;
+
+        /**
+         * Most Calories of any item below this node.
+         */
+        final int maxCals;
+
+        /**
+         * Constructor for a leaf.
+         * @param items the items, not copied
+         */
+        Node(Food[] items) {
+            int max = Integer.MIN_VALUE;
+            for(Food f : items)
+                max = Math.max(max, f.getCals());
+            this.items = items;
+            this.children = null;
+            this.count = items.length;
+            this.maxCals = max;
+        }
+
+        /**
+         * Constructor for a branch.
+         * @param children the children, not copied
+         */
+        Node(Node[] children) {
+            int count = 0, max = Integer.MIN_VALUE;
+            for(Node child : children) {
+                count += child.count;
+                max = Math.max(max, child.maxCals);
+            }
+            this.items = null;
+            this.children = children;
+            this.count = count;
+            this.maxCals = max;
+        }
+
+        /**
+         * @return whether this node is a leaf
+         */
+        boolean isLeaf() {
+            return items != null;
+        }
+    }
+
+    /**
+     * The root of the tree, an empty leaf if the list is empty.
+     */
+    final Node root;
+
+    /**
+     * Number of branches between the root &amp; the leaves.
+     */
+    private final int height;
+
+    /**
+     * Number of changes made to the empty list to reach this version.
+     */
+    private final long version;
+
+    /**
+     * Default constructor. Makes an empty list, version 0.
+     */
+    public PersistentFoodList() {
+        this(new Node(new Food[0]), 0, 0);
+    }
+
+    /**
+     * Constructor. Makes version 1 of a list of the given items, in iteration order, with every leaf full but the last. O(n) time.
+     * @param foods the items, e.g. a <code>FoodList</code>
+     */
+    public PersistentFoodList(Iterable<? extends Food> foods) {
+        this(new PersistentFoodList().addAll(foods));
+    }
+
+    /**
+     * Copy constructor. Shares the whole tree.
+     * @param other the version to copy
+     */
+    private PersistentFoodList(PersistentFoodList other) {
+        this(other.root, other.height, other.version);
+    }
+
+    /**
+     * Constructor.
+     * @param root the root of the tree
+     * @param height the number of branches between the root &amp; the leaves
+     * @param version the version number
+     */
+    private PersistentFoodList(Node root, int height, long version) {
+        this.root = root;
+        this.height = height;
+        this.version = version;
+    }
+
+    /**
+     * Getter for the size of the list
+     * @return the number of items in this version
+     */
+    public int getLength() {
+        return root.count;
+    }
+
+    /**
+     * Getter for the version number
+     * @return the number of changes made to the empty list to reach this version. Versions made from the same one share a number.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter for an item by position. O(log n) time.
+     * @param position position of the item, from 0
+     * @return the item
+     */
+    public Food get(int position) {
+        if(position < 0 || position >= root.count)
+            throw new IndexOutOfBoundsException("position " + position + " is outside a list of " + root.count + " items!");
+        Node node = root;
+        while(!node.isLeaf()) {
+            int i = 0;
+            while(position >= node.children[i].count)
+                position -= node.children[i++].count;
+            node = node.children[i];
+        }
+        return node.items[position];
+    }
+
+    /**
+     * Makes a version with a <code>Food</code> added to the end. Copies the last leaf &amp; the path to it, so O(log n) time.
+     * @param f <code>Food</code> instance to be added.
+     * @return the new version
+     */
+    public PersistentFoodList add(Food f) {
+        if(f == null)
+            throw new IllegalArgumentException("f must not be null!");
+        Node added = addToLast(root, f);
+        if(added != null)
+            return new PersistentFoodList(added, height, version + 1);
+        return withLeaf(new Node(new Food[] {f}), version + 1);
+    }
+
+    /**
+     * Makes a version with every <code>Food</code> from an <code>Iterable</code> added to the end, in iteration order. Adds them a full leaf at a
+     * time, so O(n + k) time for k items however many there are, &amp; counts as a single change.
+     * @param foods the items to be added
+     * @return the new version, or this one if there were no items
+     */
+    public PersistentFoodList addAll(Iterable<? extends Food> foods) {
+        PersistentFoodList list = this;
+        Food[] leaf = new Food[LEAF_CAPACITY];
+        int used = 0;
+        for(Food f : foods) {
+            if(f == null)
+                throw new IllegalArgumentException("foods must not hold null!");
+            leaf[used++] = f;
+            if(used == LEAF_CAPACITY) {
+                list = list.withLeaf(new Node(leaf), version + 1);
+                leaf = new Food[LEAF_CAPACITY];
+                used = 0;
+            }
+        }
+
+        // Whatever is left tops up the last leaf
+        for(int i = 0; i < used; i++)
+            list = list.add(leaf[i]);
+        return list == this ? this : new PersistentFoodList(list.root, list.height, version + 1);
+    }
+
+    /**
+     * Makes a version without the items with Calories >= <code>cals</code>, keeping the rest in order. Shares every subtree with no such items
+     * with this version without visiting it, so O(log n) time when the items removed are close together &amp; O(n) at worst.
+     * @param cals The Calorie threshold
+     * @return the new version, or this one if no item reaches <code>cals</code>
+     */
+    public PersistentFoodList removeHighCalFoods(int cals) {
+        long started = FoodMetrics.start();
+        try {
+            if(root.maxCals < cals)
+                return this;
+            Node kept = purge(root, cals);
+            if(kept == null)
+                return new PersistentFoodList(new Node(new Food[0]), 0, version + 1);
+
+            // Branches left with a single child at the top are dropped, so purging down to a few items gives a shallow tree
+            int depth = height;
+            while(!kept.isLeaf() && kept.children.length == 1) {
+                kept = kept.children[0];
+                depth--;
+            }
+            return new PersistentFoodList(kept, depth, version + 1);
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.REMOVE_HIGH_CAL_FOODS, started);
+        }
+    }
+
+    /**
+     * Searches for a <code>Food</code> by name (case-insensitive). If several items share the name, the first in the list is returned. O(n) time.
+     * @param name the name of the <code>Food</code> to search for.
+     * @return the <code>Food</code> instance if found in the list,<code>null</code> if not.
+     */
+    public Food findByName(String name) {
+        long started = FoodMetrics.start();
+        try {
+            if(name == null)
+                return null;
+            for(Food f : this) {
+                if(name.equalsIgnoreCase(f.getName()))
+                    return f;
+            }
+            return null;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.FIND_BY_NAME, started);
+        }
+    }
+
+    /**
+     * Picks foods at random from the list, possibly the same one more than once. Uses a generator kept by the calling thread. O(k log n) time.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods) {
+        return randomMeal(numFoods, true, FoodList.random.get());
+    }
+
+    /**
+     * Picks foods at random from the list using a generator seeded with <code>seed</code>, so the same list &amp; seed always give the same meal.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param seed the seed for the generator
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, long seed) {
+        return randomMeal(numFoods, replacement, new SplittableRandom(seed));
+    }
+
+    /**
+     * Picks foods at random from the list. See <code>FoodList.randomMeal(int, boolean, SplittableRandom)</code>; the same items &amp; generator
+     * give the same meal. O(k log n) time.
+     * @param numFoods the number of <code>Food</code>s to be included in the random meal.
+     * @param replacement whether an item can be picked more than once
+     * @param rand the generator to use. Not thread-safe, so it must not be shared between threads.
+     * @return an array of <code>Food</code>s of size <code>numFoods</code> containing the randomly-selected meal.
+     */
+    public Food[] randomMeal(int numFoods, boolean replacement, SplittableRandom rand) {
+        long started = FoodMetrics.start();
+        try {
+            FoodList.checkMeal(root.count, numFoods, replacement);
+            int[] picks = new int[numFoods];
+            FoodList.pickPositions(root.count, replacement, rand, picks, 0, numFoods);
+
+            Food[] meal = new Food[numFoods];
+            for(int i = 0; i < numFoods; i++)
+                meal[i] = get(picks[i]);
+            return meal;
+        } finally {
+            FoodMetrics.stop(FoodMetrics.Operation.RANDOM_MEAL, started);
+        }
+    }
+
+    /**
+     * Copies this version into a <code>FoodList</code>, e.g. to carry on changing it in place.
+     * @return a new <code>FoodList</code> of the same items, in order
+     */
+    public FoodList toFoodList() {
+        FoodList foods = new FoodList();
+        foods.addAll(this);
+        return foods;
+    }
+
+    /**
+     * @return "Empty list!" if the list is empty, otherwise each <code>Food</code> in the list, in order, on its own line.
+     */
+    @Override
+    public String toString() {
+        if(root.count == 0)
+            return "Empty list!\n";
+        StringBuilder s = new StringBuilder();
+
+        for(Food f : this) {
+            s.append(f);
+            s.append('\n');
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that starts at the beginning of this version.
+     */
+    @Override
+    public Iterator<Food> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Cursor for paging through the list from any position. Jumps to the position in O(log n), then steps along the leaves.
+     * @param from position of the first item to return, from 0
+     * @return a new <code>Iterator&lt;Food&gt;</code> instance that starts at <code>from</code>.
+     */
+    public Iterator<Food> iterator(int from) {
+        if(from < 0 || from > root.count)
+            throw new IndexOutOfBoundsException("position " + from + " is outside a list of " + root.count + " items!");
+
+        // The branches on the way down to the leaf holding from, & the child taken at each
+        Node[] path = new Node[height];
+        int[] taken = new int[height];
+        Node node = root;
+        int position = Math.min(from, Math.max(root.count - 1, 0));
+        for(int level = 0; level < height; level++) {
+            int i = 0;
+            while(i < node.children.length - 1 && position >= node.children[i].count)
+                position -= node.children[i++].count;
+            path[level] = node;
+            taken[level] = i;
+            node = node.children[i];
+        }
+        Node first = node;
+        int start = from == root.count ? first.count : position;
+
+        return new Iterator<Food>() {
+            private Node leaf = first;
+            private int index = start;
+            private int left = root.count - from;
+
+            @Override
+            public boolean hasNext() {
+                return left > 0;
+            }
+
+            @Override
+            public Food next() {
+                if(left == 0)
+                    throw new NoSuchElementException();
+
+                // Climb to the nearest branch with a child after the one taken, then down its leftmost path
+                if(index == leaf.count) {
+                    int level = height - 1;
+                    while(taken[level] == path[level].children.length - 1)
+                        level--;
+                    taken[level]++;
+                    Node n = path[level].children[taken[level]];
+                    for(level++; level < height; level++) {
+                        path[level] = n;
+                        taken[level] = 0;
+                        n = n.children[0];
+                    }
+                    leaf = n;
+                    index = 0;
+                }
+                left--;
+                return leaf.items[index++];
+            }
+        };
+    }
+
+    /**
+     * Makes a version with a full or partly full leaf added after the last leaf, growing the tree a level if it has no room.
+     * @param leaf the leaf to add
+     * @param next the version number to give the new version
+     * @return the new version
+     */
+    private PersistentFoodList withLeaf(Node leaf, long next) {
+        if(root.count == 0)
+            return new PersistentFoodList(leaf, 0, next);
+        Node pushed = height == 0 ? null : pushLeaf(root, height, leaf);
+        if(pushed != null)
+            return new PersistentFoodList(pushed, height, next);
+        return new PersistentFoodList(new Node(new Node[] {root, path(leaf, height)}), height + 1, next);
+    }
+
+    /**
+     * Copies the path to the last leaf with an item added to the leaf, if it has room.
+     * @param node the node to add below
+     * @param f the item
+     * @return the copy of <code>node</code>, or <code>null</code> if its last leaf is full
+     */
+    private static Node addToLast(Node node, Food f) {
+        if(node.isLeaf()) {
+            if(node.count == LEAF_CAPACITY)
+                return null;
+            Food[] items = new Food[node.count + 1];
+            System.arraycopy(node.items, 0, items, 0, node.count);
+            items[node.count] = f;
+            return new Node(items);
+        }
+        int last = node.children.length - 1;
+        Node added = addToLast(node.children[last], f);
+        return added == null ? null : replace(node, last, added);
+    }
+
+    /**
+     * Copies the path to the last leaf with a leaf added after it, if any branch on the path has room.
+     * @param node a branch
+     * @param levels the number of branches from <code>node</code> down to the leaves, including it
+     * @param leaf the leaf to add
+     * @return the copy of <code>node</code>, or <code>null</code> if every branch on the path is full
+     */
+    private static Node pushLeaf(Node node, int levels, Node leaf) {
+        int last = node.children.length - 1;
+        if(levels > 1) {
+            Node pushed = pushLeaf(node.children[last], levels - 1, leaf);
+            if(pushed != null)
+                return replace(node, last, pushed);
+        }
+        if(node.children.length == BRANCHING)
+            return null;
+        Node[] children = new Node[node.children.length + 1];
+        System.arraycopy(node.children, 0, children, 0, node.children.length);
+        children[children.length - 1] = path(leaf, levels - 1);
+        return new Node(children);
+    }
+
+    /**
+     * Wraps a leaf in branches of one child, so it can hang at the given depth.
+     * @param leaf the leaf
+     * @param levels the number of branches to wrap it in
+     * @return the top branch, or the leaf if <code>levels</code> is 0
+     */
+    private static Node path(Node leaf, int levels) {
+        Node node = leaf;
+        for(int i = 0; i < levels; i++)
+            node = new Node(new Node[] {node});
+        return node;
+    }
+
+    /**
+     * Copies a branch with one child replaced.
+     * @param node the branch
+     * @param i index of the child
+     * @param child the new child
+     * @return the copy
+     */
+    private static Node replace(Node node, int i, Node child) {
+        Node[] children = node.children.clone();
+        children[i] = child;
+        return new Node(children);
+    }
+
+    /**
+     * Copies a subtree without its items with Calories >= <code>cals</code>, sharing every node below it that has none. Leaves next to each other
+     * that both lost items are merged if they fit in one.
+     * @param node the root of the subtree
+     * @param cals the Calorie threshold
+     * @return the copy, <code>node</code> itself if it has no such items, or <code>null</code> if it has nothing else
+     */
+    private static Node purge(Node node, int cals) {
+        if(node.maxCals < cals)
+            return node;
+
+        // Case: a leaf, keep what's under the limit
+        if(node.isLeaf()) {
+            Food[] kept = new Food[node.count];
+            int size = 0;
+            for(Food f : node.items) {
+                if(f.getCals() < cals)
+                    kept[size++] = f;
+            }
+            if(size == 0)
+                return null;
+            Food[] items = new Food[size];
+            System.arraycopy(kept, 0, items, 0, size);
+            return new Node(items);
+        }
+
+        // Otherwise, purge each child, dropping the emptied ones
+        Node[] children = new Node[node.children.length];
+        boolean[] changed = new boolean[node.children.length];
+        int size = 0;
+        for(Node child : node.children) {
+            Node kept = purge(child, cals);
+            if(kept == null)
+                continue;
+            boolean fresh = kept != child;
+            if(fresh && kept.isLeaf() && size > 0 && changed[size - 1] && children[size - 1].count + kept.count <= LEAF_CAPACITY) {
+                Food[] items = new Food[children[size - 1].count + kept.count];
+                System.arraycopy(children[size - 1].items, 0, items, 0, children[size - 1].count);
+                System.arraycopy(kept.items, 0, items, children[size - 1].count, kept.count);
+                children[size - 1] = new Node(items);
+                continue;
+            }
+            children[size] = kept;
+            changed[size++] = fresh;
+        }
+        if(size == 0)
+            return null;
+        Node[] trimmed = new Node[size];
+        System.arraycopy(children, 0, trimmed, 0, size);
+        return new Node(trimmed);
+    }
+}
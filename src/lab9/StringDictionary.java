@@ -0,0 +1,110 @@
+package lab9;
+
+import java.util.Arrays;
+
+/**
+ * Assigns small integer codes to <code>String</code>s, so columns of repeated text can be stored as <code>int</code>s. Codes are handed out
+ * from 0 in the order the <code>String</code>s are first seen &amp; never change. <code>null</code> always has the code -1.
+ * Lookups use an open-addressing table with linear probing.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class StringDictionary {
+    /**
+     * The <code>String</code>s, indexed by code. Valid up to <code>size</code>.
+     */
+    private String[] values = new String[16];
+
+    /**
+     * Number of <code>String</code>s stored.
+     */
+    private int size;
+
+    /**
+     * Hash table of codes + 1, 0 for empty slots. Length is a power of 2.
+     */
+    private int[] table = new int[32];
+
+    /**
+     * Finds the code of a <code>String</code>, adding it if it isn't stored yet.
+     * @param value the <code>String</code>
+     * @return its code
+     */
+    int code(String value) {
+        if(value == null)
+            return -1;
+
+        int mask = table.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while(table[slot] != 0) {
+            if(values[table[slot] - 1].equals(value))
+                return table[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+
+        // Not found, so add it in the empty slot we stopped at
+        if(size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size] = value;
+        table[slot] = ++size;
+        if(size > table.length / 2)
+            rehash(table.length * 2);
+        return size - 1;
+    }
+
+    /**
+     * Finds the code of a <code>String</code> without adding it.
+     * @param value the <code>String</code>
+     * @return its code, or -2 if it isn't stored (-1 being the code of <code>null</code>)
+     */
+    int find(String value) {
+        if(value == null)
+            return -1;
+
+        int mask = table.length - 1;
+        for(int slot = spread(value.hashCode()) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if(values[table[slot] - 1].equals(value))
+                return table[slot] - 1;
+        }
+        return -2;
+    }
+
+    /**
+     * @param code a code handed out by this dictionary, or -1
+     * @return the <code>String</code> with that code
+     */
+    String get(int code) {
+        return code < 0 ? null : values[code];
+    }
+
+    /**
+     * @return the number of <code>String</code>s stored, i.e. the next code to be handed out
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Rebuilds the hash table at a new size.
+     * @param capacity the new number of slots, a power of 2
+     */
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for(int code = 0; code < size; code++) {
+            int slot = spread(values[code].hashCode()) & mask;
+            while(table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = code + 1;
+        }
+    }
+
+    /**
+     * @param hash a hash code
+     * @return the hash with its high bits mixed into the low ones, which pick the slot
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,247 @@
+package lab9;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * Stress tests of <code>ConcurrentFoodList</code>: writers append while readers iterate, look up &amp; pick meals &amp; a remover purges
+ * high-Calorie items, all at the same time. Readers check every snapshot they iterate &amp; record the first problem, which fails the test once
+ * every thread has finished. Writer <i>w</i>'s <i>i</i>th item is named "W<i>w</i>-<i>i</i>" &amp; has Calories from a generator seeded with
+ * <i>w</i>, so the tests can work out afterwards what each writer added.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class ConcurrentFoodListTest {
+    /**
+     * Items each writer appends.
+     */
+    static final int PER_WRITER = 20_000;
+
+    /**
+     * Number of writers.
+     */
+    static final int WRITERS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * Number of readers.
+     */
+    static final int READERS = 2;
+
+    /**
+     * A purge that has finished: its threshold, &amp; how many items each writer had finished adding when it started, all of which it must have
+     * removed if they had at least that many Calories.
+     *
+     * @author Alexander Gould
+     * @version 1.0
+     */
+    private static class Purge {
+        /**
+         * The Calorie threshold.
+         */
+        final int cals;
+
+        /**
+         * Items each writer had added before the purge started.
+         */
+        final int[] before;
+
+        /**
+         * Constructor.
+         * @param cals the Calorie threshold
+         * @param before items each writer had added before the purge started
+         */
+        Purge(int cals, int[] before) {
+            this.cals = cals;
+            this.before = before;
+        }
+    }
+
+    /**
+     * Appends from several threads at once while others read, then checks that no append was lost: every item is in the list once, in each
+     * writer's order, &amp; can be found by name.
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void appendsAreNeverLost() throws InterruptedException {
+        ConcurrentFoodList foods = new ConcurrentFoodList();
+        AtomicReference<String> failure = new AtomicReference<String>();
+        AtomicReference<Purge> purged = new AtomicReference<Purge>(new Purge(Integer.MAX_VALUE, new int[WRITERS]));
+        run(foods, failure, purged, false);
+
+        assertNull(failure.get());
+        assertNull(check(foods, purged.get()));
+        assertEquals(WRITERS * PER_WRITER, foods.getLength());
+        for(int w = 0; w < WRITERS; w++) {
+            for(int i = 0; i < PER_WRITER; i++)
+                assertTrue(foods.findByName("w" + w + "-" + i) != null, "W" + w + "-" + i + " was lost");
+        }
+    }
+
+    /**
+     * Appends, reads &amp; purges at once, with the purge threshold stepping down from 999 to 500 Calories. Readers check that every snapshot
+     * they take after a purge has finished is missing each item over its threshold that was added before it started, as well as being in
+     * order. Afterwards every item under 500 Calories, which no purge removes, must be in the list exactly once.
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void purgesAreCorrectUnderContention() throws InterruptedException {
+        ConcurrentFoodList foods = new ConcurrentFoodList();
+        AtomicReference<String> failure = new AtomicReference<String>();
+        AtomicReference<Purge> purged = new AtomicReference<Purge>(new Purge(Integer.MAX_VALUE, new int[WRITERS]));
+        run(foods, failure, purged, true);
+
+        assertNull(failure.get());
+        assertNull(check(foods, purged.get()));
+        int low = 0;
+        for(int w = 0; w < WRITERS; w++) {
+            Random rand = new Random(w);
+            for(int i = 0; i < PER_WRITER; i++) {
+                if(rand.nextInt(1000) < 500) {
+                    low++;
+                    assertTrue(foods.findByName("w" + w + "-" + i) != null, "W" + w + "-" + i + " was lost");
+                }
+            }
+        }
+
+        // Once everything has stopped, one more purge must leave exactly the low-Calorie items
+        foods.removeHighCalFoods(500);
+        assertEquals(low, foods.getLength());
+        for(Food f : foods)
+            assertTrue(f.getCals() < 500, f.getName() + " survived the last purge");
+    }
+
+    /**
+     * Checks that an iterator keeps seeing the items as they were when it was made, whatever is appended or removed afterwards.
+     */
+    @Test
+    void iteratorsSeeASnapshot() {
+        ConcurrentFoodList foods = new ConcurrentFoodList(2);
+        List<Food> added = new ArrayList<Food>();
+        Random rand = new Random(1);
+        for(int i = 0; i < 10; i++) {
+            Food f = FoodFiles.food(i, rand);
+            foods.add(f);
+            added.add(f);
+        }
+
+        Iterator<Food> before = foods.iterator();
+        foods.removeHighCalFoods(500);
+        for(int i = 10; i < 100; i++)
+            foods.add(FoodFiles.food(i, rand));
+        for(Food f : added)
+            assertSame(f, before.next());
+        assertFalse(before.hasNext());
+
+        Iterator<Food> after = foods.iterator();
+        int count = 0;
+        while(after.hasNext()) {
+            after.next();
+            count++;
+        }
+        assertEquals(foods.getLength(), count);
+    }
+
+    /**
+     * Runs <code>WRITERS</code> writers &amp; <code>READERS</code> readers, &amp; a remover if asked, until the writers have finished.
+     * @param foods the list
+     * @param failure where readers record the first problem they find
+     * @param purged the last purge to have finished, updated by the remover
+     * @param remove whether to run the remover
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private static void run(ConcurrentFoodList foods, AtomicReference<String> failure, AtomicReference<Purge> purged, boolean remove)
+            throws InterruptedException {
+        AtomicIntegerArray added = new AtomicIntegerArray(WRITERS);
+        Thread[] writers = new Thread[WRITERS];
+        for(int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                Random rand = new Random(writer);
+                for(int i = 0; i < PER_WRITER; i++) {
+                    foods.add(new Food("W" + writer + "-" + i, FoodFiles.GROUPS[i % FoodFiles.GROUPS.length], rand.nextInt(1000), 0.01));
+                    added.set(writer, i + 1);
+                }
+            });
+        }
+
+        List<Thread> others = new ArrayList<Thread>();
+        for(int r = 0; r < READERS; r++) {
+            others.add(new Thread(() -> {
+                while(writers[0].isAlive() && failure.get() == null) {
+                    // Read the last purge first, so the snapshot checked is taken after it finished
+                    String problem = check(foods, purged.get());
+                    if(problem != null)
+                        failure.compareAndSet(null, problem);
+                    if(foods.getLength() > 0)
+                        foods.randomMeal(3);
+                }
+            }));
+        }
+        if(remove) {
+            others.add(new Thread(() -> {
+                int cals = 999;
+                while(writers[0].isAlive() || cals >= 500) {
+                    int[] before = new int[WRITERS];
+                    for(int w = 0; w < WRITERS; w++)
+                        before[w] = added.get(w);
+                    foods.removeHighCalFoods(Math.max(cals, 500));
+                    purged.set(new Purge(Math.max(cals, 500), before));
+                    cals--;
+                }
+            }));
+        }
+
+        for(Thread t : writers)
+            t.start();
+        for(Thread t : others)
+            t.start();
+        for(Thread t : writers)
+            t.join();
+        for(Thread t : others)
+            t.join();
+    }
+
+    /**
+     * Checks one snapshot of the list: no empty slots, each writer's items once each &amp; in the order they were added, low-Calorie items found
+     * by name &amp; nothing a finished purge should have removed.
+     * @param foods the list
+     * @param purged the last purge to have finished before the snapshot was taken
+     * @return a description of the first problem, or <code>null</code> if there were none
+     */
+    private static String check(ConcurrentFoodList foods, Purge purged) {
+        int[] last = new int[WRITERS];
+        Arrays.fill(last, -1);
+        for(Food f : foods) {
+            if(f == null || !f.getName().startsWith("W"))
+                return "a snapshot held " + f;
+            int dash = f.getName().indexOf('-');
+            int writer = Integer.parseInt(f.getName().substring(1, dash)), i = Integer.parseInt(f.getName().substring(dash + 1));
+            if(i <= last[writer])
+                return f.getName() + " came after W" + writer + "-" + last[writer];
+            last[writer] = i;
+            if(f.getCals() >= purged.cals && i < purged.before[writer])
+                return f.getName() + " with " + f.getCals() + " Calories survived a purge at " + purged.cals;
+            if(f.getCals() < 500 && foods.findByName(f.getName()) != f)
+                return f.getName() + " was seen but not found by name";
+        }
+        return null;
+    }
+}
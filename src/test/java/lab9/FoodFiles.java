@@ -0,0 +1,54 @@
+package lab9;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generated food files &amp; items for the tests, in the same format as <code>foods.txt</code>.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+final class FoodFiles {
+    /**
+     * Food groups generated items are spread over.
+     */
+    static final String[] GROUPS = {"protein", "vegetable", "fruit", "grain", "dairy", "fat"};
+
+    /**
+     * Not instantiable.
+     */
+    private FoodFiles() {}
+
+    /**
+     * Generates an item with a unique name, a random group, 0-999 Calories &amp; a daily percentage of 0-0.99.
+     * @param i number making the name unique
+     * @param rand the generator
+     * @return the item
+     */
+    static Food food(int i, Random rand) {
+        return new Food("Food" + i, GROUPS[rand.nextInt(GROUPS.length)], rand.nextInt(1000), rand.nextInt(100) / 100.0);
+    }
+
+    /**
+     * Writes a food file of generated items, one per line.
+     * @param file where to write
+     * @param size number of items
+     * @param seed seed for the generator
+     * @throws IOException if the file can't be written
+     */
+    static void generate(Path file, int size, long seed) throws IOException {
+        Random rand = new Random(seed);
+        try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(int i = 0; i < size; i++) {
+                Food f = food(i, rand);
+                out.write(f.getName() + " " + f.getGroup() + " " + f.getCals() + " " + f.getDailyPercentage());
+                out.write('\n');
+            }
+        }
+    }
+}
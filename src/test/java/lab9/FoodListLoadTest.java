@@ -0,0 +1,176 @@
+package lab9;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that <code>FoodList</code> loads in linear time &amp; that adding, bulk adding, appending &amp; purging keep its tail right. The
+ * 10^6-row load tests are tagged <code>performance</code>, so <code>mvn test -DexcludedGroups=performance</code> skips them. Their time
+ * limits are generous: a linear load takes well under a second, while walking to the tail on every add, as the list once did, takes hours.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class FoodListLoadTest {
+    /**
+     * Number of rows in the load tests.
+     */
+    static final int ROWS = 1_000_000;
+
+    /**
+     * Longest a load of <code>ROWS</code> rows may take.
+     */
+    static final Duration LIMIT = Duration.ofSeconds(20);
+
+    /**
+     * Directory for the generated files.
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Reads a 10^6-row file a line at a time into a list with <code>add</code>, the way <code>Driver</code> first loaded it.
+     * @throws IOException if the file can't be written or read
+     */
+    @Test
+    @Tag("performance")
+    void addsAMillionRowsInTime() throws IOException {
+        Path file = dir.resolve("foods.txt");
+        FoodFiles.generate(file, ROWS, 1);
+
+        FoodList foods = assertTimeoutPreemptively(LIMIT, () -> {
+            FoodList list = new FoodList();
+            try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                for(String line = in.readLine(); line != null; line = in.readLine())
+                    list.add(Food.fromTextLine(line));
+            }
+            return list;
+        });
+        assertEquals(ROWS, foods.getLength());
+        assertEquals("Food" + (ROWS - 1), last(foods).getName());
+    }
+
+    /**
+     * Loads a 10^6-row file with <code>FoodLoader</code>, sequentially &amp; in parallel.
+     * @throws IOException if the file can't be written or read
+     */
+    @Test
+    @Tag("performance")
+    void loadsAMillionRowsInTime() throws IOException {
+        Path file = dir.resolve("foods.txt");
+        FoodFiles.generate(file, ROWS, 2);
+
+        FoodList foods = assertTimeoutPreemptively(LIMIT, () -> FoodLoader.load(file));
+        assertEquals(ROWS, foods.getLength());
+        assertEquals("Food" + (ROWS - 1), last(foods).getName());
+
+        FoodList parallel = assertTimeoutPreemptively(LIMIT, () -> FoodLoader.loadParallel(file));
+        assertEquals(ROWS, parallel.getLength());
+        assertEquals("Food" + (ROWS - 1), last(parallel).getName());
+    }
+
+    /**
+     * Builds a list with every way of adding to it &amp; purges from its end, checking the items &amp; that adding afterwards goes on the end.
+     */
+    @Test
+    void bulkAddsKeepTheTail() {
+        Random rand = new Random(3);
+        List<Food> expected = new ArrayList<Food>();
+        FoodList foods = new FoodList();
+        int next = 0;
+
+        // One at a time, from an Iterable, from a Stream & by appending another list, each across several nodes
+        for(int i = 0; i < 100; i++, next++) {
+            Food f = FoodFiles.food(next, rand);
+            foods.add(f);
+            expected.add(f);
+        }
+        List<Food> batch = new ArrayList<Food>();
+        for(int i = 0; i < 150; i++)
+            batch.add(FoodFiles.food(next++, rand));
+        foods.addAll(batch);
+        expected.addAll(batch);
+        batch.clear();
+        for(int i = 0; i < 70; i++)
+            batch.add(FoodFiles.food(next++, rand));
+        foods.addAll(batch.stream());
+        expected.addAll(batch);
+        FoodList other = new FoodList();
+        for(int i = 0; i < 130; i++, next++) {
+            Food f = FoodFiles.food(next, rand);
+            other.add(f);
+            expected.add(f);
+        }
+        foods.append(other);
+        assertEquals(0, other.getLength());
+        assertItems(expected, foods);
+
+        // Adding to a list that was appended to, & to one appended to an empty list, goes after the appended items
+        Food f = FoodFiles.food(next++, rand);
+        foods.add(f);
+        expected.add(f);
+        assertItems(expected, foods);
+        FoodList empty = new FoodList();
+        empty.append(foods);
+        f = FoodFiles.food(next++, rand);
+        empty.add(f);
+        expected.add(f);
+        assertItems(expected, empty);
+
+        // Purge everything after the first few hundred, emptying the last nodes, then add again
+        Food over = new Food("Heavy", "fat", 5000, 0.5);
+        for(int i = 0; i < 200; i++) {
+            empty.add(over);
+            expected.add(over);
+        }
+        empty.removeHighCalFoods(1000);
+        expected.removeIf(food -> food.getCals() > 1000);
+        assertItems(expected, empty);
+        f = FoodFiles.food(next, rand);
+        empty.add(f);
+        expected.add(f);
+        assertItems(expected, empty);
+        assertSame(f, last(empty));
+    }
+
+    /**
+     * Checks a list holds exactly the expected items, in order.
+     * @param expected the items
+     * @param foods the list
+     */
+    private static void assertItems(List<Food> expected, FoodList foods) {
+        assertEquals(expected.size(), foods.getLength());
+        Iterator<Food> it = foods.iterator();
+        for(Food f : expected)
+            assertSame(f, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * @param foods a non-empty list
+     * @return its last item
+     */
+    private static Food last(FoodList foods) {
+        Food last = null;
+        for(Food f : foods)
+            last = f;
+        return last;
+    }
+}
@@ -0,0 +1,150 @@
+package lab9;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks <code>FoodList</code>'s running totals, kept in a <code>FoodStats</code>, against a full rescan of the list after each of a series of
+ * random changes: adds, appends, purges of the whole list &amp; of one group (with &amp; without the Calorie index &amp; group partitions, which
+ * remove items differently) &amp; clears, with some items beyond <code>FoodStats.HISTOGRAM_LIMIT</code> Calories &amp; some without a group.
+ *
+ * @author Alexander Gould
+ * @version 1.0
+ */
+class FoodStatsTest {
+    /**
+     * Random changes made to each list, checking the totals after every one.
+     */
+    static final int CHANGES = 200;
+
+    /**
+     * Makes random changes to a generated list &amp; checks every summary after each one.
+     * @param size number of items to start with
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1_000, 100_000})
+    void totalsMatchARescanAfterRandomChanges(int size) {
+        Random rand = new Random(size);
+        FoodList foods = new FoodList();
+        for(int i = 0; i < size; i++)
+            foods.add(FoodFiles.food(i, rand));
+        int next = size;
+        for(int change = 0; change < CHANGES; change++) {
+            int kind = rand.nextInt(10);
+            if(kind < 3) {
+                for(int i = rand.nextInt(Math.max(1, size / 10)); i >= 0; i--)
+                    foods.add(randomFood(rand, next++));
+            } else if(kind < 5) {
+                FoodList other = new FoodList();
+                for(int i = rand.nextInt(Math.max(1, size / 10)); i >= 0; i--)
+                    other.add(randomFood(rand, next++));
+                foods.append(other);
+            } else if(kind < 7) {
+                foods.setCalorieIndexed(rand.nextBoolean());
+                foods.removeHighCalFoods(500 + rand.nextInt(FoodStats.HISTOGRAM_LIMIT));
+            } else if(kind < 9) {
+                foods.setGroupPartitioned(rand.nextBoolean());
+                foods.removeHighCalFoods(rand.nextInt(1000), FoodFiles.GROUPS[rand.nextInt(FoodFiles.GROUPS.length)]);
+            } else if(rand.nextInt(10) == 0) {
+                foods.clear();
+            }
+            assertNull(check(foods), size + " items, change " + change);
+        }
+    }
+
+    /**
+     * Checks the summary of an empty list &amp; of a group with no items.
+     */
+    @Test
+    void emptyTotalsAreZero() {
+        FoodList foods = new FoodList();
+        assertEquals(0, foods.getGroupSummaries().length);
+        assertEquals(0, foods.getSummary().getCount());
+        assertNull(compare(foods.getSummary("protein"), new FoodStats.Summary("protein", 0, 0, 0, 0, 0)));
+    }
+
+    /**
+     * Makes an item mostly like <code>FoodFiles.food</code>'s, but now &amp; then without a group or with more Calories than
+     * <code>FoodStats</code> counts one by one.
+     * @param rand the generator
+     * @param i a number for its name
+     * @return the item
+     */
+    private static Food randomFood(Random rand, int i) {
+        String group = rand.nextInt(50) == 0 ? null : FoodFiles.GROUPS[rand.nextInt(FoodFiles.GROUPS.length)];
+        int kcal = rand.nextInt(50) == 0 ? FoodStats.HISTOGRAM_LIMIT + rand.nextInt(1000) : rand.nextInt(1000);
+        return new Food("Food" + i, group, kcal, rand.nextInt(100) / 100.0);
+    }
+
+    /**
+     * Compares a list's running totals with a rescan.
+     * @param foods the list
+     * @return a description of the first mismatch, or <code>null</code> if there were none
+     */
+    private static String check(FoodList foods) {
+        Map<String, FoodStats.Summary> expected = rescan(foods);
+        FoodStats.Summary[] groups = foods.getGroupSummaries();
+        if(groups.length != expected.size() - 1)
+            return groups.length + " groups summarized, expected " + (expected.size() - 1);
+        for(FoodStats.Summary group : groups) {
+            String problem = compare(group, expected.get(group.getGroup()));
+            if(problem != null)
+                return problem;
+        }
+        for(String group : FoodFiles.GROUPS) {
+            FoodStats.Summary want = expected.get(group);
+            String problem = compare(foods.getSummary(group), want != null ? want : new FoodStats.Summary(group, 0, 0, 0, 0, 0));
+            if(problem != null)
+                return problem;
+        }
+        return compare(foods.getSummary(), expected.get("All"));
+    }
+
+    /**
+     * Works out the totals of each group of a list, &amp; of the whole list under "All", by walking it.
+     * @param foods the list
+     * @return the totals, by group
+     */
+    private static Map<String, FoodStats.Summary> rescan(FoodList foods) {
+        Map<String, List<Food>> byGroup = new LinkedHashMap<String, List<Food>>();
+        List<Food> all = new ArrayList<Food>();
+        for(Food f : foods) {
+            byGroup.computeIfAbsent(f.getGroup(), g -> new ArrayList<Food>()).add(f);
+            all.add(f);
+        }
+        Map<String, FoodStats.Summary> totals = new HashMap<String, FoodStats.Summary>();
+        for(Map.Entry<String, List<Food>> group : byGroup.entrySet()) {
+            FoodStats.Summary s = FoodStats.summarize(group.getValue().toArray(new Food[0]));
+            totals.put(group.getKey(), new FoodStats.Summary(group.getKey(), s.getCount(), s.getTotalCals(), s.getMinCals(), s.getMaxCals(),
+                    s.getTotalDailyPercentage()));
+        }
+        totals.put("All", FoodStats.summarize(all.toArray(new Food[0])));
+        return totals;
+    }
+
+    /**
+     * @param actual totals from a list's summary
+     * @param expected totals from a rescan
+     * @return a description of how they differ, or <code>null</code> if they match. Daily percentage sums may differ by rounding.
+     */
+    private static String compare(FoodStats.Summary actual, FoodStats.Summary expected) {
+        if(expected == null)
+            return "summarized group " + actual.getGroup() + " has no items";
+        if(actual.getCount() != expected.getCount() || actual.getTotalCals() != expected.getTotalCals() || actual.getMinCals() != expected.getMinCals()
+                || actual.getMaxCals() != expected.getMaxCals()
+                || Math.abs(actual.getTotalDailyPercentage() - expected.getTotalDailyPercentage()) > 1e-6 * Math.max(1, expected.getCount()))
+            return "got " + actual + ", expected " + expected;
+        return null;
+    }
+}